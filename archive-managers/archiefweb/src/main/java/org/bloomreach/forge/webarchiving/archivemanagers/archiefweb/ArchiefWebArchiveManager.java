@@ -16,13 +16,21 @@
 
 package org.bloomreach.forge.webarchiving.archivemanagers.archiefweb;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
 import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
 import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveManagerCapabilities;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateResult;
 import org.hippoecm.hst.site.HstServices;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,6 +43,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+/**
+ * Web archive manager requesting the updates from ArchiefWeb. A batch of updates is requested with a single request
+ * listing the URLs of all updates, within the limits configured by {@code archiefweb.api.maxBatchSize} and
+ * {@code archiefweb.api.maxUrls}.
+ * <p>
+ * Updates can be requested by several threads at once. The requests share the token of the last authentication and
+ * only the authentication is serialized: when a request with the shared token fails, one thread logs in again and the
+ * threads waiting for it reuse its new token.
+ */
 public class ArchiefWebArchiveManager implements WebArchiveManager, PlatformManaged, Discoverable {
     private static final Logger log = LoggerFactory.getLogger(ArchiefWebArchiveManager.class);
 
@@ -42,11 +59,20 @@ public class ArchiefWebArchiveManager implements WebArchiveManager, PlatformMana
     protected static final String CONFIG_PROP_REQUEST_ENDPOINT = "archiefweb.api.endpoint.request";
     protected static final String CONFIG_PROP_USERNAME = "archiefweb.api.username";
     protected static final String CONFIG_PROP_PASSWORD = "archiefweb.api.password";
+    protected static final String CONFIG_PROP_MAX_BATCH_SIZE = "archiefweb.api.maxBatchSize";
+    protected static final String CONFIG_PROP_MAX_URLS = "archiefweb.api.maxUrls";
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 50;
+    private static final int DEFAULT_MAX_URLS = 500;
 
     private String authEndpoint;
     private String requestEndpoint;
     private String username;
     private String password;
+    private WebArchiveManagerCapabilities capabilities = new WebArchiveManagerCapabilities(DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_URLS);
+
+    private final ReentrantLock loginLock = new ReentrantLock();
+    private volatile String jwtToken;
 
     @Override
     public void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
@@ -66,17 +92,99 @@ public class ArchiefWebArchiveManager implements WebArchiveManager, PlatformMana
         if (password == null) {
             throw new WebArchiveUpdateException("Please configure api password ({})", CONFIG_PROP_PASSWORD);
         }
+        capabilities = new WebArchiveManagerCapabilities(getNumber(props, CONFIG_PROP_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE),
+                getNumber(props, CONFIG_PROP_MAX_URLS, DEFAULT_MAX_URLS));
+        jwtToken = null;
+    }
+
+    private static int getNumber(final Map<String, String> props, final String name, final int defaultValue) throws WebArchiveUpdateException {
+        final String value = props.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new WebArchiveUpdateException(e, "Please configure a number for {}, not '{}'", name, value);
+        }
     }
 
     @Override
     public void destroy() {
         log.debug("Destroying {}", this.getClass().getName());
+        jwtToken = null;
+    }
+
+    @Override
+    public void requestUpdate(final WebArchiveUpdate update) throws WebArchiveUpdateException {
+        requestAdd(update.getUrls(), update);
+    }
+
+    @Override
+    public List<WebArchiveUpdateResult> requestUpdates(final List<WebArchiveUpdate> updates) {
+        final Set<String> urls = new LinkedHashSet<>();
+        updates.forEach(update -> urls.addAll(update.getUrls()));
+
+        WebArchiveUpdateException failure = null;
+        try {
+            requestAdd(urls, updates);
+        } catch (WebArchiveUpdateException e) {
+            failure = e;
+        }
+
+        //The archive accepts or rejects the request as a whole
+        final List<WebArchiveUpdateResult> results = new ArrayList<>(updates.size());
+        for (WebArchiveUpdate update : updates) {
+            results.add(failure == null ? WebArchiveUpdateResult.succeeded(update) : WebArchiveUpdateResult.failed(update, failure));
+        }
+        return results;
     }
 
     @Override
-    public synchronized void requestUpdate(final WebArchiveUpdate update) throws WebArchiveUpdateException {
+    public WebArchiveManagerCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Request the 'add' action for the URLs, with the shared token or, if there is none yet, after authenticating. A
+     * request with a token obtained before is tried again once with a new token, as the token may have expired.
+     *
+     * @param requested the update or updates of the URLs, for error messages
+     */
+    private void requestAdd(final Collection<String> urls, final Object requested) throws WebArchiveUpdateException {
         try {
             ResourceServiceBroker broker = CrispHstServices.getDefaultResourceServiceBroker(HstServices.getComponentManager());
+            final String cachedToken = jwtToken;
+            if (cachedToken != null) {
+                try {
+                    if (postAdd(broker, cachedToken, urls)) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    log.debug("Web archive request with the current token failed, logging in again: {}", e.toString());
+                }
+            }
+            if (!postAdd(broker, login(broker, cachedToken, requested), urls)) {
+                throw new WebArchiveUpdateException("Web archive update failed {}", requested);
+            }
+        } catch (Throwable e) {
+            throw new WebArchiveUpdateException(e, "Web archive update failed for {}", requested);
+        }
+    }
+
+    /**
+     * Authenticate, unless another thread has replaced the rejected token by a new one already.
+     *
+     * @param rejectedToken the token rejected by the archive, or null if there was none
+     * @return the new token
+     */
+    private String login(final ResourceServiceBroker broker, final String rejectedToken, final Object requested) throws WebArchiveUpdateException {
+        loginLock.lock();
+        try {
+            final String currentToken = jwtToken;
+            if (currentToken != null && !currentToken.equals(rejectedToken)) {
+                return currentToken;
+            }
             Resource authInfo = broker.resolve("archiefWebEndpoint", authEndpoint,
                     ExchangeHintBuilder.create()
                             .methodName("POST")
@@ -85,35 +193,37 @@ public class ArchiefWebArchiveManager implements WebArchiveManager, PlatformMana
                                     " \"password\":\"" + password + "\"}")
                             .build());
 
-            if ("Authentication successful.".equals(authInfo.getValue("message"))) {
-                String jwtToken = authInfo.getValue("jwt", String.class);
-                Resource operationResource = broker.resolve("archiefWebEndpoint", requestEndpoint,
-                        ExchangeHintBuilder.create()
-                                .methodName("POST")
-                                .requestHeader("Content-Type", "application/json;charset=UTF-8")
-                                .requestHeader("Authorization", "Bearer " + jwtToken)
-                                .requestBody(createRequestBody(update))
-                                .build());
-
-                System.out.println(operationResource.getValue("message"));
-                if ("Action completed successfully.".equals(operationResource.getValue("message"))) {
-                    System.out.println("SUCCESS!!");
-                } else {
-                    throw new WebArchiveUpdateException("Web archive update failed {}", update);
-                }
-
-            } else {
-                throw new WebArchiveUpdateException("Authentication failed, web archive update {}", update);
+            if (!"Authentication successful.".equals(authInfo.getValue("message"))) {
+                jwtToken = null;
+                throw new WebArchiveUpdateException("Authentication failed, web archive update {}", requested);
             }
-        } catch (Throwable e) {
-            throw new WebArchiveUpdateException(e, "Web archive update failed for {}", update);
+            jwtToken = authInfo.getValue("jwt", String.class);
+            return jwtToken;
+        } finally {
+            loginLock.unlock();
         }
     }
 
-    private String createRequestBody(final WebArchiveUpdate update) throws WebArchiveUpdateException {
+    /**
+     * @return whether the archive completed the 'add' action for the URLs
+     */
+    private boolean postAdd(final ResourceServiceBroker broker, final String token, final Collection<String> urls) throws WebArchiveUpdateException {
+        Resource operationResource = broker.resolve("archiefWebEndpoint", requestEndpoint,
+                ExchangeHintBuilder.create()
+                        .methodName("POST")
+                        .requestHeader("Content-Type", "application/json;charset=UTF-8")
+                        .requestHeader("Authorization", "Bearer " + token)
+                        .requestBody(createRequestBody(urls))
+                        .build());
+
+        log.debug("Web archive response for {} urls: {}", urls.size(), operationResource.getValue("message"));
+        return "Action completed successfully.".equals(operationResource.getValue("message"));
+    }
+
+    private String createRequestBody(final Collection<String> urls) throws WebArchiveUpdateException {
         JSONObject payload = new JSONObject();
         try {
-            payload.put("url", new JSONArray(update.getUrls()));
+            payload.put("url", new JSONArray(urls));
             //TODO Use 'delete' operation on document unpublish
             payload.put("action", "add");
         } catch (JSONException e) {
@@ -26,23 +26,35 @@ import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-
+/**
+ * Simulates a web archive service: every request sleeps for {@code tester.sleep.seconds}, or for
+ * {@code tester.sleep.millis} if set, and fails about half of the time. Requests are not serialized, so that concurrent
+ * submissions overlap as they would against a remote service.
+ */
 public class TesterWebArchiveManager implements WebArchiveManager, PlatformManaged, Discoverable {
     private static final Logger log = LoggerFactory.getLogger(TesterWebArchiveManager.class);
 
-    private int testerSleepTimeInSeconds = 10;
+    private volatile long testerSleepTimeInMillis = 10000L;
 
     @Override
     public synchronized void initialize(final Map<String, String> props) {
         final String sleepSeconds = props.get("tester.sleep.seconds");
         if (sleepSeconds != null) {
             try {
-                testerSleepTimeInSeconds = Integer.parseInt(sleepSeconds);
+                testerSleepTimeInMillis = Integer.parseInt(sleepSeconds) * 1000L;
             } catch (NumberFormatException nfe) {
                 log.error("Initializing {}: cannot parse property tester.sleep.seconds='{}' into integer", this.getClass().getName(), sleepSeconds);
             }
         }
-        log.info("Initialized {}. Simulating a Web Archive service with conf: sleep seconds: {}", this.getClass().getName(), testerSleepTimeInSeconds);
+        final String sleepMillis = props.get("tester.sleep.millis");
+        if (sleepMillis != null) {
+            try {
+                testerSleepTimeInMillis = Long.parseLong(sleepMillis);
+            } catch (NumberFormatException nfe) {
+                log.error("Initializing {}: cannot parse property tester.sleep.millis='{}' into integer", this.getClass().getName(), sleepMillis);
+            }
+        }
+        log.info("Initialized {}. Simulating a Web Archive service with conf: sleep millis: {}", this.getClass().getName(), testerSleepTimeInMillis);
     }
 
     @Override
@@ -51,14 +63,14 @@ public class TesterWebArchiveManager implements WebArchiveManager, PlatformManag
     }
 
     @Override
-    public synchronized void requestUpdate(final WebArchiveUpdate update) throws WebArchiveUpdateException {
+    public void requestUpdate(final WebArchiveUpdate update) throws WebArchiveUpdateException {
         log.info("\n====================   Received update: ====================\n{}\n\n" +
             "========================================\n\n", update);
 
         try {
-            Thread.sleep(testerSleepTimeInSeconds * 1000);
+            Thread.sleep(testerSleepTimeInMillis);
         } catch (InterruptedException e) {
-            log.warn("Can't even sleep for {} seconds", testerSleepTimeInSeconds);
+            log.warn("Can't even sleep for {} millis", testerSleepTimeInMillis);
         }
 
         if (System.currentTimeMillis() % 2 != 0) {
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.archivemanagers.tester;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bloomreach.forge.webarchiving.cms.WebArchiveUpdatesSubmitter;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+
+/**
+ * Compares the 'platform' and 'virtual' dispatch modes of the {@link WebArchiveUpdatesSubmitter}, submitting jobs to
+ * the {@link TesterWebArchiveManager} at the same concurrency: a pool of that many platform threads against as many
+ * concurrent requests on virtual threads. Reports the time to submit all jobs and the peak number of live platform
+ * threads.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test} in this module on Java 21 or later. The arguments
+ * {@code [jobs] [sleepMillis] [concurrency] [rounds]}, by default 2000 jobs of 50 ms at a concurrency of 200 for 3
+ * rounds, are set with {@code -Dbenchmark.args}. On older JVMs the 'virtual' mode falls back on the platform pool.
+ */
+public class DispatchModeBenchmark {
+
+    private static final int SEARCH_LIMIT = 1000;
+
+    public static void main(final String[] args) throws Exception {
+        final int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final long sleepMillis = args.length > 1 ? Long.parseLong(args[1]) : 50L;
+        final int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        System.out.printf("Java %s, %d jobs of %d ms at a concurrency of %d%n", System.getProperty("java.version"), jobs, sleepMillis,
+                concurrency);
+        try {
+            Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            System.out.println("Virtual threads are not supported, the 'virtual' mode falls back on the platform pool");
+        }
+        // warm up both modes before measuring
+        run("platform", Math.max(1, jobs / 10), sleepMillis, concurrency);
+        run("virtual", Math.max(1, jobs / 10), sleepMillis, concurrency);
+        for (int round = 1; round <= rounds; round++) {
+            for (String mode : new String[]{"platform", "virtual"}) {
+                final Result result = run(mode, jobs, sleepMillis, concurrency);
+                System.out.printf("round %d %-8s %7d ms %9.1f jobs/s %6d peak threads%n", round, mode, result.elapsedMillis,
+                        jobs * 1000.0 / Math.max(1L, result.elapsedMillis), result.peakThreads);
+            }
+        }
+    }
+
+    private static class Result {
+        final long elapsedMillis;
+        final int peakThreads;
+
+        Result(final long elapsedMillis, final int peakThreads) {
+            this.elapsedMillis = elapsedMillis;
+            this.peakThreads = peakThreads;
+        }
+    }
+
+    private static Result run(final String mode, final int jobs, final long sleepMillis, final int concurrency) throws Exception {
+        final TesterWebArchiveManager tester = new TesterWebArchiveManager();
+        tester.initialize(Collections.singletonMap("tester.sleep.millis", Long.toString(sleepMillis)));
+        final CountDownLatch requested = new CountDownLatch(jobs);
+        final WebArchiveManager counting = update -> {
+            try {
+                tester.requestUpdate(update);
+            } finally {
+                requested.countDown();
+            }
+        };
+
+        final Map<String, String> config = new HashMap<>();
+        config.put("dispatchMode", mode);
+        config.put("workerCoreThreads", Integer.toString(concurrency));
+        config.put("workerMaxThreads", Integer.toString(concurrency));
+        config.put("maxConcurrentRequests", Integer.toString(concurrency));
+        final WebArchiveUpdatesSubmitter submitter = new WebArchiveUpdatesSubmitter(new QueueJobsManager(jobs), counting);
+        submitter.configure(config::get);
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long start = System.nanoTime();
+        try {
+            while (submitter.submitPendingJobs(SEARCH_LIMIT) > 0) {
+                // the submitter holds back the claiming while its workers are saturated
+            }
+            if (!requested.await(1, TimeUnit.HOURS)) {
+                throw new IllegalStateException("Jobs not submitted within an hour");
+            }
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (submitter.getRequeuedJobCount() > 0) {
+                throw new IllegalStateException(submitter.getRequeuedJobCount() + " jobs were put back in the queue");
+            }
+            return new Result(elapsedMillis, threads.getPeakThreadCount());
+        } finally {
+            submitter.destroy();
+            tester.destroy();
+        }
+    }
+
+    /**
+     * Hands out the given number of queued jobs once; the outcome of the submissions is not stored.
+     */
+    private static class QueueJobsManager implements WebArchiveUpdateJobsManager {
+        private final Deque<WebArchiveUpdateJob> queue = new ArrayDeque<>();
+
+        QueueJobsManager(final int jobs) {
+            for (int i = 0; i < jobs; i++) {
+                final WebArchiveUpdate update = new WebArchiveUpdate();
+                update.setId("job-" + i);
+                update.setCreated(Calendar.getInstance());
+                update.setType(WebArchiveUpdateType.DOCUMENT);
+                update.setUrls(Collections.singletonList("https://www.example.com/page-" + i));
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+                job.setId(update.getId());
+                job.setWebArchiveUpdate(update);
+                job.setStatus(WebArchiveUpdateJobStatus.QUEUED);
+                job.setCreated(update.getCreated());
+                job.setLastModified(update.getCreated());
+                queue.add(job);
+            }
+        }
+
+        @Override
+        public synchronized List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) {
+            final List<WebArchiveUpdateJob> claimed = new ArrayList<>();
+            while (claimed.size() < max && !queue.isEmpty()) {
+                final WebArchiveUpdateJob job = queue.poll();
+                job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+                claimed.add(job);
+            }
+            return claimed;
+        }
+
+        @Override
+        public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) {
+        }
+
+        @Override
+        public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                       final Map<String, String> searchFilters, final int offset,
+                                                                       final int limit, final String orderByPropertyHint,
+                                                                       final boolean ascending) throws WebArchiveUpdateException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
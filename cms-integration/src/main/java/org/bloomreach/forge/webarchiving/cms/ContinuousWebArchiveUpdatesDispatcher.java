@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.cms;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdatesDispatcher;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-running dispatcher of the pending web archive update jobs, owned by the
+ * {@link WebArchivingServicesDaemonModule}. A single thread claims and submits the pending jobs with a
+ * {@link WebArchiveUpdatesSubmitter} until the queue is drained, then waits for a {@link #wakeUp()}. Wake-ups come
+ * from the workflow task creating the jobs in this JVM and, for the jobs created on other cluster nodes, from JCR
+ * observation of the jobs added below {@code observedPath}; changes made through the observing session itself are
+ * not observed. Without wake-ups the queue is polled every
+ * {@code idleSeconds}, which also picks up the jobs of which the next attempt has become due.
+ * <p>
+ * After a wake-up the dispatcher waits {@code coalesceSeconds} before it claims the new jobs, so that repeated
+ * publications of a document within that time are merged into the queued job, see
+ * {@link WebArchiveUpdateJobsManager#createOrMergeWebArchiveUpdateJob}, instead of being submitted one by one. A longer
+ * delay merges more publications at the cost of archiving every change later; 0 submits the jobs right away.
+ * <p>
+ * Dispatchers of several cluster nodes can run at once, the updates jobs manager makes sure that every job is claimed
+ * by one node only.
+ */
+public class ContinuousWebArchiveUpdatesDispatcher implements WebArchiveUpdatesDispatcher, EventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ContinuousWebArchiveUpdatesDispatcher.class);
+
+    static final String CONFIG_ENABLED = "enabled";
+    private static final String CONFIG_SEARCH_LIMIT = "searchLimit";
+    private static final String CONFIG_IDLE_SECONDS = "idleSeconds";
+    private static final String CONFIG_OBSERVED_PATH = "observedPath";
+    private static final String CONFIG_COALESCE_SECONDS = "coalesceSeconds";
+
+    /**
+     * Node type of the web archive update jobs. Observation filters on the type of the parent of an added node, so
+     * the listener receives the addition of the update node of a new job, and not the nodes added or moved around
+     * the jobs in the updates store.
+     */
+    private static final String JOB_NODE_TYPE = "webarchivingaddon:updatejob";
+
+    private static final int DEFAULT_SEARCH_LIMIT = 1000;
+    private static final int DEFAULT_IDLE_SECONDS = 60;
+    private static final int DEFAULT_COALESCE_SECONDS = 10;
+    private static final long STOP_TIMEOUT_SECONDS = 60L;
+    private static final long BACK_OFF_PAUSE_MILLIS = 1000L;
+
+    private final WebArchiveUpdatesSubmitter submitter;
+    private final Object signal = new Object();
+    private final AtomicLong wakeUpCount = new AtomicLong();
+    private final AtomicLong passCount = new AtomicLong();
+    private final AtomicLong submittedJobCount = new AtomicLong();
+
+    private int searchLimit = DEFAULT_SEARCH_LIMIT;
+    private long idleMillis = TimeUnit.SECONDS.toMillis(DEFAULT_IDLE_SECONDS);
+    private long coalesceMillis = TimeUnit.SECONDS.toMillis(DEFAULT_COALESCE_SECONDS);
+    private Session observationSession;
+    private Thread thread;
+    private boolean wakeUpRequested;
+    private volatile boolean stopped;
+
+    public ContinuousWebArchiveUpdatesDispatcher(final WebArchiveUpdatesSubmitter submitter) {
+        this.submitter = submitter;
+    }
+
+    /**
+     * Configure the dispatcher, register the observation listener and start the dispatching thread.
+     *
+     * @param config  the dispatcher configuration; the submitter is configured by the owner of the dispatcher
+     * @param session the session to observe the updates store with, or null to rely on the in-JVM wake-ups and polling only
+     */
+    public synchronized void start(final Map<String, String> config, final Session session) throws RepositoryException {
+        searchLimit = (int) WebArchiveUpdatesSubmitter.getNumber(config::get, CONFIG_SEARCH_LIMIT, DEFAULT_SEARCH_LIMIT);
+        if (searchLimit < 1) {
+            searchLimit = DEFAULT_SEARCH_LIMIT;
+        }
+        idleMillis = TimeUnit.SECONDS.toMillis(Math.max(1L, WebArchiveUpdatesSubmitter.getNumber(config::get, CONFIG_IDLE_SECONDS, DEFAULT_IDLE_SECONDS)));
+        coalesceMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, WebArchiveUpdatesSubmitter.getNumber(config::get, CONFIG_COALESCE_SECONDS,
+                DEFAULT_COALESCE_SECONDS)));
+
+        final String observedPath = config.get(CONFIG_OBSERVED_PATH);
+        if (session != null && StringUtils.isNotBlank(observedPath)) {
+            session.getWorkspace().getObservationManager().addEventListener(this, Event.NODE_ADDED, observedPath.trim(), true, null,
+                    new String[]{JOB_NODE_TYPE}, true);
+            observationSession = session;
+            log.info("Observing {} for new web archive update jobs", observedPath);
+        }
+
+        stopped = false;
+        thread = new Thread(this::dispatch, "web-archiving-updates-dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the dispatching thread. The jobs it handed to the submitter complete on the workers of the submitter.
+     */
+    public synchronized void stop() {
+        if (observationSession != null) {
+            try {
+                final ObservationManager observationManager = observationSession.getWorkspace().getObservationManager();
+                observationManager.removeEventListener(this);
+            } catch (RepositoryException e) {
+                log.warn("Error while removing the web archive update jobs observation listener: {}", e.toString());
+            }
+            observationSession = null;
+        }
+
+        synchronized (signal) {
+            stopped = true;
+            signal.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+                if (thread.isAlive()) {
+                    log.warn("Web archive updates dispatcher not stopped after {} seconds, interrupting it", STOP_TIMEOUT_SECONDS);
+                    thread.interrupt();
+                }
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void wakeUp() {
+        wakeUpCount.incrementAndGet();
+        synchronized (signal) {
+            wakeUpRequested = true;
+            signal.notifyAll();
+        }
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        wakeUp();
+    }
+
+    /**
+     * Drain the queue in passes of at most {@code searchLimit} jobs. A pass that claimed fewer jobs found the queue
+     * empty, after which the thread waits for a wake-up or at most {@code idleSeconds}. A pass of which jobs were
+     * put back in the queue, because of the rate limit of the archive manager or because the workers of the submitter
+     * were saturated, is followed by a short pause, so that the jobs are not claimed again right away. The jobs are
+     * submitted asynchronously, a job put back in the queue may be noticed by the next pass only. A wake-up is followed by a pause of
+     * {@code coalesceSeconds}, during which the new jobs stay queued and absorb repeated publications.
+     */
+    private void dispatch() {
+        log.info("Started web archive updates dispatcher");
+        while (!stopped) {
+            synchronized (signal) {
+                wakeUpRequested = false;
+            }
+            final long rateLimited = submitter.getRateLimitedJobCount();
+            final long requeued = submitter.getRequeuedJobCount();
+            int claimed;
+            try {
+                claimed = submitter.submitPendingJobs(searchLimit);
+                passCount.incrementAndGet();
+                submittedJobCount.addAndGet(claimed);
+            } catch (WebArchiveUpdateException | RuntimeException e) {
+                log.error("Error while dispatching web archive update jobs, retrying in {} ms", idleMillis, e);
+                awaitWakeUp(idleMillis, true);
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (submitter.getRateLimitedJobCount() > rateLimited || submitter.getRequeuedJobCount() > requeued) {
+                awaitWakeUp(Math.min(BACK_OFF_PAUSE_MILLIS, idleMillis), true);
+            } else if (claimed < searchLimit && awaitWakeUp(idleMillis, false) && coalesceMillis > 0) {
+                awaitWakeUp(coalesceMillis, true);
+            }
+        }
+        log.info("Stopped web archive updates dispatcher");
+    }
+
+    /**
+     * Wait at most {@code timeoutMillis} for a wake-up, or for the dispatcher to stop only if {@code ignoreWakeUps}.
+     *
+     * @return whether the wait ended because of a wake-up
+     */
+    private boolean awaitWakeUp(final long timeoutMillis, final boolean ignoreWakeUps) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (signal) {
+            while (!stopped && (ignoreWakeUps || !wakeUpRequested)) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    signal.wait(remaining);
+                } catch (InterruptedException e) {
+                    stopped = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return !stopped && wakeUpRequested;
+        }
+    }
+
+    /**
+     * @return the number of wake-ups received, from this JVM and through observation
+     */
+    public long getWakeUpCount() {
+        return wakeUpCount.get();
+    }
+
+    /**
+     * @return the number of passes over the queue
+     */
+    public long getPassCount() {
+        return passCount.get();
+    }
+
+    /**
+     * @return the number of jobs claimed and submitted by this dispatcher
+     */
+    public long getSubmittedJobCount() {
+        return submittedJobCount.get();
+    }
+
+    /**
+     * @return the number of jobs put back in the queue because of the rate limit of the archive manager
+     */
+    public long getRateLimitedJobCount() {
+        return submitter.getRateLimitedJobCount();
+    }
+
+    /**
+     * @return the number of jobs being submitted
+     */
+    public int getActiveTaskCount() {
+        return submitter.getActiveTaskCount();
+    }
+
+    /**
+     * @return the number of claimed jobs waiting to be submitted
+     */
+    public int getQueuedTaskCount() {
+        return submitter.getQueuedTaskCount();
+    }
+}
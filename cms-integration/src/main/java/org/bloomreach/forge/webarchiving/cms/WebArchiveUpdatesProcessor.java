@@ -17,22 +17,23 @@
 package org.bloomreach.forge.webarchiving.cms;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.cms.decorator.RateLimitingWebArchiveManager;
+import org.bloomreach.forge.webarchiving.cms.util.Decorating;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
 import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
-import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
 import org.onehippo.cms7.services.HippoServiceRegistry;
 import org.onehippo.repository.scheduling.RepositoryJob;
 import org.onehippo.repository.scheduling.RepositoryJobExecutionContext;
@@ -42,12 +43,17 @@ import org.slf4j.LoggerFactory;
 import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ABORTED;
 import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ACKNOWLEDGED;
 import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ERROR;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.QUEUED;
 import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.SUBMITTED;
 import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.UNDEFINED;
 
 /**
  * A {@link RepositoryJob} implementation that processes completed and pending {@link WebArchiveUpdateJob} items, using
- * the underlying {@link WebArchiveUpdateJobsManager} and {@link WebArchiveManager}registry services
+ * the underlying {@link WebArchiveUpdateJobsManager} and {@link WebArchiveManager}registry services. The pending jobs
+ * are submitted by a {@link WebArchiveUpdatesSubmitter}; when the {@link ContinuousWebArchiveUpdatesDispatcher} is
+ * enabled, it submits the jobs as soon as they are created and this processor only sweeps up the jobs it missed. The
+ * submitter is owned by the {@link WebArchivingServicesDaemonModule} and shared with the dispatcher, so that the worker
+ * threads outlive the runs and a run does not wait for the submission of the jobs it claimed.
  */
 public class WebArchiveUpdatesProcessor implements RepositoryJob {
 
@@ -58,27 +64,29 @@ public class WebArchiveUpdatesProcessor implements RepositoryJob {
 
     private static final int DEFAULT_DAYS_TO_LIVE = 365;
     private static final int DEFAULT_SEARCH_LIMIT = 1000;
-    public static final long MAX_RETRIES_LIMIT = 5;
+    public static final long MAX_RETRIES_LIMIT = WebArchiveUpdatesSubmitter.MAX_RETRIES_LIMIT;
+
+    /**
+     * The start of the previous run of a processor, the failed jobs modified since then are logged by the next run.
+     * Shared by all runs because the scheduler creates a processor for every run.
+     */
+    private static volatile Calendar failedJobsLoggedUntil;
 
     private long daysToLive = DEFAULT_DAYS_TO_LIVE;
     private long searchLimit = DEFAULT_SEARCH_LIMIT;
 
-    private ExecutorService pool;
+    private volatile WebArchiveUpdatesSubmitter submitter;
     private WebArchiveUpdateJobsManager updateJobsManager;
     private WebArchiveManager webArchiveManager;
 
-    public WebArchiveUpdatesProcessor() {
-        if (pool == null) {
-            pool = Executors.newCachedThreadPool();
-        }
-    }
-
     @Override
     public void execute(final RepositoryJobExecutionContext context) throws RepositoryException {
         final Session session = context.createSystemSession();
         try {
             doConfigure(context);
+            logBacklog();
             processCompletedJobs();
+            purgeExpiredJobs();
             processPendingJobs();
 
         } catch (WebArchiveUpdateException e) {
@@ -88,71 +96,91 @@ public class WebArchiveUpdatesProcessor implements RepositoryJob {
         }
     }
 
-    protected void processCompletedJobs() throws RepositoryException, WebArchiveUpdateException {
-        final List<WebArchiveUpdateJob> completedJobs = updateJobsManager.getCompletedWebArchiveUpdateJobs((int) searchLimit);
-
-        //We collect all items eligible for deletion before deleting them because we want to to batch saves
-        final List<WebArchiveUpdateJob> jobDeletions = new ArrayList<>();
+    protected void logBacklog() {
+        try {
+            final Map<WebArchiveUpdateJobStatus, Long> counts = updateJobsManager.countByStatus();
+            log.info("Web archive update jobs: {} queued, {} submitted, {} aborted, {} completed", counts.get(QUEUED), counts.get(SUBMITTED),
+                    counts.get(ABORTED), counts.get(ACKNOWLEDGED) + counts.get(ERROR) + counts.get(UNDEFINED));
+        } catch (WebArchiveUpdateException | RuntimeException e) {
+            log.warn("Error while counting web archive update jobs: {}", e.toString());
+        }
+        logRateLimiter();
+    }
 
-        jobDeletions.addAll(completedJobs.stream().filter(job -> job.getStatus() == ACKNOWLEDGED).collect(Collectors.toList()));
+    /**
+     * Log the statistics of the rate limiter if the web archive manager is rate limited, see
+     * {@link RateLimitingWebArchiveManager}.
+     */
+    protected void logRateLimiter() {
+        Object manager = webArchiveManager;
+        while (manager instanceof Decorating) {
+            if (manager instanceof RateLimitingWebArchiveManager) {
+                ((RateLimitingWebArchiveManager) manager).logStatistics();
+                return;
+            }
+            manager = ((Decorating<?>) manager).getDelegate();
+        }
+    }
 
-        List<WebArchiveUpdateJob> failedJobs = completedJobs.stream().filter(job -> job.getStatus() == ERROR).collect(Collectors.toList());
+    /**
+     * Log the jobs that failed since the previous run, or all failed jobs up to {@code searchLimit} on the first run
+     * after startup. Only the summaries of the jobs are loaded; completed jobs, failed or not, are kept until they
+     * expire, see {@link #purgeExpiredJobs()}.
+     */
+    protected void processCompletedJobs() throws RepositoryException, WebArchiveUpdateException {
+        final Calendar now = Calendar.getInstance();
+        final Calendar since = failedJobsLoggedUntil;
+        final List<WebArchiveUpdateJobSummary> failedJobs = new ArrayList<>();
+        for (WebArchiveUpdateJobSummary summary : updateJobsManager.searchForWebArchiveUpdateJobSummaries(Arrays.asList(ERROR, UNDEFINED),
+                null, 0, (int) searchLimit, "lastmodified", false)) {
+            if (since != null && summary.getLastModified() != null && !summary.getLastModified().after(since)) {
+                break;
+            }
+            failedJobs.add(summary);
+        }
         logFailedJobs(failedJobs);
-        jobDeletions.addAll(failedJobs);
-
-        List<WebArchiveUpdateJob> undefinedJobs = completedJobs.stream().filter(job -> job.getStatus() == UNDEFINED).collect(Collectors.toList());
-        logFailedJobs(undefinedJobs);
-        jobDeletions.addAll(undefinedJobs);
+        failedJobsLoggedUntil = now;
+    }
 
+    /**
+     * Purge the completed jobs created more than {@code daysToLive} days ago. Pending jobs are left alone whatever
+     * their age, they are completed once submitted or once they run out of attempts.
+     */
+    protected void purgeExpiredJobs() {
+        final Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.DAY_OF_MONTH, (int) -daysToLive);
         try {
-            updateJobsManager.deleteWebArchiveUpdateJobs(jobDeletions.toArray(new WebArchiveUpdateJob[0]));
+            final long purged = updateJobsManager.purgeOlderThan(expiration, Arrays.asList(WebArchiveUpdateJobStatus.CATEGORY_COMPLETED));
+            if (purged > 0) {
+                log.info("Purged {} completed web archive update jobs older than {} days", purged, daysToLive);
+            }
         } catch (WebArchiveUpdateException e) {
-            log.error("Error deleting web archive update jobs", e);
+            log.error("Error purging web archive update jobs older than {} days", daysToLive, e);
         }
-
     }
 
+    /**
+     * Claim and submit up to {@code searchLimit} pending jobs, see {@link WebArchiveUpdatesSubmitter#submitPendingJobs(int)}.
+     */
     private void processPendingJobs() throws WebArchiveUpdateException {
-        final List<WebArchiveUpdateJob> pendingJobs = updateJobsManager.getPendingWebArchiveUpdateJobs((int) searchLimit);
-        pendingJobs.forEach(updateJob -> {
-
-            //Immediately set status to submitted, prevents this job from being requested again
-            updateJob.setLastModified(Calendar.getInstance());
-            updateJob.setStatus(SUBMITTED);
-            try {
-                updateJobsManager.updateWebArchiveUpdateJob(updateJob);
-            } catch (WebArchiveUpdateException e) {
-                log.error("Error while updating WebArchiveUpdate job:" + updateJob.toString(), e);
-                return;
-            }
+        submitter.submitPendingJobs((int) searchLimit);
+    }
 
-            //Request job
-            pool.submit(() -> {
-                WebArchiveUpdate update = updateJob.getWebArchiveUpdate();
-                try {
-                    webArchiveManager.requestUpdate(update);
-                    updateJob.setStatus(ACKNOWLEDGED);
-                } catch (WebArchiveUpdateException e) {
-                    log.info("Error processing job:" + updateJob.toString(), e);
-                    if (updateJob.getAttempt() == MAX_RETRIES_LIMIT) {
-                        updateJob.setStatus(ERROR);
-                    } else {
-                        updateJob.setAttempt(updateJob.getAttempt() + 1);
-                        updateJob.setStatus(ABORTED);
-                    }
-                } finally {
-                    try {
-                        updateJob.setLastModified(Calendar.getInstance());
-                        updateJobsManager.updateWebArchiveUpdateJob(updateJob);
-                    } catch (WebArchiveUpdateException e2) {
-                        log.error("Error while updating WebArchiveUpdate job:" + updateJob.toString(), e2);
-                    }
-                }
-
-            });
-        });
+    /**
+     * @return the number of jobs being submitted, or 0 if no jobs are being submitted
+     */
+    public int getActiveTaskCount() {
+        final WebArchiveUpdatesSubmitter current = submitter;
+        return current != null ? current.getActiveTaskCount() : 0;
     }
 
+    /**
+     * @return the number of claimed jobs waiting to be submitted, or 0 if no jobs are being submitted
+     */
+    public int getQueuedTaskCount() {
+        final WebArchiveUpdatesSubmitter current = submitter;
+        return current != null ? current.getQueuedTaskCount() : 0;
+    }
 
     protected void doConfigure(final RepositoryJobExecutionContext context) throws WebArchiveUpdateException {
         daysToLive = getNumber(context, CONFIG_DAYS_TO_LIVE, DEFAULT_DAYS_TO_LIVE);
@@ -174,37 +202,26 @@ public class WebArchiveUpdatesProcessor implements RepositoryJob {
         if (searchLimit < 1) {
             searchLimit = DEFAULT_SEARCH_LIMIT;
         }
+
+        submitter = WebArchivingServicesDaemonModule.getSubmitter();
+        if (submitter == null) {
+            throw new WebArchiveUpdateException("Web archive updates submitter is not initialized");
+        }
     }
 
 
-    protected void logFailedJobs(final List<WebArchiveUpdateJob> failedJobs) {
-        failedJobs.forEach(job -> log.error("Job has failed and has been removed from queue {}", job));
+    protected void logFailedJobs(final List<WebArchiveUpdateJobSummary> failedJobs) {
+        failedJobs.forEach(job -> log.error("Job has failed and is kept for {} days: {}", daysToLive, job));
     }
 
-    //TODO What is the lifecycle of the repo scheduler jobs?
+    /**
+     * The worker threads belong to the submitter of the {@link WebArchivingServicesDaemonModule}, which shuts them down
+     * with the services of the module.
+     */
     public synchronized void destroy() {
-        if (pool != null) {
-            pool.shutdown(); // Disable new tasks from being submitted
-            try {
-                // Wait a while for existing tasks to terminate
-                if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-                    pool.shutdownNow(); // Cancel currently executing tasks
-                    // Wait a while for tasks to respond to being cancelled
-                    if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-                        log.error("Thread pool did not terminate");
-                    }
-                }
-            } catch (InterruptedException e) {
-                // (Re-)Cancel if current thread also interrupted
-                pool.shutdownNow();
-                // Preserve interrupt status
-                Thread.currentThread().interrupt();
-            }
-        }
-        log.debug("Destroyed {}, shut down thread pool", this.getClass().getName());
+        log.debug("Destroyed {}", this.getClass().getName());
     }
 
-
     protected static long getNumber(final RepositoryJobExecutionContext context, final String attributeName, final long defaultValue) {
         long number;
         final String value = context.getAttribute(attributeName);
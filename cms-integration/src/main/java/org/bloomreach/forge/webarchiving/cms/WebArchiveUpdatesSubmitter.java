@@ -0,0 +1,576 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.cms;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveRateLimitException;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveManagerCapabilities;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ABORTED;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ACKNOWLEDGED;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ERROR;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.QUEUED;
+
+/**
+ * Claims the pending {@link WebArchiveUpdateJob} items and requests their updates from the {@link WebArchiveManager},
+ * on behalf of both the {@link WebArchiveUpdatesProcessor} and the {@link ContinuousWebArchiveUpdatesDispatcher}. A
+ * single submitter is owned by the {@link WebArchivingServicesDaemonModule}, configured with the attributes of the
+ * dispatcher config node, see {@link #configure(Function)}. Its workers are started with the first submission and
+ * live until the submitter is reconfigured or destroyed.
+ */
+public class WebArchiveUpdatesSubmitter {
+
+    private static final Logger log = LoggerFactory.getLogger(WebArchiveUpdatesSubmitter.class);
+
+    static final String CONFIG_LEASE_SECONDS = "leaseSeconds";
+    static final String CONFIG_WORKER_CORE_THREADS = "workerCoreThreads";
+    static final String CONFIG_WORKER_MAX_THREADS = "workerMaxThreads";
+    static final String CONFIG_WORKER_QUEUE_CAPACITY = "workerQueueCapacity";
+    static final String CONFIG_REJECTION_POLICY = "rejectionPolicy";
+    static final String CONFIG_DISPATCH_MODE = "dispatchMode";
+    static final String CONFIG_MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+    static final String CONFIG_RETRY_BASE_DELAY_SECONDS = "retryBaseDelaySeconds";
+    static final String CONFIG_RETRY_MAX_DELAY_SECONDS = "retryMaxDelaySeconds";
+    static final String CONFIG_RETRY_JITTER = "retryJitter";
+
+    private static final int DEFAULT_LEASE_SECONDS = 600;
+    private static final int DEFAULT_WORKER_CORE_THREADS = 4;
+    private static final int DEFAULT_WORKER_MAX_THREADS = 8;
+    private static final int DEFAULT_WORKER_QUEUE_CAPACITY = 100;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 100;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60L;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60L;
+    private static final int DEFAULT_RETRY_BASE_DELAY_SECONDS = 60;
+    private static final int DEFAULT_RETRY_MAX_DELAY_SECONDS = 3600;
+    private static final double DEFAULT_RETRY_JITTER = 0.2;
+    public static final long MAX_RETRIES_LIMIT = 5;
+
+    private long leaseSeconds = DEFAULT_LEASE_SECONDS;
+    private int workerCoreThreads = DEFAULT_WORKER_CORE_THREADS;
+    private int workerMaxThreads = DEFAULT_WORKER_MAX_THREADS;
+    private int workerQueueCapacity = DEFAULT_WORKER_QUEUE_CAPACITY;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+    private DispatchMode dispatchMode = DispatchMode.PLATFORM;
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private long retryBaseDelaySeconds = DEFAULT_RETRY_BASE_DELAY_SECONDS;
+    private long retryMaxDelaySeconds = DEFAULT_RETRY_MAX_DELAY_SECONDS;
+    private double retryJitter = DEFAULT_RETRY_JITTER;
+
+    /**
+     * What happens to a claimed job when all workers are busy and the queue of the worker pool is full.
+     */
+    protected enum RejectionPolicy {
+        /** the job is submitted by the thread dispatching the jobs, which stops dispatching until it is done */
+        CALLER_RUNS,
+        /** the job is put back in the queue, to be submitted by a next run */
+        ABORT
+    }
+
+    /**
+     * The threads submitting the claimed jobs.
+     */
+    protected enum DispatchMode {
+        /** a bounded pool of platform threads, see {@code workerMaxThreads} */
+        PLATFORM,
+        /** a virtual thread per job, at most {@code maxConcurrentRequests} at once; requires Java 21 */
+        VIRTUAL
+    }
+
+    /**
+     * The executor submitting the jobs and, in dispatch mode 'virtual', the permits limiting the concurrent requests.
+     */
+    private static final class Workers {
+        final ExecutorService executor;
+        final Semaphore requestPermits;
+
+        Workers(final ExecutorService executor, final Semaphore requestPermits) {
+            this.executor = executor;
+            this.requestPermits = requestPermits;
+        }
+    }
+
+    private final WebArchiveUpdateJobsManager updateJobsManager;
+    private final WebArchiveManager webArchiveManager;
+    private final Object workersLock = new Object();
+    private volatile Workers workers;
+    private final AtomicInteger undispatchedJobCount = new AtomicInteger();
+    private final AtomicLong rateLimitedJobCount = new AtomicLong();
+    private final AtomicLong requeuedJobCount = new AtomicLong();
+
+    public WebArchiveUpdatesSubmitter(final WebArchiveUpdateJobsManager updateJobsManager, final WebArchiveManager webArchiveManager) {
+        this.updateJobsManager = updateJobsManager;
+        this.webArchiveManager = webArchiveManager;
+    }
+
+    /**
+     * Configure the submitter from named attributes; missing attributes keep their defaults. The workers of the
+     * previous configuration, if any, are shut down without waiting: the jobs they are submitting complete, the next
+     * submission starts new workers.
+     *
+     * @param attributes returns the value of an attribute by name, or null if it is not set
+     */
+    public void configure(final Function<String, String> attributes) {
+        leaseSeconds = getNumber(attributes, CONFIG_LEASE_SECONDS, DEFAULT_LEASE_SECONDS);
+        if (leaseSeconds < 1) {
+            leaseSeconds = DEFAULT_LEASE_SECONDS;
+        }
+
+        workerCoreThreads = (int) Math.max(1L, getNumber(attributes, CONFIG_WORKER_CORE_THREADS, DEFAULT_WORKER_CORE_THREADS));
+        workerMaxThreads = (int) Math.max(workerCoreThreads, getNumber(attributes, CONFIG_WORKER_MAX_THREADS, DEFAULT_WORKER_MAX_THREADS));
+        workerQueueCapacity = (int) Math.max(1L, getNumber(attributes, CONFIG_WORKER_QUEUE_CAPACITY, DEFAULT_WORKER_QUEUE_CAPACITY));
+        final String policy = attributes.apply(CONFIG_REJECTION_POLICY);
+        if (StringUtils.isBlank(policy) || "callerRuns".equalsIgnoreCase(policy.trim())) {
+            rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+        } else if ("abort".equalsIgnoreCase(policy.trim())) {
+            rejectionPolicy = RejectionPolicy.ABORT;
+        } else {
+            log.warn("Incorrect rejection policy '{}'. Setting to default 'callerRuns'", policy);
+            rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+        }
+
+        final String mode = attributes.apply(CONFIG_DISPATCH_MODE);
+        try {
+            dispatchMode = StringUtils.isBlank(mode) ? DispatchMode.PLATFORM : DispatchMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Incorrect dispatch mode '{}'. Setting to default '{}'", mode, DispatchMode.PLATFORM);
+            dispatchMode = DispatchMode.PLATFORM;
+        }
+        maxConcurrentRequests = (int) Math.max(1L, getNumber(attributes, CONFIG_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS));
+
+        retryBaseDelaySeconds = Math.max(0L, getNumber(attributes, CONFIG_RETRY_BASE_DELAY_SECONDS, DEFAULT_RETRY_BASE_DELAY_SECONDS));
+        retryMaxDelaySeconds = Math.max(retryBaseDelaySeconds, getNumber(attributes, CONFIG_RETRY_MAX_DELAY_SECONDS, DEFAULT_RETRY_MAX_DELAY_SECONDS));
+        final String jitter = attributes.apply(CONFIG_RETRY_JITTER);
+        try {
+            retryJitter = StringUtils.isBlank(jitter) ? DEFAULT_RETRY_JITTER : Math.min(1.0, Math.max(0.0, Double.parseDouble(jitter.trim())));
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", jitter, DEFAULT_RETRY_JITTER);
+            retryJitter = DEFAULT_RETRY_JITTER;
+        }
+
+        synchronized (workersLock) {
+            if (workers != null) {
+                workers.executor.shutdown();
+                workers = null;
+            }
+        }
+    }
+
+    /**
+     * Claim up to {@code max} pending jobs and hand them to the workers of the submitter, without waiting for their
+     * submission: the lease of the claimed jobs keeps other runs and cluster nodes from claiming them meanwhile. The
+     * workers are a pool of at most {@code workerMaxThreads} threads and a queue of {@code workerQueueCapacity} jobs.
+     * When the pool is saturated, the rejection policy applies, by default the calling thread submits the job itself,
+     * which holds back the dispatching of the remaining jobs. In dispatch mode 'virtual' the jobs are submitted on
+     * virtual threads instead, at most {@code maxConcurrentRequests} at once, falling back on the worker pool on JVMs
+     * without virtual threads.
+     * <p>
+     * When the archive manager accepts batches, the claimed jobs are grouped into batches within the limits of its
+     * {@link WebArchiveManagerCapabilities}, and every batch is submitted as a single request.
+     *
+     * @return the number of jobs claimed, which are being submitted or have been put back in the queue on return
+     */
+    public int submitPendingJobs(final int max) throws WebArchiveUpdateException {
+        //Claiming sets the status to submitted, which prevents the jobs from being requested again by this or other cluster nodes
+        final List<WebArchiveUpdateJob> pendingJobs = updateJobsManager.claimPendingJobs(max, Duration.ofSeconds(leaseSeconds));
+        if (pendingJobs.isEmpty()) {
+            return 0;
+        }
+
+        final List<List<WebArchiveUpdateJob>> batches = createBatches(pendingJobs, webArchiveManager.getCapabilities());
+        dispatch(getWorkers(), batches, pendingJobs.size());
+        return pendingJobs.size();
+    }
+
+    /**
+     * Group the jobs into batches of at most {@code maxBatchSize} jobs and {@code maxUrls} URLs, keeping the order of
+     * the jobs. A job with more URLs than {@code maxUrls} makes up a batch of its own.
+     */
+    protected List<List<WebArchiveUpdateJob>> createBatches(final List<WebArchiveUpdateJob> jobs, final WebArchiveManagerCapabilities capabilities) {
+        final List<List<WebArchiveUpdateJob>> batches = new ArrayList<>();
+        List<WebArchiveUpdateJob> batch = new ArrayList<>();
+        long batchUrls = 0;
+        for (WebArchiveUpdateJob job : jobs) {
+            final long urls = getUrlCount(job);
+            final boolean full = batch.size() >= capabilities.getMaxBatchSize()
+                    || (capabilities.getMaxUrls() > 0 && batchUrls + urls > capabilities.getMaxUrls());
+            if (full && !batch.isEmpty()) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchUrls = 0;
+            }
+            batch.add(job);
+            batchUrls += urls;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static long getUrlCount(final WebArchiveUpdateJob job) {
+        final WebArchiveUpdate update = job.getWebArchiveUpdate();
+        return update != null && update.getUrls() != null ? update.getUrls().size() : 0;
+    }
+
+    /**
+     * Hand every batch to the workers. With request permits, i.e. on virtual threads, the dispatching thread acquires
+     * a permit before starting a thread, so that it holds back the dispatching of the remaining batches while
+     * {@code maxConcurrentRequests} requests are running. Batches the workers do not accept, e.g. because they have
+     * been shut down, are put back in the queue.
+     */
+    private void dispatch(final Workers workers, final List<List<WebArchiveUpdateJob>> batches, final int jobCount) {
+        final Semaphore permits = workers.requestPermits;
+        undispatchedJobCount.addAndGet(jobCount);
+        for (int i = 0; i < batches.size(); i++) {
+            final List<WebArchiveUpdateJob> batch = batches.get(i);
+            if (permits != null) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (List<WebArchiveUpdateJob> remaining : batches.subList(i, batches.size())) {
+                        undispatchedJobCount.addAndGet(-remaining.size());
+                        remaining.forEach(this::requeueJob);
+                    }
+                    return;
+                }
+            }
+            undispatchedJobCount.addAndGet(-batch.size());
+            try {
+                workers.executor.execute(() -> {
+                    try {
+                        submitBatch(batch);
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (permits != null) {
+                    permits.release();
+                }
+                batch.forEach(this::requeueJob);
+            }
+        }
+        log.debug("Dispatched {} web archive update jobs in {} requests, {} active and {} queued", jobCount, batches.size(),
+                getActiveTaskCount(), getQueuedTaskCount());
+    }
+
+    /**
+     * @return the workers of the submitter, which are started by the first call after the submitter has been
+     * (re)configured
+     */
+    private Workers getWorkers() {
+        synchronized (workersLock) {
+            if (workers == null) {
+                final ExecutorService virtualThreads = dispatchMode == DispatchMode.VIRTUAL ? createVirtualThreadExecutor() : null;
+                workers = virtualThreads != null
+                        ? new Workers(virtualThreads, new Semaphore(maxConcurrentRequests))
+                        : new Workers(createWorkerPool(), null);
+            }
+            return workers;
+        }
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task. Virtual threads are looked up reflectively, as the
+     * addon is built for Java 8.
+     *
+     * @return the executor, or null if virtual threads are not supported by the JVM
+     */
+    protected ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.warn("Virtual threads are not supported by Java {}, dispatching with a pool of platform threads instead",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /**
+     * Create the pool of platform threads. Its idle threads time out, so that an idle submitter holds no threads. With
+     * the 'callerRuns' policy, a job rejected because the pool has been shut down is rejected rather than discarded,
+     * so that it is put back in the queue.
+     */
+    protected ThreadPoolExecutor createWorkerPool() {
+        final RejectedExecutionHandler rejectedExecutionHandler = rejectionPolicy == RejectionPolicy.CALLER_RUNS
+                ? (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Worker pool has been shut down");
+                    }
+                    runnable.run();
+                }
+                : new ThreadPoolExecutor.AbortPolicy();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "web-archiving-updates-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(workerCoreThreads, workerMaxThreads, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workerQueueCapacity), threadFactory, rejectedExecutionHandler);
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * Request the updates of a batch of claimed jobs with a single request and store the outcomes. A batch of one
+     * job is requested with {@link WebArchiveManager#requestUpdate(WebArchiveUpdate)}.
+     */
+    protected void submitBatch(final List<WebArchiveUpdateJob> batch) {
+        if (batch.size() == 1) {
+            submitJob(batch.get(0));
+            return;
+        }
+
+        final List<WebArchiveUpdate> updates = new ArrayList<>(batch.size());
+        batch.forEach(updateJob -> updates.add(updateJob.getWebArchiveUpdate()));
+        try {
+            final List<WebArchiveUpdateResult> results = webArchiveManager.requestUpdates(updates);
+            for (int i = 0; i < batch.size(); i++) {
+                final WebArchiveUpdateResult result = results != null && i < results.size() ? results.get(i) : null;
+                if (result == null) {
+                    setOutcome(batch.get(i), new WebArchiveUpdateException("No result for web archive update {}", updates.get(i)));
+                } else {
+                    setOutcome(batch.get(i), result.getFailure());
+                }
+            }
+        } finally {
+            for (WebArchiveUpdateJob updateJob : batch) {
+                updateJob.releaseLease();
+                updateJob.setLastModified(Calendar.getInstance());
+            }
+            try {
+                updateJobsManager.updateWebArchiveUpdateJobs(batch);
+            } catch (WebArchiveUpdateException e) {
+                log.error("Error while updating a batch of {} WebArchiveUpdate jobs", batch.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Request the update of a claimed job and store the outcome.
+     */
+    protected void submitJob(final WebArchiveUpdateJob updateJob) {
+        WebArchiveUpdate update = updateJob.getWebArchiveUpdate();
+        try {
+            webArchiveManager.requestUpdate(update);
+            setOutcome(updateJob, null);
+        } catch (WebArchiveUpdateException e) {
+            setOutcome(updateJob, e);
+        } finally {
+            try {
+                updateJob.releaseLease();
+                updateJob.setLastModified(Calendar.getInstance());
+                updateJobsManager.updateWebArchiveUpdateJob(updateJob);
+            } catch (WebArchiveUpdateException e2) {
+                log.error("Error while updating WebArchiveUpdate job:" + updateJob.toString(), e2);
+            }
+        }
+    }
+
+    /**
+     * Set the status of a job after its update has been requested. A failed job is retried after a delay growing
+     * exponentially with the number of attempts, see {@link #getRetryDelayMillis(long)}. A job that was not requested
+     * because of the rate limit of the archive manager is put back in the queue without counting an attempt, and is
+     * not claimed again before the wait estimated by the rate limiter has passed.
+     *
+     * @param failure the reason the request failed, or null if the update was accepted
+     */
+    protected void setOutcome(final WebArchiveUpdateJob updateJob, final WebArchiveUpdateException failure) {
+        if (failure == null) {
+            updateJob.setStatus(ACKNOWLEDGED);
+            updateJob.setNextAttemptAt(null);
+            return;
+        }
+
+        if (failure instanceof WebArchiveRateLimitException) {
+            log.debug("Putting job {} back in the queue: {}", updateJob.getId(), failure.getMessage());
+            rateLimitedJobCount.incrementAndGet();
+            final Calendar nextAttemptAt = Calendar.getInstance();
+            nextAttemptAt.setTimeInMillis(nextAttemptAt.getTimeInMillis() + ((WebArchiveRateLimitException) failure).getRetryAfterMillis());
+            updateJob.setNextAttemptAt(nextAttemptAt);
+            updateJob.setStatus(QUEUED);
+            return;
+        }
+
+        log.info("Error processing job:" + updateJob.toString(), failure);
+        if (updateJob.getAttempt() >= MAX_RETRIES_LIMIT) {
+            updateJob.setStatus(ERROR);
+        } else {
+            final Calendar nextAttemptAt = Calendar.getInstance();
+            nextAttemptAt.setTimeInMillis(nextAttemptAt.getTimeInMillis() + getRetryDelayMillis(updateJob.getAttempt()));
+            updateJob.setNextAttemptAt(nextAttemptAt);
+            updateJob.setAttempt(updateJob.getAttempt() + 1);
+            updateJob.setStatus(ABORTED);
+        }
+    }
+
+    /**
+     * @return the delay before the next attempt after {@code failedAttempt} has failed: {@code retryBaseDelaySeconds}
+     * doubled for every earlier attempt, at most {@code retryMaxDelaySeconds}, spread randomly by the fraction
+     * {@code retryJitter} so that the jobs failed during an outage of the archive are not all retried at once
+     */
+    protected long getRetryDelayMillis(final long failedAttempt) {
+        final long doublings = Math.min(30L, Math.max(0L, failedAttempt - 1));
+        final long delayMillis = Math.min(retryMaxDelaySeconds, retryBaseDelaySeconds << doublings) * 1000L;
+        final double spread = retryJitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(0L, Math.round(delayMillis * (1 + spread)));
+    }
+
+    /**
+     * Put a claimed job that could not be dispatched back in the queue, without counting an attempt.
+     */
+    protected void requeueJob(final WebArchiveUpdateJob updateJob) {
+        log.debug("Worker pool is saturated, putting job {} back in the queue", updateJob.getId());
+        requeuedJobCount.incrementAndGet();
+        try {
+            updateJob.setStatus(QUEUED);
+            updateJob.releaseLease();
+            updateJob.setLastModified(Calendar.getInstance());
+            updateJobsManager.updateWebArchiveUpdateJob(updateJob);
+        } catch (WebArchiveUpdateException e) {
+            log.warn("Error while putting job {} back in the queue, it is submitted again when its lease expires", updateJob.getId(), e);
+        }
+    }
+
+    /**
+     * @return the number of jobs being submitted, or 0 if no workers are running
+     */
+    public int getActiveTaskCount() {
+        final Workers current = workers;
+        if (current == null) {
+            return 0;
+        }
+        if (current.requestPermits != null) {
+            return Math.max(0, maxConcurrentRequests - current.requestPermits.availablePermits());
+        }
+        return current.executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) current.executor).getActiveCount() : 0;
+    }
+
+    /**
+     * @return the number of claimed jobs waiting to be submitted, or 0 if no workers are running
+     */
+    public int getQueuedTaskCount() {
+        final Workers current = workers;
+        if (current == null) {
+            return 0;
+        }
+        if (current.requestPermits != null) {
+            return undispatchedJobCount.get();
+        }
+        return current.executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) current.executor).getQueue().size() : 0;
+    }
+
+    /**
+     * @return the number of jobs put back in the queue because of the rate limit of the archive manager
+     */
+    public long getRateLimitedJobCount() {
+        return rateLimitedJobCount.get();
+    }
+
+    /**
+     * @return the number of claimed jobs put back in the queue because the workers did not accept them
+     */
+    public long getRequeuedJobCount() {
+        return requeuedJobCount.get();
+    }
+
+    public long getLeaseSeconds() {
+        return leaseSeconds;
+    }
+
+    /**
+     * Shut down the workers, if any, waiting a while for the jobs being submitted. Later submissions put the jobs they
+     * claim back in the queue.
+     */
+    public void destroy() {
+        final Workers current;
+        synchronized (workersLock) {
+            current = workers;
+            workers = null;
+        }
+        if (current != null) {
+            shutdown(current.executor, SHUTDOWN_TIMEOUT_SECONDS);
+        }
+    }
+
+    /**
+     * Wait at most {@code timeoutSeconds} for the submitted jobs to complete. Jobs that are still running are
+     * interrupted; their lease expires, after which they are submitted again.
+     */
+    private void shutdown(final ExecutorService workers, final long timeoutSeconds) {
+        workers.shutdown(); // Disable new tasks from being submitted
+        try {
+            // Wait a while for existing tasks to terminate
+            if (!workers.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("Web archive update jobs not completed after {} seconds, {} active and {} queued", timeoutSeconds,
+                        getActiveTaskCount(), getQueuedTaskCount());
+                workers.shutdownNow(); // Cancel currently executing tasks
+            }
+        } catch (InterruptedException e) {
+            // (Re-)Cancel if current thread also interrupted
+            workers.shutdownNow();
+            // Preserve interrupt status
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the attribute parsed as a number, or {@code defaultValue} if it is not set or not a number
+     */
+    static long getNumber(final Function<String, String> attributes, final String attributeName, final long defaultValue) {
+        final String value = attributes.apply(attributeName);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}' for {}. Setting to default '{}'", value, attributeName, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import javax.jcr.Session;
 
 import org.apache.commons.lang.StringUtils;
 import org.bloomreach.forge.webarchiving.cms.util.CmsUtils;
+import org.bloomreach.forge.webarchiving.cms.util.Decorating;
 import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
 import org.bloomreach.forge.webarchiving.cms.util.HSTServicesAwarePlatformManaged;
 import org.bloomreach.forge.webarchiving.cms.util.ModuleSessionAware;
@@ -32,6 +33,7 @@ import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
 import org.bloomreach.forge.webarchiving.common.api.HstUrlService;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdatesDispatcher;
 import org.bloomreach.forge.webarchiving.common.error.WebArchivingException;
 import org.hippoecm.hst.core.internal.PlatformModelAvailableService;
 import org.onehippo.cms7.services.HippoServiceRegistry;
@@ -44,7 +46,8 @@ import org.slf4j.LoggerFactory;
 
 @ProvidesService(types = {
         WebArchiveUpdateJobsManager.class,
-        WebArchiveManager.class
+        WebArchiveManager.class,
+        WebArchiveUpdatesDispatcher.class
 })
 public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaemonModule {
     private static Logger log = LoggerFactory.getLogger(WebArchivingServicesDaemonModule.class);
@@ -52,6 +55,7 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
     private static final String WEB_ARCHIVE_MANAGER_CONFIG_LOCATION = "archivemanager";
     private static final String WEB_ARCHIVE_UPDATE_JOBS_MANAGER_CONFIG_LOCATION = "updatesmanager";
     private static final String WEB_ARCHIVE_HST_URL_SERVICE_CONFIG_LOCATION = "hsturlservice";
+    private static final String WEB_ARCHIVE_UPDATES_DISPATCHER_CONFIG_LOCATION = "dispatcher";
 
     private static final String CLASS_NAME = "className";
 
@@ -62,6 +66,13 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
     private WebArchiveUpdateJobsManager webArchiveUpdateJobsManager;
     private WebArchiveManager webArchiveManager;
     private HstUrlService hstUrlService;
+    private ContinuousWebArchiveUpdatesDispatcher dispatcher;
+
+    /**
+     * The submitter of the jobs shared by the dispatcher and the updates processor, static because the scheduler
+     * creates a processor for every run.
+     */
+    private static volatile WebArchiveUpdatesSubmitter submitter;
     private Map<HSTServicesAwarePlatformManaged, ProxiedServiceTracker<PlatformModelAvailableService>> hstPlatformModelAvailableServiceTrackers = new HashMap<>();
 
 
@@ -93,6 +104,8 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
     }
 
     private void shutdownServices() {
+        shutdownDispatcher();
+        shutdownSubmitter();
         shutdownService(webArchiveUpdateJobsManager, WebArchiveUpdateJobsManager.class);
         shutdownService(webArchiveManager, WebArchiveManager.class);
         shutdownService(hstUrlService, HstUrlService.class);
@@ -102,9 +115,68 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
         webArchiveUpdateJobsManager = initializeService(getServiceConfigNode(moduleConfig, WEB_ARCHIVE_UPDATE_JOBS_MANAGER_CONFIG_LOCATION), WebArchiveUpdateJobsManager.class);
         webArchiveManager = initializeService(getServiceConfigNode(moduleConfig, WEB_ARCHIVE_MANAGER_CONFIG_LOCATION), WebArchiveManager.class);
         hstUrlService = initializeService(getServiceConfigNode(moduleConfig, WEB_ARCHIVE_HST_URL_SERVICE_CONFIG_LOCATION), HstUrlService.class);
+        initializeDispatcher(moduleConfig);
+    }
+
+    /**
+     * Create the submitter of the jobs and start the dispatcher submitting the jobs as soon as they are created, if
+     * configured and enabled. The dispatcher is optional, without it the jobs are submitted by the scheduled updates
+     * processor only. The lease, worker and retry settings of the dispatcher config node apply to the submitter,
+     * whether the dispatcher is enabled or not.
+     */
+    private void initializeDispatcher(final Node moduleConfig) throws RepositoryException {
+        final Node dispatcherConfigNode = moduleConfig.hasNode(WEB_ARCHIVE_UPDATES_DISPATCHER_CONFIG_LOCATION)
+                ? moduleConfig.getNode(WEB_ARCHIVE_UPDATES_DISPATCHER_CONFIG_LOCATION) : null;
+        final Map<String, String> config = dispatcherConfigNode != null
+                ? CmsUtils.getServiceConfiguration(dispatcherConfigNode, this.environment) : new HashMap<>();
+
+        final WebArchiveUpdatesSubmitter configured = new WebArchiveUpdatesSubmitter(webArchiveUpdateJobsManager, webArchiveManager);
+        configured.configure(config::get);
+        submitter = configured;
+
+        if (dispatcherConfigNode == null) {
+            log.debug("No config node '{}' below {}, jobs are submitted by the updates processor only",
+                    WEB_ARCHIVE_UPDATES_DISPATCHER_CONFIG_LOCATION, moduleConfig.getPath());
+            return;
+        }
+        if (!Boolean.parseBoolean(config.get(ContinuousWebArchiveUpdatesDispatcher.CONFIG_ENABLED))) {
+            log.info("Web archive updates dispatcher disabled, jobs are submitted by the updates processor only");
+            return;
+        }
+
+        dispatcher = new ContinuousWebArchiveUpdatesDispatcher(configured);
+        dispatcher.start(config, dispatcherConfigNode.getSession());
+        HippoServiceRegistry.register(dispatcher, WebArchiveUpdatesDispatcher.class);
+    }
+
+    /**
+     * @return the submitter of the jobs, or null if the services of the module are not initialized
+     */
+    static WebArchiveUpdatesSubmitter getSubmitter() {
+        return submitter;
+    }
+
+    private void shutdownDispatcher() {
+        if (dispatcher != null) {
+            HippoServiceRegistry.unregister(dispatcher, WebArchiveUpdatesDispatcher.class);
+            dispatcher.stop();
+            dispatcher = null;
+        }
+    }
+
+    private void shutdownSubmitter() {
+        final WebArchiveUpdatesSubmitter current = submitter;
+        if (current != null) {
+            submitter = null;
+            current.destroy();
+        }
     }
 
     private <T> T initializeService(final Node serviceConfigNode, final Class<T> serviceInterface) throws RepositoryException, WebArchivingException {
+        return initializeService(serviceConfigNode, serviceInterface, true);
+    }
+
+    private <T> T initializeService(final Node serviceConfigNode, final Class<T> serviceInterface, final boolean register) throws RepositoryException, WebArchivingException {
         Map<String, String> config = CmsUtils.getServiceConfiguration(serviceConfigNode, this.environment);
         log.debug("Got service configuration {} for environment {}", config, this.environment);
 
@@ -125,6 +197,16 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
             ((ModuleSessionAware) service).setModuleSession(serviceConfigNode.getSession());
         }
 
+        if (service instanceof Decorating) {
+            if (!serviceConfigNode.hasNode(Decorating.DELEGATE_CONFIG_NODE)) {
+                throw new WebArchivingException("Config node '{}' of the decorated service not found below {}", Decorating.DELEGATE_CONFIG_NODE,
+                        serviceConfigNode.getPath());
+            }
+            final T delegate = initializeService(serviceConfigNode.getNode(Decorating.DELEGATE_CONFIG_NODE), serviceInterface, false);
+            log.info("Decorating {} with {}", delegate.getClass().getName(), className);
+            ((Decorating<T>) service).setDelegate(delegate);
+        }
+
         if (service instanceof HSTServicesAwarePlatformManaged) {
             ProxiedServiceTracker<PlatformModelAvailableService> hstPlatformModelAvailableServiceTracker = new ProxiedServiceTracker<PlatformModelAvailableService>() {
                 @Override
@@ -149,7 +231,7 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
             ((PlatformManaged) service).initialize(config);
         }
 
-        if (service instanceof Discoverable) {
+        if (register && service instanceof Discoverable) {
             HippoServiceRegistry.register(service, serviceInterface);
         }
         return service;
@@ -165,6 +247,10 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
     }
 
     private <T, S extends T> void shutdownService(S service, Class<T> serviceInterface) {
+        shutdownService(service, serviceInterface, true);
+    }
+
+    private <T, S extends T> void shutdownService(S service, Class<T> serviceInterface, final boolean registered) {
         if (service != null) {
             if (service instanceof HSTServicesAwarePlatformManaged) {
                 HippoServiceRegistry.removeTracker(hstPlatformModelAvailableServiceTrackers.get(service), PlatformModelAvailableService.class);
@@ -174,7 +260,11 @@ public class WebArchivingServicesDaemonModule extends AbstractReconfigurableDaem
                 ((PlatformManaged) service).destroy();
             }
 
-            if (service instanceof Discoverable) {
+            if (service instanceof Decorating) {
+                shutdownService(((Decorating<T>) service).getDelegate(), serviceInterface, false);
+            }
+
+            if (registered && service instanceof Discoverable) {
                 HippoServiceRegistry.unregister(service, serviceInterface);
             }
         }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.cms.decorator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.cms.util.Decorating;
+import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
+import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveRateLimitException;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveManagerCapabilities;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates a web archive manager with token buckets limiting the requests per second and the URLs per second sent
+ * to the web archive. Every request takes a token of the request bucket and a token per URL of the URL bucket; the
+ * buckets hold at most {@code requestBurst} and {@code urlBurst} tokens, which allows short bursts after a quiet
+ * period. A request waits for its tokens at most {@code maxWaitMillis}; a request that would wait longer is not sent
+ * and fails with a {@link WebArchiveRateLimitException}, after which the updates processor puts its jobs back in the
+ * queue without counting an attempt. A request never needs more tokens than a full bucket holds: a request with more
+ * URLs than {@code urlBurst} is sent as soon as the bucket is full and leaves it in debt, so no request is denied
+ * forever. The capabilities of the decorated manager are limited to batches of at most {@code urlBurst} URLs, so that
+ * only jobs with more URLs than that on their own put the bucket in debt.
+ * <p>
+ * The buckets are shared by all threads requesting updates from this manager, i.e. by the runs of the updates
+ * processor and the updates dispatcher. The time spent waiting for tokens is available from the decorator and is
+ * logged by every run of the updates processor and on shutdown.
+ */
+public class RateLimitingWebArchiveManager implements WebArchiveManager, Decorating<WebArchiveManager>, PlatformManaged, Discoverable {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitingWebArchiveManager.class);
+
+    protected static final String CONFIG_PROP_MAX_REQUESTS_PER_SECOND = "maxRequestsPerSecond";
+    protected static final String CONFIG_PROP_MAX_URLS_PER_SECOND = "maxUrlsPerSecond";
+    protected static final String CONFIG_PROP_REQUEST_BURST = "requestBurst";
+    protected static final String CONFIG_PROP_URL_BURST = "urlBurst";
+    protected static final String CONFIG_PROP_MAX_WAIT_MILLIS = "maxWaitMillis";
+    protected static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    /**
+     * Tokens refilled at a fixed rate up to a capacity. A request waits for at most a full bucket of tokens and takes
+     * all of its tokens, leaving the bucket in debt when it is larger than the capacity, so that requests larger than
+     * the capacity are served as soon as the bucket is full and later requests wait for the debt to be paid off.
+     */
+    static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilled;
+
+        TokenBucket(final double tokensPerSecond, final double capacity, final long now) {
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.refilled = now;
+        }
+
+        long getWaitNanos(final long permits, final long now) {
+            tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+            refilled = now;
+            final double needed = Math.min(permits, capacity);
+            return needed <= tokens ? 0L : (long) Math.ceil((needed - tokens) / tokensPerNano);
+        }
+
+        void take(final long permits) {
+            tokens -= permits;
+        }
+    }
+
+    private final Object bucketLock = new Object();
+    private final AtomicLong permitCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong deniedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private WebArchiveManager delegate;
+    private TokenBucket requestBucket;
+    private TokenBucket urlBucket;
+    private volatile int maxBatchUrls;
+
+    protected long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    @Override
+    public void setDelegate(final WebArchiveManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public WebArchiveManager getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
+        if (delegate == null) {
+            throw new WebArchiveUpdateException("No web archive manager to decorate");
+        }
+
+        final double requestsPerSecond = parseRate(props, CONFIG_PROP_MAX_REQUESTS_PER_SECOND, 0);
+        final double urlsPerSecond = parseRate(props, CONFIG_PROP_MAX_URLS_PER_SECOND, 0);
+        final double requestBurst = Math.max(1, parseRate(props, CONFIG_PROP_REQUEST_BURST, requestsPerSecond));
+        final double urlBurst = Math.max(1, parseRate(props, CONFIG_PROP_URL_BURST, urlsPerSecond));
+        maxWaitMillis = (long) Math.max(0, parseRate(props, CONFIG_PROP_MAX_WAIT_MILLIS, DEFAULT_MAX_WAIT_MILLIS));
+
+        final long now = System.nanoTime();
+        synchronized (bucketLock) {
+            requestBucket = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, requestBurst, now) : null;
+            urlBucket = urlsPerSecond > 0 ? new TokenBucket(urlsPerSecond, urlBurst, now) : null;
+            maxBatchUrls = urlsPerSecond > 0 ? (int) Math.min(Integer.MAX_VALUE, urlBurst) : 0;
+        }
+        log.info("Limiting web archive requests to {} requests per second (burst {}) and {} URLs per second (burst {}), waiting at most {} ms",
+                requestsPerSecond > 0 ? requestsPerSecond : "unlimited", requestBurst, urlsPerSecond > 0 ? urlsPerSecond : "unlimited",
+                urlBurst, maxWaitMillis);
+    }
+
+    private static double parseRate(final Map<String, String> props, final String name, final double defaultValue) throws WebArchiveUpdateException {
+        final String value = props.get(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new WebArchiveUpdateException(e, "Please configure a number for {}, not '{}'", name, value);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        log.debug("Destroying {}", this.getClass().getName());
+        logStatistics();
+    }
+
+    /**
+     * Log the numbers of granted, delayed and denied requests and the time waited since the manager was started.
+     */
+    public void logStatistics() {
+        log.info("Rate limiter granted {} web archive requests, delayed {} for {} ms in total ({} ms on average) and at most {} ms, and denied {}",
+                permitCount.get(), delayedCount.get(), getTotalWaitMillis(), String.format("%.1f", getAverageWaitMillis()),
+                getMaxWaitMillis(), deniedCount.get());
+    }
+
+    @Override
+    public void requestUpdate(final WebArchiveUpdate update) throws WebArchiveUpdateException {
+        acquire(getUrlCount(update), update);
+        delegate.requestUpdate(update);
+    }
+
+    @Override
+    public List<WebArchiveUpdateResult> requestUpdates(final List<WebArchiveUpdate> updates) {
+        long urls = 0;
+        for (WebArchiveUpdate update : updates) {
+            urls += getUrlCount(update);
+        }
+        try {
+            acquire(urls, updates.size() + " updates");
+        } catch (WebArchiveRateLimitException e) {
+            final List<WebArchiveUpdateResult> results = new ArrayList<>(updates.size());
+            updates.forEach(update -> results.add(WebArchiveUpdateResult.failed(update, e)));
+            return results;
+        }
+        return delegate.requestUpdates(updates);
+    }
+
+    @Override
+    public WebArchiveManagerCapabilities getCapabilities() {
+        final WebArchiveManagerCapabilities capabilities = delegate.getCapabilities();
+        final int maxBurstUrls = maxBatchUrls;
+        if (maxBurstUrls == 0 || (capabilities.getMaxUrls() > 0 && capabilities.getMaxUrls() <= maxBurstUrls)) {
+            return capabilities;
+        }
+        return new WebArchiveManagerCapabilities(capabilities.getMaxBatchSize(), maxBurstUrls);
+    }
+
+    @Override
+    public String getArchiveManagerInfo() {
+        return delegate.getArchiveManagerInfo() + " (rate limited)";
+    }
+
+    private static long getUrlCount(final WebArchiveUpdate update) {
+        return update.getUrls() != null ? update.getUrls().size() : 0;
+    }
+
+    /**
+     * Take a request token and a token per URL, waiting for them if needed.
+     *
+     * @throws WebArchiveRateLimitException if the tokens are not available within {@code maxWaitMillis}, or the
+     *                                      thread is interrupted while waiting
+     */
+    private void acquire(final long urls, final Object requested) throws WebArchiveRateLimitException {
+        final long waitNanos;
+        synchronized (bucketLock) {
+            final long now = System.nanoTime();
+            final long requestWait = requestBucket != null ? requestBucket.getWaitNanos(1, now) : 0L;
+            final long urlWait = urlBucket != null ? urlBucket.getWaitNanos(urls, now) : 0L;
+            waitNanos = Math.max(requestWait, urlWait);
+            if (waitNanos > TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)) {
+                deniedCount.incrementAndGet();
+                final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+                throw new WebArchiveRateLimitException(waitMillis, "Request quota exceeded for {} ms, not requesting {}", waitMillis, requested);
+            }
+            if (requestBucket != null) {
+                requestBucket.take(1);
+            }
+            if (urlBucket != null) {
+                urlBucket.take(urls);
+            }
+        }
+
+        permitCount.incrementAndGet();
+        if (waitNanos > 0) {
+            delayedCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WebArchiveRateLimitException("Interrupted while waiting for the request quota, not requesting {}", requested);
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests that got their tokens, with or without waiting
+     */
+    public long getPermitCount() {
+        return permitCount.get();
+    }
+
+    /**
+     * @return the number of requests that waited for their tokens
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /**
+     * @return the number of requests not sent because their tokens were not available within {@code maxWaitMillis}
+     */
+    public long getDeniedCount() {
+        return deniedCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds requests waited for their tokens
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * @return the longest time in milliseconds a request waited for its tokens
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * @return the average time in milliseconds a request waited for its tokens, including the requests that did not wait
+     */
+    public double getAverageWaitMillis() {
+        final long permits = permitCount.get();
+        return permits == 0 ? 0.0 : (double) getTotalWaitMillis() / permits;
+    }
+}
@@ -29,6 +29,7 @@ import org.hippoecm.repository.api.WorkflowException;
 import org.onehippo.cms7.services.HippoServiceRegistry;
 import org.bloomreach.forge.webarchiving.common.api.HstUrlService;
 import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdatesDispatcher;
 import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
@@ -85,7 +86,11 @@ public class WebArchivingTask extends AbstractDocumentTask {
             .setWebArchiveUpdate(webArchiveUpdate)
             .build();
         try {
-            webArchiveUpdateJobsManager.createWebArchiveUpdateJob(job);
+            webArchiveUpdateJobsManager.createOrMergeWebArchiveUpdateJob(job);
+            final WebArchiveUpdatesDispatcher dispatcher = HippoServiceRegistry.getService(WebArchiveUpdatesDispatcher.class);
+            if (dispatcher != null) {
+                dispatcher.wakeUp();
+            }
         } catch (WebArchiveUpdateException e) {
             log.error("Failed to create Web Archive update job {}", job);
         }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.cms.util;
+
+import org.onehippo.repository.modules.DaemonModule;
+
+/**
+ * Services can implement this interface to decorate another implementation of the same service interface. The
+ * service initiator module (typically a {@link DaemonModule} implementation) creates the delegate from the
+ * {@value #DELEGATE_CONFIG_NODE} sub-node of the service configuration and sets it before initializing the decorator.
+ * Only the outermost service is registered; the initiator module shuts down the decorator before its delegate.
+ *
+ * @param <T> the decorated service interface
+ */
+public interface Decorating<T> {
+
+    /**
+     * Name of the sub-node of the service configuration holding the configuration of the delegate.
+     */
+    String DELEGATE_CONFIG_NODE = "delegate";
+
+    /**
+     * Set the decorated service.
+     * @param delegate the decorated service
+     */
+    void setDelegate(T delegate);
+
+    /**
+     * @return the decorated service
+     */
+    T getDelegate();
+}
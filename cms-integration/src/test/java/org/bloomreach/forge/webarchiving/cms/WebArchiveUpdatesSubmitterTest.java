@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.cms;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WebArchiveUpdatesSubmitterTest {
+
+    private static final int SAMPLES = 1000;
+
+    private final WebArchiveUpdatesSubmitter submitter = new WebArchiveUpdatesSubmitter(null, null);
+
+    private void configure(final String baseDelaySeconds, final String maxDelaySeconds, final String jitter) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(WebArchiveUpdatesSubmitter.CONFIG_RETRY_BASE_DELAY_SECONDS, baseDelaySeconds);
+        attributes.put(WebArchiveUpdatesSubmitter.CONFIG_RETRY_MAX_DELAY_SECONDS, maxDelaySeconds);
+        attributes.put(WebArchiveUpdatesSubmitter.CONFIG_RETRY_JITTER, jitter);
+        submitter.configure(attributes::get);
+    }
+
+    @Test
+    public void retryDelayDoublesWithEveryAttempt() {
+        configure("60", "3600", "0");
+        assertEquals(60000L, submitter.getRetryDelayMillis(0));
+        assertEquals(60000L, submitter.getRetryDelayMillis(1));
+        assertEquals(120000L, submitter.getRetryDelayMillis(2));
+        assertEquals(240000L, submitter.getRetryDelayMillis(3));
+        assertEquals(1920000L, submitter.getRetryDelayMillis(6));
+    }
+
+    @Test
+    public void retryDelayIsCapped() {
+        configure("60", "3600", "0");
+        assertEquals(3600000L, submitter.getRetryDelayMillis(7));
+        assertEquals(3600000L, submitter.getRetryDelayMillis(40));
+        assertEquals(3600000L, submitter.getRetryDelayMillis(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void maxDelayIsAtLeastTheBaseDelay() {
+        configure("600", "60", "0");
+        assertEquals(600000L, submitter.getRetryDelayMillis(1));
+        assertEquals(600000L, submitter.getRetryDelayMillis(5));
+    }
+
+    @Test
+    public void jitterSpreadsTheDelayWithinItsFraction() {
+        configure("60", "3600", "0.2");
+        assertDelaysWithin(3, 192000L, 288000L);
+        assertDelaysWithin(10, 2880000L, 4320000L);
+    }
+
+    @Test
+    public void jitterIsLimitedToTheDelay() {
+        configure("60", "3600", "5");
+        assertDelaysWithin(1, 0L, 120000L);
+    }
+
+    @Test
+    public void invalidSettingsFallBackToTheDefaults() {
+        configure("soon", "", "a lot");
+        assertDelaysWithin(1, 48000L, 72000L);
+        assertDelaysWithin(10, 2880000L, 4320000L);
+    }
+
+    @Test
+    public void submissionDoesNotWaitForTheRequests() throws Exception {
+        final ClaimingJobsManager jobsManager = new ClaimingJobsManager(createJob("job-1"), createJob("job-2"));
+        final CountDownLatch requested = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final WebArchiveUpdatesSubmitter blocking = new WebArchiveUpdatesSubmitter(jobsManager, update -> {
+            requested.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blocking.configure(new HashMap<String, String>()::get);
+        try {
+            assertEquals(2, blocking.submitPendingJobs(10));
+            assertTrue(requested.await(10, TimeUnit.SECONDS));
+            assertEquals(2, blocking.getActiveTaskCount());
+            assertTrue(jobsManager.updated.isEmpty());
+
+            release.countDown();
+            assertTrue(jobsManager.awaitUpdates(2));
+            for (WebArchiveUpdateJob job : jobsManager.updated) {
+                assertEquals(WebArchiveUpdateJobStatus.ACKNOWLEDGED, job.getStatus());
+            }
+            assertEquals(0, blocking.submitPendingJobs(10));
+        } finally {
+            release.countDown();
+            blocking.destroy();
+        }
+        assertEquals(0, blocking.getActiveTaskCount());
+    }
+
+    /**
+     * Hands out the given jobs on the first claim and records the jobs updated by the submitter.
+     */
+    private static class ClaimingJobsManager implements WebArchiveUpdateJobsManager {
+        private final List<WebArchiveUpdateJob> pending;
+        final List<WebArchiveUpdateJob> updated = Collections.synchronizedList(new ArrayList<>());
+
+        ClaimingJobsManager(final WebArchiveUpdateJob... jobs) {
+            pending = new ArrayList<>(Arrays.asList(jobs));
+        }
+
+        @Override
+        public synchronized List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) {
+            final List<WebArchiveUpdateJob> claimed = new ArrayList<>(pending);
+            pending.clear();
+            return claimed;
+        }
+
+        @Override
+        public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) {
+            synchronized (updated) {
+                updated.add(webArchiveUpdateJob);
+                updated.notifyAll();
+            }
+        }
+
+        @Override
+        public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                       final Map<String, String> searchFilters, final int offset,
+                                                                       final int limit, final String orderByPropertyHint,
+                                                                       final boolean ascending) {
+            throw new UnsupportedOperationException();
+        }
+
+        boolean awaitUpdates(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            synchronized (updated) {
+                while (updated.size() < count && System.currentTimeMillis() < deadline) {
+                    updated.wait(100);
+                }
+                return updated.size() >= count;
+            }
+        }
+    }
+
+    private static WebArchiveUpdateJob createJob(final String id) {
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setId(id);
+        update.setUrls(Collections.singletonList("https://www.example.com/" + id));
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId(id);
+        job.setWebArchiveUpdate(update);
+        job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+        return job;
+    }
+
+    private void assertDelaysWithin(final long failedAttempt, final long min, final long max) {
+        final Set<Long> delays = new HashSet<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            final long delay = submitter.getRetryDelayMillis(failedAttempt);
+            assertTrue("delay " + delay + " of attempt " + failedAttempt + " not within [" + min + ", " + max + "]",
+                    delay >= min && delay <= max);
+            delays.add(delay);
+        }
+        assertTrue("jitter should spread the delays", delays.size() > 1);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.cms.decorator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveRateLimitException;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveManagerCapabilities;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateResult;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimitingWebArchiveManagerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void fullBucketServesABurst() {
+        final RateLimitingWebArchiveManager.TokenBucket bucket = new RateLimitingWebArchiveManager.TokenBucket(10, 5, 0L);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0L, bucket.getWaitNanos(1, 0L));
+            bucket.take(1);
+        }
+        assertWait(100 * MILLIS, bucket.getWaitNanos(1, 0L));
+    }
+
+    @Test
+    public void bucketRefillsAtItsRate() {
+        final RateLimitingWebArchiveManager.TokenBucket bucket = new RateLimitingWebArchiveManager.TokenBucket(10, 5, 0L);
+        bucket.getWaitNanos(5, 0L);
+        bucket.take(5);
+
+        assertEquals(0L, bucket.getWaitNanos(2, 250 * MILLIS));
+        assertWait(50 * MILLIS, bucket.getWaitNanos(3, 250 * MILLIS));
+        bucket.take(2);
+        assertWait(100 * MILLIS, bucket.getWaitNanos(2, 300 * MILLIS));
+    }
+
+    @Test
+    public void refillStopsAtTheBurstCapacity() {
+        final RateLimitingWebArchiveManager.TokenBucket bucket = new RateLimitingWebArchiveManager.TokenBucket(10, 5, 0L);
+        bucket.getWaitNanos(5, 0L);
+        bucket.take(5);
+
+        final long later = TimeUnit.MINUTES.toNanos(1);
+        assertEquals(0L, bucket.getWaitNanos(5, later));
+        bucket.take(5);
+        assertWait(100 * MILLIS, bucket.getWaitNanos(1, later));
+    }
+
+    @Test
+    public void requestLargerThanTheBurstLeavesTheBucketInDebt() {
+        final RateLimitingWebArchiveManager.TokenBucket bucket = new RateLimitingWebArchiveManager.TokenBucket(10, 5, 0L);
+        assertEquals(0L, bucket.getWaitNanos(20, 0L));
+        bucket.take(20);
+
+        assertWait(1600 * MILLIS, bucket.getWaitNanos(1, 0L));
+        assertEquals(0L, bucket.getWaitNanos(1, 1600 * MILLIS));
+    }
+
+    @Test
+    public void requestsBeyondTheQuotaAreDenied() throws WebArchiveUpdateException {
+        final AtomicInteger requested = new AtomicInteger();
+        final RateLimitingWebArchiveManager manager = new RateLimitingWebArchiveManager();
+        manager.setDelegate(update -> requested.incrementAndGet());
+        final Map<String, String> props = new HashMap<>();
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_REQUESTS_PER_SECOND, "1");
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_WAIT_MILLIS, "0");
+        manager.initialize(props);
+
+        manager.requestUpdate(createUpdate("https://www.example.com/a"));
+        try {
+            manager.requestUpdate(createUpdate("https://www.example.com/b"));
+            fail("Request beyond the quota should be denied");
+        } catch (WebArchiveRateLimitException e) {
+            assertTrue(e.getRetryAfterMillis() > 0 && e.getRetryAfterMillis() <= 1000L);
+        }
+
+        final List<WebArchiveUpdateResult> results = manager.requestUpdates(Arrays.asList(
+                createUpdate("https://www.example.com/c"), createUpdate("https://www.example.com/d")));
+        assertEquals(2, results.size());
+        for (WebArchiveUpdateResult result : results) {
+            assertFalse(result.isSucceeded());
+            assertTrue(result.getFailure() instanceof WebArchiveRateLimitException);
+        }
+
+        assertEquals(1, requested.get());
+        assertEquals(1L, manager.getPermitCount());
+        assertEquals(2L, manager.getDeniedCount());
+        assertEquals(0L, manager.getDelayedCount());
+    }
+
+    @Test
+    public void requestLargerThanTheBurstWaitsForAFullBucketOnly() {
+        final RateLimitingWebArchiveManager.TokenBucket bucket = new RateLimitingWebArchiveManager.TokenBucket(10, 5, 0L);
+        bucket.getWaitNanos(3, 0L);
+        bucket.take(3);
+
+        assertWait(300 * MILLIS, bucket.getWaitNanos(500, 0L));
+        assertEquals(0L, bucket.getWaitNanos(500, 300 * MILLIS));
+    }
+
+    @Test
+    public void jobWithMoreUrlsThanTheQuotaIsServed() throws WebArchiveUpdateException {
+        final AtomicInteger requested = new AtomicInteger();
+        final RateLimitingWebArchiveManager manager = new RateLimitingWebArchiveManager();
+        manager.setDelegate(update -> requested.incrementAndGet());
+        final Map<String, String> props = new HashMap<>();
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_URLS_PER_SECOND, "10");
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_WAIT_MILLIS, "1000");
+        manager.initialize(props);
+
+        // 500 URLs exceed the burst of 10 plus 10 URLs per second for the maximum wait of a second
+        final WebArchiveUpdate large = createUpdate("https://www.example.com/large");
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            urls.add("https://www.example.com/page-" + i);
+        }
+        large.setUrls(urls);
+        manager.requestUpdate(large);
+        assertEquals(1, requested.get());
+
+        // the debt of 490 URLs is paid off at 10 URLs per second before the next request is sent
+        try {
+            manager.requestUpdate(createUpdate("https://www.example.com/a"));
+            fail("Request after the debt should be denied");
+        } catch (WebArchiveRateLimitException e) {
+            assertTrue(e.getRetryAfterMillis() > 48000L && e.getRetryAfterMillis() <= 49100L);
+        }
+        assertEquals(1, requested.get());
+    }
+
+    @Test
+    public void batchesAreLimitedToTheUrlBurst() throws WebArchiveUpdateException {
+        final RateLimitingWebArchiveManager manager = new RateLimitingWebArchiveManager();
+        manager.setDelegate(new BatchingWebArchiveManager(new WebArchiveManagerCapabilities(100, 500)));
+        final Map<String, String> props = new HashMap<>();
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_URLS_PER_SECOND, "10");
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_URL_BURST, "50");
+        manager.initialize(props);
+        assertEquals(100, manager.getCapabilities().getMaxBatchSize());
+        assertEquals(50, manager.getCapabilities().getMaxUrls());
+
+        props.put(RateLimitingWebArchiveManager.CONFIG_PROP_URL_BURST, "1000");
+        manager.initialize(props);
+        assertEquals(500, manager.getCapabilities().getMaxUrls());
+
+        props.remove(RateLimitingWebArchiveManager.CONFIG_PROP_MAX_URLS_PER_SECOND);
+        manager.initialize(props);
+        assertEquals(500, manager.getCapabilities().getMaxUrls());
+    }
+
+    private static class BatchingWebArchiveManager implements WebArchiveManager {
+        private final WebArchiveManagerCapabilities capabilities;
+
+        BatchingWebArchiveManager(final WebArchiveManagerCapabilities capabilities) {
+            this.capabilities = capabilities;
+        }
+
+        @Override
+        public void requestUpdate(final WebArchiveUpdate update) {
+        }
+
+        @Override
+        public WebArchiveManagerCapabilities getCapabilities() {
+            return capabilities;
+        }
+    }
+
+    private static WebArchiveUpdate createUpdate(final String url) {
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setId(url);
+        update.setCreated(Calendar.getInstance());
+        update.setUrls(Arrays.asList(url));
+        return update;
+    }
+
+    /**
+     * Waits are rounded up to whole nanoseconds from a rate in tokens per nanosecond.
+     */
+    private static void assertWait(final long expectedNanos, final long actualNanos) {
+        assertEquals(expectedNanos, actualNanos, 1000L);
+    }
+}
@@ -16,8 +16,13 @@
 
 package org.bloomreach.forge.webarchiving.common.api;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveManagerCapabilities;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateResult;
 
 /**
  * Interface for an external web archive service component.
@@ -32,6 +37,35 @@ public interface WebArchiveManager {
      */
     void requestUpdate(WebArchiveUpdate update) throws WebArchiveUpdateException;
 
+    /**
+     * Requests a batch of {@link WebArchiveUpdate}s from a Web Archive System. The batch respects the limits of
+     * {@link #getCapabilities()}. The default implementation requests the updates one by one.
+     *
+     * @param updates the web archive updates
+     * @return the result of every update, in the order of {@code updates}
+     */
+    default List<WebArchiveUpdateResult> requestUpdates(List<WebArchiveUpdate> updates) {
+        final List<WebArchiveUpdateResult> results = new ArrayList<>(updates.size());
+        for (WebArchiveUpdate update : updates) {
+            try {
+                requestUpdate(update);
+                results.add(WebArchiveUpdateResult.succeeded(update));
+            } catch (WebArchiveUpdateException e) {
+                results.add(WebArchiveUpdateResult.failed(update, e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the limits of the batches accepted by {@link #requestUpdates(List)}.
+     *
+     * @return the capabilities of the archive manager, by default a single update per request
+     */
+    default WebArchiveManagerCapabilities getCapabilities() {
+        return WebArchiveManagerCapabilities.SINGLE_UPDATE;
+    }
+
     /**
      * Gets information for the underlying archive manager implementation.
      *
@@ -16,13 +16,28 @@
 
 package org.bloomreach.forge.webarchiving.common.api;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.bloomreach.forge.webarchiving.common.error.UncheckedWebArchiveUpdateException;
 import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.util.WebArchiveUpdateJobIdGenerator;
 
 /**
  * Web archive update manager, responsible for storing/reading web archive update jobs.
@@ -38,6 +53,40 @@ public interface WebArchiveUpdateJobsManager {
      */
     String createWebArchiveUpdateJob(WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException;
 
+    /**
+     * Create and save a batch of web archive update jobs and return the created job identifiers, in the order of the
+     * given jobs. Implementations are encouraged to override this method and save the jobs in as few operations as
+     * possible; the default implementation creates the jobs one by one.
+     *
+     * @param webArchiveUpdateJobs web archive update jobs
+     * @return created web archive update job identifiers
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default List<String> createWebArchiveUpdateJobs(List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        final List<String> updateJobIds = new ArrayList<>(webArchiveUpdateJobs.size());
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            updateJobIds.add(createWebArchiveUpdateJob(webArchiveUpdateJob));
+        }
+        return updateJobIds;
+    }
+
+    /**
+     * Merge the update of {@code webArchiveUpdateJob} into a queued job for the same update, i.e. a job of which the
+     * update has the same identifier and type, or create the job if there is none. Merging takes the union of the URLs
+     * of both updates and refreshes the last modification date of the queued job, so that repeated publications of a
+     * document before the job is submitted result in a single archive request.
+     * <p>
+     * The default implementation does not merge and always creates the job; implementations that can look up queued
+     * jobs by update identifier are encouraged to override it.
+     *
+     * @param webArchiveUpdateJob web archive update job
+     * @return identifier of the job the update was merged into, or of the created job
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default String createOrMergeWebArchiveUpdateJob(WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        return createWebArchiveUpdateJob(webArchiveUpdateJob);
+    }
+
     /**
      * Get the web archive update job by the given job identifier ({@code webArchiveUpdateJobId}).
      *
@@ -55,6 +104,19 @@ public interface WebArchiveUpdateJobsManager {
      */
     void updateWebArchiveUpdateJob(WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException;
 
+    /**
+     * Update a batch of web archive update jobs. Implementations are encouraged to override this method and save the
+     * jobs in as few operations as possible; the default implementation updates the jobs one by one.
+     *
+     * @param webArchiveUpdateJobs web archive update jobs
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default void updateWebArchiveUpdateJobs(List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            updateWebArchiveUpdateJob(webArchiveUpdateJob);
+        }
+    }
+
     /**
      * Delete a web archive update job by {@code webArchiveUpdateJobId}.
      *
@@ -63,6 +125,48 @@ public interface WebArchiveUpdateJobsManager {
      */
     void deleteWebArchiveUpdateJobs(WebArchiveUpdateJob... webArchiveUpdateJobs) throws WebArchiveUpdateException;
 
+    /**
+     * Remove the web archive update jobs created before {@code olderThan} that have one of the given statuses, e.g. to
+     * enforce a retention period. Implementations should remove the jobs without loading them, in chunks, and may
+     * stop after a configured time limit; the jobs that remain are removed by a next call.
+     * <p>
+     * The default implementation deletes the jobs found by summary searches, one page at a time; implementations are
+     * encouraged to override it with a purge that does not search for and delete every job separately.
+     *
+     * @param olderThan jobs created before this date time are removed
+     * @param statuses  OR-ed statuses of the jobs to remove, a null or empty value means all statuses
+     * @return the number of removed jobs
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default long purgeOlderThan(Calendar olderThan, List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        final int pageSize = 1000;
+        final List<WebArchiveUpdateJobStatus> purgedStatuses = statuses == null || statuses.isEmpty() ? null : statuses;
+        long purged = 0;
+        String previousFirstId = null;
+        while (true) {
+            final List<WebArchiveUpdateJob> expiredJobs = new ArrayList<>();
+            final List<WebArchiveUpdateJobSummary> summaries = searchForWebArchiveUpdateJobSummaries(purgedStatuses, null, 0, pageSize, "created", true);
+            for (WebArchiveUpdateJobSummary summary : summaries) {
+                if (summary.getCreated() == null || !summary.getCreated().before(olderThan)) {
+                    break;
+                }
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+                job.setId(summary.getId());
+                expiredJobs.add(job);
+            }
+            if (expiredJobs.isEmpty() || expiredJobs.get(0).getId().equals(previousFirstId)) {
+                // nothing expired, or the jobs of the previous page could not be deleted
+                return purged;
+            }
+            previousFirstId = expiredJobs.get(0).getId();
+            deleteWebArchiveUpdateJobs(expiredJobs.toArray(new WebArchiveUpdateJob[0]));
+            purged += expiredJobs.size();
+            if (expiredJobs.size() < summaries.size() || summaries.size() < pageSize) {
+                return purged;
+            }
+        }
+    }
+
     /**
      * Search and return web archive update jobs by the given inputs.
      * <p>
@@ -82,6 +186,121 @@ public interface WebArchiveUpdateJobsManager {
     List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(List<WebArchiveUpdateJobStatus> statuses, Map<String, String> searchFilters,
                                                             int offset, int limit, String orderByPropertyHint, boolean ascending) throws WebArchiveUpdateException;
 
+    /**
+     * Search and return summaries of web archive update jobs by the given inputs. Summaries do not contain the URLs of
+     * the job payload, which can be loaded on demand through {@link #getWebArchiveUpdateJobById(String)}. See
+     * {@link #searchForWebArchiveUpdateJobs(List, Map, int, int, String, boolean)} for the meaning of the parameters.
+     * <p>
+     * The default implementation maps the result of a full search; implementations are encouraged to override it
+     * with a search that does not load the job payloads.
+     *
+     * @return list of web archive update job summaries or empty list if none
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(List<WebArchiveUpdateJobStatus> statuses, Map<String, String> searchFilters,
+                                                                                 int offset, int limit, String orderByPropertyHint,
+                                                                                 boolean ascending) throws WebArchiveUpdateException {
+        return searchForWebArchiveUpdateJobs(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending).stream()
+                .map(WebArchiveUpdateJobSummary::new)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Search a page of web archive update jobs, ordered by ascending last modification date, continuing after the last
+     * job of the page the {@code continuationToken} was returned with. Contrary to offset based paging, the cost of
+     * getting a page does not grow with the number of jobs before it.
+     * <p>
+     * The default implementation falls back on offset based paging, encoding the offset in the token; implementations
+     * are encouraged to override it with keyset based paging.
+     *
+     * @param statuses          OR-ed statuses to be filtered on, a null value means no filtering
+     * @param searchFilters     AND-ed search filters having <code>fieldName</code> - <code>fieldValue</code> pairs
+     * @param continuationToken token of the previous page, or null to get the first page
+     * @param limit             size of the page
+     * @return page of web archive update jobs
+     * @throws WebArchiveUpdateException if a web archive update exception occurs, e.g. the token is invalid
+     */
+    default WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(List<WebArchiveUpdateJobStatus> statuses, Map<String, String> searchFilters,
+                                                                   String continuationToken, int limit) throws WebArchiveUpdateException {
+        int offset = 0;
+        if (continuationToken != null) {
+            try {
+                offset = Integer.parseInt(continuationToken);
+            } catch (NumberFormatException e) {
+                throw new WebArchiveUpdateException(e, "Invalid continuation token '{}'", continuationToken);
+            }
+        }
+        final List<WebArchiveUpdateJob> jobs = searchForWebArchiveUpdateJobs(statuses, searchFilters, offset, limit, "lastmodified", true);
+        return new WebArchiveUpdateJobsPage(jobs, jobs.size() < limit ? null : String.valueOf(offset + jobs.size()));
+    }
+
+    /**
+     * Stream all web archive update jobs matching the given inputs, ordered by ascending last modification date. The
+     * jobs are fetched lazily in pages of {@code pageSize} using
+     * {@link #searchForWebArchiveUpdateJobs(List, Map, String, int)}, so that only one page is kept in memory.
+     * Exceptions while fetching a page are thrown as {@link UncheckedWebArchiveUpdateException}.
+     *
+     * @param statuses      OR-ed statuses to be filtered on, a null value means no filtering
+     * @param searchFilters AND-ed search filters having <code>fieldName</code> - <code>fieldValue</code> pairs
+     * @param pageSize      number of jobs to fetch at once
+     * @return stream of web archive update jobs
+     */
+    default Stream<WebArchiveUpdateJob> streamWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final int pageSize) {
+        final Iterator<WebArchiveUpdateJob> iterator = new Iterator<WebArchiveUpdateJob>() {
+            private Iterator<WebArchiveUpdateJob> pageIterator;
+            private String continuationToken;
+            private boolean lastPage;
+
+            @Override
+            public boolean hasNext() {
+                while ((pageIterator == null || !pageIterator.hasNext()) && !lastPage) {
+                    try {
+                        final WebArchiveUpdateJobsPage page = searchForWebArchiveUpdateJobs(statuses, searchFilters, continuationToken, pageSize);
+                        pageIterator = page.getJobs().iterator();
+                        continuationToken = page.getContinuationToken();
+                        lastPage = !page.hasNext();
+                    } catch (WebArchiveUpdateException e) {
+                        throw new UncheckedWebArchiveUpdateException(e);
+                    }
+                }
+                return pageIterator != null && pageIterator.hasNext();
+            }
+
+            @Override
+            public WebArchiveUpdateJob next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageIterator.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Count the web archive update jobs per status, e.g. to monitor the size of the backlog. Implementations may
+     * return counts that lag behind the stored jobs for a short while.
+     * <p>
+     * The default implementation streams all jobs; implementations are encouraged to override it with counts that
+     * are cheap to get.
+     *
+     * @return the number of jobs for every status
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        final Map<WebArchiveUpdateJobStatus, Long> counts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+            counts.put(status, 0L);
+        }
+        try (Stream<WebArchiveUpdateJob> jobs = streamWebArchiveUpdateJobs(null, null, 1000)) {
+            jobs.forEach(job -> counts.merge(job.getStatus() != null ? job.getStatus() : WebArchiveUpdateJobStatus.UNDEFINED, 1L, Long::sum));
+        } catch (UncheckedWebArchiveUpdateException e) {
+            throw e.getCause();
+        }
+        return counts;
+    }
+
     /**
      * Convenience method to get all web archive update jobs.
      *
@@ -103,6 +322,46 @@ public interface WebArchiveUpdateJobsManager {
         return searchForWebArchiveUpdateJobs(Arrays.asList(WebArchiveUpdateJobStatus.CATEGORY_PENDING), null, 0, searchLimit, null, true);
     }
 
+    /**
+     * Claim up to {@code max} pending web archive update jobs for submission by this cluster node. Claimed jobs are
+     * stored with status {@link WebArchiveUpdateJobStatus#SUBMITTED}, this node as owner and a lease expiring after
+     * {@code lease}. Queued and aborted jobs can be claimed, as well as submitted jobs of which the lease has expired,
+     * e.g. because their owner went down. Jobs of which the next attempt is scheduled after now are not due and are
+     * not claimed.
+     * <p>
+     * Implementations must make sure that a job is claimed by one node only, e.g. by an optimistic check on the
+     * stored state. The default implementation is not atomic and should be overridden by implementations that can be
+     * used in a cluster.
+     *
+     * @param max   maximum number of jobs to claim
+     * @param lease duration of the claim
+     * @return the jobs claimed by this node, or empty list if none
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    default List<WebArchiveUpdateJob> claimPendingJobs(int max, Duration lease) throws WebArchiveUpdateException {
+        final Calendar now = Calendar.getInstance();
+        final Calendar leaseExpiration = Calendar.getInstance();
+        leaseExpiration.setTimeInMillis(now.getTimeInMillis() + lease.toMillis());
+
+        final List<WebArchiveUpdateJob> claimedJobs = new ArrayList<>();
+        for (WebArchiveUpdateJob job : getPendingWebArchiveUpdateJobs(max)) {
+            if (job.getStatus() == WebArchiveUpdateJobStatus.SUBMITTED
+                    && job.getLeaseExpiration() != null && job.getLeaseExpiration().after(now)) {
+                continue;
+            }
+            if (!job.isDue(now)) {
+                continue;
+            }
+            job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+            job.setLastModified(now);
+            job.setOwner(WebArchiveUpdateJobIdGenerator.getClusterNodeId());
+            job.setLeaseExpiration(leaseExpiration);
+            updateWebArchiveUpdateJob(job);
+            claimedJobs.add(job);
+        }
+        return claimedJobs;
+    }
+
     /**
      * Convenience method to get completed web archive update jobs.
      *
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.api;
+
+/**
+ * Interface for a component submitting the pending web archive update jobs as soon as they are created.
+ */
+public interface WebArchiveUpdatesDispatcher {
+
+    /**
+     * Signals that web archive update jobs have been created or queued again. The dispatcher claims and submits the
+     * pending jobs without waiting for its next poll. Signals arriving while the dispatcher is busy are coalesced
+     * into a single additional pass, so calling this method is cheap and never blocks.
+     */
+    void wakeUp();
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.error;
+
+/**
+ * Wraps a {@link WebArchiveUpdateException} in places where checked exceptions cannot be thrown, like iterators and
+ * streams.
+ */
+public class UncheckedWebArchiveUpdateException extends RuntimeException {
+
+    public UncheckedWebArchiveUpdateException(final WebArchiveUpdateException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized WebArchiveUpdateException getCause() {
+        return (WebArchiveUpdateException) super.getCause();
+    }
+}
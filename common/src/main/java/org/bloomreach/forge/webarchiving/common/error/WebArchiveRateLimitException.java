@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.error;
+
+/**
+ * Thrown when a web archive update is not requested because the request quota of the web archive would be
+ * exceeded. The update has not been attempted and can be requested again after {@link #getRetryAfterMillis()}.
+ */
+public class WebArchiveRateLimitException extends WebArchiveUpdateException {
+
+    private final long retryAfterMillis;
+
+    public WebArchiveRateLimitException(final String messagePattern, final Object... args) {
+        this(0L, messagePattern, args);
+    }
+
+    public WebArchiveRateLimitException(final long retryAfterMillis, final String messagePattern, final Object... args) {
+        super(messagePattern, args);
+        this.retryAfterMillis = Math.max(0L, retryAfterMillis);
+    }
+
+    /**
+     * @return the estimated time in milliseconds until the quota allows the update to be requested, 0 if unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.model;
+
+import java.io.Serializable;
+
+/**
+ * Describes the limits of the batches of updates a
+ * {@link org.bloomreach.forge.webarchiving.common.api.WebArchiveManager} accepts in a single request.
+ */
+public class WebArchiveManagerCapabilities implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The capabilities of a web archive manager requesting every update on its own.
+     */
+    public static final WebArchiveManagerCapabilities SINGLE_UPDATE = new WebArchiveManagerCapabilities(1, 0);
+
+    /**
+     * The maximum number of updates per request.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * The maximum number of URLs of all updates of a request, 0 if unlimited.
+     */
+    private final int maxUrls;
+
+    public WebArchiveManagerCapabilities(final int maxBatchSize, final int maxUrls) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxUrls = Math.max(0, maxUrls);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxUrls() {
+        return maxUrls;
+    }
+
+    /**
+     * @return whether updates can be requested in batches of more than one update
+     */
+    public boolean isBatching() {
+        return maxBatchSize > 1;
+    }
+
+    @Override
+    public String toString() {
+        return "WebArchiveManagerCapabilities{" +
+                "maxBatchSize=" + maxBatchSize +
+                ", maxUrls=" + maxUrls +
+                '}';
+    }
+}
@@ -17,9 +17,13 @@
 package org.bloomreach.forge.webarchiving.common.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A web archive update contains all the information needed by an Archive manager to execute an archive update
@@ -94,6 +98,42 @@ public class WebArchiveUpdate implements Serializable {
         this.type = type;
     }
 
+    /**
+     * Merge {@code other} into this update: add the URLs of {@code other} that this update does not contain yet,
+     * preserving their order, and add its creator if different.
+     *
+     * @param other an update with the same identifier and type
+     * @return whether this update has changed
+     */
+    public boolean merge(final WebArchiveUpdate other) {
+        boolean changed = false;
+        if (other.getUrls() != null && !other.getUrls().isEmpty()) {
+            final Set<String> mergedUrls = new LinkedHashSet<>();
+            if (urls != null) {
+                mergedUrls.addAll(urls);
+            }
+            final int size = mergedUrls.size();
+            mergedUrls.addAll(other.getUrls());
+            if (mergedUrls.size() != size) {
+                urls = new ArrayList<>(mergedUrls);
+                changed = true;
+            }
+        }
+        if (other.getCreator() != null && !other.getCreator().isEmpty()) {
+            final Set<String> creators = new LinkedHashSet<>();
+            if (creator != null && !creator.isEmpty()) {
+                creators.addAll(Arrays.asList(creator.split(", ")));
+            }
+            final int size = creators.size();
+            creators.addAll(Arrays.asList(other.getCreator().split(", ")));
+            if (creators.size() != size) {
+                creator = String.join(", ", creators);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
     @Override
     public String toString() {
         return "WebArchiveUpdate{" +
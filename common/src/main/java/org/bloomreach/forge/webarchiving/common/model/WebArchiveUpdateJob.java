@@ -17,7 +17,12 @@
 package org.bloomreach.forge.webarchiving.common.model;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * A web archive update job containing exactly one {@link WebArchiveUpdate} object.
@@ -28,6 +33,13 @@ public class WebArchiveUpdateJob implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The stored fields of a job, of which changes are tracked.
+     */
+    public enum Field {
+        CREATED, LAST_MODIFIED, STATUS, ATTEMPT, OWNER, LEASE_EXPIRATION, NEXT_ATTEMPT
+    }
+
     /**
      * Web archive update identifier.
      */
@@ -58,10 +70,51 @@ public class WebArchiveUpdateJob implements Serializable {
      */
     private long attempt = 1L;
 
+    /**
+     * Identifier of the cluster node that claimed this job for submission, if any.
+     */
+    private String owner;
+
+    /**
+     * The date time after which the claim of the owner expires and the job can be claimed again.
+     */
+    private Calendar leaseExpiration;
+
+    /**
+     * The date time before which the job is not submitted again after a failed attempt, or null if it is due.
+     */
+    private Calendar nextAttemptAt;
+
+    /**
+     * Fields changed since the job was read from or written to a store, or null if the job is not known to be in sync
+     * with a store, in which case all fields are considered changed.
+     */
+    private transient Set<Field> dirtyFields;
+
     public WebArchiveUpdateJob() {
         super();
     }
 
+    /**
+     * Create a copy of {@code other}. The dates are copied, the web archive update is shared.
+     */
+    public WebArchiveUpdateJob(final WebArchiveUpdateJob other) {
+        this.id = other.id;
+        this.created = copy(other.created);
+        this.lastModified = copy(other.lastModified);
+        this.webArchiveUpdate = other.webArchiveUpdate;
+        this.status = other.status;
+        this.attempt = other.attempt;
+        this.owner = other.owner;
+        this.leaseExpiration = copy(other.leaseExpiration);
+        this.nextAttemptAt = copy(other.nextAttemptAt);
+        this.dirtyFields = other.dirtyFields != null ? EnumSet.copyOf(other.dirtyFields) : null;
+    }
+
+    private static Calendar copy(final Calendar calendar) {
+        return calendar != null ? (Calendar) calendar.clone() : null;
+    }
+
     public String getId() {
         return id;
     }
@@ -75,6 +128,7 @@ public class WebArchiveUpdateJob implements Serializable {
     }
 
     public void setCreated(final Calendar created) {
+        changed(Field.CREATED, this.created, created);
         this.created = created;
     }
 
@@ -83,6 +137,7 @@ public class WebArchiveUpdateJob implements Serializable {
     }
 
     public void setLastModified(final Calendar lastModified) {
+        changed(Field.LAST_MODIFIED, this.lastModified, lastModified);
         this.lastModified = lastModified;
     }
 
@@ -99,6 +154,7 @@ public class WebArchiveUpdateJob implements Serializable {
     }
 
     public void setStatus(final WebArchiveUpdateJobStatus status) {
+        changed(Field.STATUS, this.status, status);
         this.status = status;
     }
 
@@ -107,9 +163,95 @@ public class WebArchiveUpdateJob implements Serializable {
     }
 
     public void setAttempt(final long attempt) {
+        changed(Field.ATTEMPT, this.attempt, attempt);
         this.attempt = attempt;
     }
 
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(final String owner) {
+        changed(Field.OWNER, this.owner, owner);
+        this.owner = owner;
+    }
+
+    public Calendar getLeaseExpiration() {
+        return leaseExpiration;
+    }
+
+    public void setLeaseExpiration(final Calendar leaseExpiration) {
+        changed(Field.LEASE_EXPIRATION, this.leaseExpiration, leaseExpiration);
+        this.leaseExpiration = leaseExpiration;
+    }
+
+    public Calendar getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(final Calendar nextAttemptAt) {
+        changed(Field.NEXT_ATTEMPT, this.nextAttemptAt, nextAttemptAt);
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    /**
+     * @return whether the job may be submitted at {@code now}, i.e. it has no next attempt scheduled after it
+     */
+    public boolean isDue(final Calendar now) {
+        return nextAttemptAt == null || !nextAttemptAt.after(now);
+    }
+
+    /**
+     * Release the claim on this job, so that it is stored without owner and lease.
+     */
+    public void releaseLease() {
+        setOwner(null);
+        setLeaseExpiration(null);
+    }
+
+    /**
+     * @return whether any field has changed since the job was read from or written to a store
+     */
+    public boolean isDirty() {
+        return dirtyFields == null || !dirtyFields.isEmpty();
+    }
+
+    /**
+     * @return whether {@code field} has changed since the job was read from or written to a store
+     */
+    public boolean isDirty(final Field field) {
+        return dirtyFields == null || dirtyFields.contains(field);
+    }
+
+    /**
+     * @return the fields changed since the job was read from or written to a store
+     */
+    public Set<Field> getDirtyFields() {
+        return Collections.unmodifiableSet(dirtyFields == null ? EnumSet.allOf(Field.class) : EnumSet.copyOf(dirtyFields));
+    }
+
+    /**
+     * Mark {@code fields} as changed, e.g. to merge changes that have not been stored yet.
+     */
+    public void markDirty(final Field... fields) {
+        if (dirtyFields != null) {
+            dirtyFields.addAll(Arrays.asList(fields));
+        }
+    }
+
+    /**
+     * Mark the job as in sync with a store, to be called by stores after reading or writing the job.
+     */
+    public void clearDirty() {
+        dirtyFields = EnumSet.noneOf(Field.class);
+    }
+
+    private void changed(final Field field, final Object oldValue, final Object newValue) {
+        if (dirtyFields != null && !Objects.equals(oldValue, newValue)) {
+            dirtyFields.add(field);
+        }
+    }
+
     @Override
     public String toString() {
         return "WebArchiveUpdateJob{" +
@@ -119,6 +261,9 @@ public class WebArchiveUpdateJob implements Serializable {
             ", webArchiveUpdate=" + webArchiveUpdate +
             ", status=" + status +
             ", attempt=" + attempt +
+            ", owner='" + owner + '\'' +
+            ", leaseExpiration=" + (leaseExpiration != null ? leaseExpiration.getTime() : null) +
+            ", nextAttemptAt=" + (nextAttemptAt != null ? nextAttemptAt.getTime() : null) +
             '}';
     }
 
@@ -148,6 +293,15 @@ public class WebArchiveUpdateJob implements Serializable {
         if (webArchiveUpdate != null ? !webArchiveUpdate.equals(that.webArchiveUpdate) : that.webArchiveUpdate != null) {
             return false;
         }
+        if (owner != null ? !owner.equals(that.owner) : that.owner != null) {
+            return false;
+        }
+        if (leaseExpiration != null ? !leaseExpiration.equals(that.leaseExpiration) : that.leaseExpiration != null) {
+            return false;
+        }
+        if (nextAttemptAt != null ? !nextAttemptAt.equals(that.nextAttemptAt) : that.nextAttemptAt != null) {
+            return false;
+        }
         return status == that.status;
 
     }
@@ -160,6 +314,9 @@ public class WebArchiveUpdateJob implements Serializable {
         result = 31 * result + (webArchiveUpdate != null ? webArchiveUpdate.hashCode() : 0);
         result = 31 * result + (status != null ? status.hashCode() : 0);
         result = 31 * result + (int) (attempt ^ (attempt >>> 32));
+        result = 31 * result + (owner != null ? owner.hashCode() : 0);
+        result = 31 * result + (leaseExpiration != null ? leaseExpiration.hashCode() : 0);
+        result = 31 * result + (nextAttemptAt != null ? nextAttemptAt.hashCode() : 0);
         return result;
     }
 }
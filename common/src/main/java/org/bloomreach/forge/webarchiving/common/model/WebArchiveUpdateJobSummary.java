@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.model;
+
+import java.io.Serializable;
+import java.util.Calendar;
+
+/**
+ * A lightweight projection of a {@link WebArchiveUpdateJob}, containing its status and scheduling information but not
+ * the URLs of its {@link WebArchiveUpdate} payload. The full job can be loaded on demand by its identifier.
+ */
+public class WebArchiveUpdateJobSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Web archive update job identifier.
+     */
+    private String id;
+
+    /**
+     * The job creation date time.
+     */
+    private Calendar created;
+
+    /**
+     * The last modified date time of the job.
+     */
+    private Calendar lastModified;
+
+    /**
+     * Web archive update job status.
+     */
+    private WebArchiveUpdateJobStatus status;
+
+    /**
+     * Number of attempt to submit the job
+     */
+    private long attempt = 1L;
+
+    /**
+     * Type of the web archive update included in the job.
+     */
+    private WebArchiveUpdateType type;
+
+    /**
+     * Number of URLs of the web archive update included in the job.
+     */
+    private long urlCount;
+
+    public WebArchiveUpdateJobSummary() {
+        super();
+    }
+
+    public WebArchiveUpdateJobSummary(final WebArchiveUpdateJob job) {
+        this.id = job.getId();
+        this.created = job.getCreated();
+        this.lastModified = job.getLastModified();
+        this.status = job.getStatus();
+        this.attempt = job.getAttempt();
+        final WebArchiveUpdate update = job.getWebArchiveUpdate();
+        if (update != null) {
+            this.type = update.getType();
+            this.urlCount = update.getUrls() != null ? update.getUrls().size() : 0;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    public Calendar getCreated() {
+        return created;
+    }
+
+    public void setCreated(final Calendar created) {
+        this.created = created;
+    }
+
+    public Calendar getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(final Calendar lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public WebArchiveUpdateJobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(final WebArchiveUpdateJobStatus status) {
+        this.status = status;
+    }
+
+    public long getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(final long attempt) {
+        this.attempt = attempt;
+    }
+
+    public WebArchiveUpdateType getType() {
+        return type;
+    }
+
+    public void setType(final WebArchiveUpdateType type) {
+        this.type = type;
+    }
+
+    public long getUrlCount() {
+        return urlCount;
+    }
+
+    public void setUrlCount(final long urlCount) {
+        this.urlCount = urlCount;
+    }
+
+    @Override
+    public String toString() {
+        return "WebArchiveUpdateJobSummary{" +
+            "id='" + id + '\'' +
+            ", created=" + (created != null ? created.getTime() : null) +
+            ", lastModified=" + (lastModified != null ? lastModified.getTime() : null) +
+            ", status=" + status +
+            ", attempt=" + attempt +
+            ", type=" + type +
+            ", urlCount=" + urlCount +
+            '}';
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of web archive update jobs of a cursor based search, with the token to continue the search after the last
+ * job of the page.
+ */
+public class WebArchiveUpdateJobsPage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The jobs of this page.
+     */
+    private final List<WebArchiveUpdateJob> jobs;
+
+    /**
+     * Opaque token to get the next page, or null if this is the last page.
+     */
+    private final String continuationToken;
+
+    public WebArchiveUpdateJobsPage(final List<WebArchiveUpdateJob> jobs, final String continuationToken) {
+        this.jobs = jobs != null ? jobs : Collections.emptyList();
+        this.continuationToken = continuationToken;
+    }
+
+    public List<WebArchiveUpdateJob> getJobs() {
+        return jobs;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasNext() {
+        return continuationToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "WebArchiveUpdateJobsPage{" +
+            "jobs=" + jobs.size() +
+            ", continuationToken='" + continuationToken + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.model;
+
+import java.io.Serializable;
+
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+
+/**
+ * The outcome of a {@link WebArchiveUpdate} requested as part of a batch, see
+ * {@link org.bloomreach.forge.webarchiving.common.api.WebArchiveManager#requestUpdates(java.util.List)}.
+ */
+public class WebArchiveUpdateResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The requested web archive update.
+     */
+    private final WebArchiveUpdate update;
+
+    /**
+     * The reason the update failed, or null if it was accepted by the web archive.
+     */
+    private final WebArchiveUpdateException failure;
+
+    private WebArchiveUpdateResult(final WebArchiveUpdate update, final WebArchiveUpdateException failure) {
+        this.update = update;
+        this.failure = failure;
+    }
+
+    public static WebArchiveUpdateResult succeeded(final WebArchiveUpdate update) {
+        return new WebArchiveUpdateResult(update, null);
+    }
+
+    public static WebArchiveUpdateResult failed(final WebArchiveUpdate update, final WebArchiveUpdateException failure) {
+        return new WebArchiveUpdateResult(update, failure);
+    }
+
+    public WebArchiveUpdate getUpdate() {
+        return update;
+    }
+
+    public boolean isSucceeded() {
+        return failure == null;
+    }
+
+    public WebArchiveUpdateException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "WebArchiveUpdateResult{" +
+                "update=" + update +
+                ", failure=" + failure +
+                '}';
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.common.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Unmodifiable list of URLs that keeps the {@link UrlListCodec} encoding, optionally compressed, and only decodes the
+ * URLs when they are first accessed. Serializing the list writes the encoded form.
+ */
+public final class CompactUrlList extends AbstractList<String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String encoded;
+    private final byte[] compressed;
+    private transient List<String> urls;
+
+    private CompactUrlList(final String encoded, final byte[] compressed) {
+        this.encoded = encoded;
+        this.compressed = compressed;
+    }
+
+    public static CompactUrlList fromEncoded(final String encoded) {
+        return new CompactUrlList(encoded, null);
+    }
+
+    public static CompactUrlList fromCompressed(final byte[] compressed) {
+        return new CompactUrlList(null, compressed);
+    }
+
+    @Override
+    public String get(final int index) {
+        return getUrls().get(index);
+    }
+
+    @Override
+    public int size() {
+        return getUrls().size();
+    }
+
+    /**
+     * @return whether the URLs have been decoded
+     */
+    public boolean isDecoded() {
+        return urls != null;
+    }
+
+    private synchronized List<String> getUrls() {
+        if (urls == null) {
+            urls = UrlListCodec.decode(encoded != null ? encoded : UrlListCodec.decompress(compressed));
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact encoding of a list of URLs. URLs with the same origin (scheme and authority) share the longest common
+ * prefix, up to a path separator, of all URLs of that origin, e.g. the context path and mount of a site. The
+ * encoding stores this small dictionary of prefixes once, followed by the remaining path of every URL:
+ * <pre>
+ * number of prefixes
+ * prefix 0
+ * prefix 1
+ * prefix index TAB path
+ * ...
+ * </pre>
+ * Lines are separated by newlines; URLs cannot contain unencoded tabs or newlines. The order of the URLs, including
+ * duplicates, is preserved. For large lists the encoding can additionally be compressed with gzip.
+ */
+public final class UrlListCodec {
+
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = '\t';
+
+    private UrlListCodec() {
+    }
+
+    public static String encode(final List<String> urls) {
+        final Map<String, String> prefixesByOrigin = new LinkedHashMap<>();
+        for (String url : urls) {
+            final String origin = getOrigin(url);
+            final String prefix = prefixesByOrigin.get(origin);
+            prefixesByOrigin.put(origin, prefix == null ? getDirectory(url, origin.length()) : getCommonPrefix(prefix, url, origin.length()));
+        }
+
+        final List<String> prefixes = new ArrayList<>(prefixesByOrigin.values());
+        final Map<String, Integer> prefixIndexes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : prefixesByOrigin.entrySet()) {
+            prefixIndexes.put(entry.getKey(), prefixes.indexOf(entry.getValue()));
+        }
+
+        final StringBuilder encoded = new StringBuilder();
+        encoded.append(prefixes.size()).append(LINE_SEPARATOR);
+        for (String prefix : prefixes) {
+            encoded.append(prefix).append(LINE_SEPARATOR);
+        }
+        for (String url : urls) {
+            final int prefixIndex = prefixIndexes.get(getOrigin(url));
+            encoded.append(prefixIndex).append(FIELD_SEPARATOR).append(url, prefixes.get(prefixIndex).length(), url.length()).append(LINE_SEPARATOR);
+        }
+        return encoded.toString();
+    }
+
+    public static List<String> decode(final String encoded) {
+        final List<String> urls = new ArrayList<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return urls;
+        }
+
+        int start = 0;
+        int end = encoded.indexOf(LINE_SEPARATOR);
+        final int prefixCount = Integer.parseInt(encoded.substring(start, end));
+        final String[] prefixes = new String[prefixCount];
+        for (int i = 0; i < prefixCount; i++) {
+            start = end + 1;
+            end = encoded.indexOf(LINE_SEPARATOR, start);
+            prefixes[i] = encoded.substring(start, end);
+        }
+
+        start = end + 1;
+        while (start < encoded.length()) {
+            end = encoded.indexOf(LINE_SEPARATOR, start);
+            if (end < 0) {
+                end = encoded.length();
+            }
+            final int separator = encoded.indexOf(FIELD_SEPARATOR, start);
+            if (separator < 0 || separator > end) {
+                throw new IllegalArgumentException("Invalid encoded URL at offset " + start);
+            }
+            urls.add(prefixes[Integer.parseInt(encoded.substring(start, separator))] + encoded.substring(separator + 1, end));
+            start = end + 1;
+        }
+        return urls;
+    }
+
+    public static byte[] compress(final String encoded) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(encoded.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Error while compressing URLs", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static String decompress(final byte[] compressed) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid compressed URLs", e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the scheme and authority of {@code url}, e.g. 'https://www.example.com', or an empty string for a
+     * relative URL
+     */
+    private static String getOrigin(final String url) {
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return "";
+        }
+        final int pathStart = url.indexOf('/', schemeEnd + 3);
+        return pathStart < 0 ? url : url.substring(0, pathStart);
+    }
+
+    private static String getDirectory(final String url, final int minLength) {
+        final int lastSlash = url.lastIndexOf('/');
+        return lastSlash < minLength ? url.substring(0, minLength) : url.substring(0, lastSlash + 1);
+    }
+
+    private static String getCommonPrefix(final String prefix, final String url, final int minLength) {
+        int length = 0;
+        final int maxLength = Math.min(prefix.length(), url.length());
+        while (length < maxLength && prefix.charAt(length) == url.charAt(length)) {
+            length++;
+        }
+        if (length == prefix.length()) {
+            return prefix;
+        }
+        return getDirectory(prefix.substring(0, length), minLength);
+    }
+}
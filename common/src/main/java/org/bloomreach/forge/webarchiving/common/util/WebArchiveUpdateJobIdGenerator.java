@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Generates lexicographically sortable, time ordered job identifiers in the spirit of ULIDs: 26 Crockford base32
+ * characters made of a 48 bit millisecond timestamp, a 20 bit node component and a 60 bit sequence.
+ * <p>
+ * The node component distinguishes cluster nodes, so identifiers are unique across the cluster without checking for
+ * existing ones. Within a JVM identifiers are strictly increasing: within the same millisecond (or when the clock
+ * moves backwards) the sequence is incremented, otherwise it starts at a random value.
+ */
+public class WebArchiveUpdateJobIdGenerator {
+
+    /**
+     * System property holding the cluster node id of the repository.
+     */
+    public static final String CLUSTER_NODE_ID_SYSTEM_PROPERTY = "org.apache.jackrabbit.core.cluster.node_id";
+
+    public static final int ID_LENGTH = 26;
+
+    private static final char[] ENCODING = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int TIMESTAMP_LENGTH = 10;
+    private static final int NODE_LENGTH = 4;
+    private static final int SEQUENCE_LENGTH = 12;
+    private static final long NODE_MASK = (1L << 20) - 1;
+    private static final long SEQUENCE_MASK = (1L << 60) - 1;
+    /** new sequences start in the lower half of the range, leaving room for increments within a millisecond */
+    private static final long SEQUENCE_START_MASK = (1L << 59) - 1;
+
+    private static final WebArchiveUpdateJobIdGenerator INSTANCE = new WebArchiveUpdateJobIdGenerator(getClusterNodeId());
+
+    private final long node;
+    private final Random random = new SecureRandom();
+    private long lastTimestamp = -1L;
+    private long sequence;
+
+    public WebArchiveUpdateJobIdGenerator(final String nodeId) {
+        this.node = isBlank(nodeId) ? random.nextInt() & NODE_MASK : nodeId.hashCode() & NODE_MASK;
+    }
+
+    /**
+     * @return the JVM wide generator, with the cluster node id as node component
+     */
+    public static WebArchiveUpdateJobIdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    public String nextId() {
+        return nextId(System.currentTimeMillis());
+    }
+
+    synchronized String nextId(final long currentTimeMillis) {
+        if (currentTimeMillis > lastTimestamp) {
+            lastTimestamp = currentTimeMillis;
+            sequence = random.nextLong() & SEQUENCE_START_MASK;
+        } else {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // sequence exhausted within one millisecond, borrow the next one
+                lastTimestamp++;
+            }
+        }
+
+        final char[] id = new char[ID_LENGTH];
+        encode(lastTimestamp, id, 0, TIMESTAMP_LENGTH);
+        encode(node, id, TIMESTAMP_LENGTH, NODE_LENGTH);
+        encode(sequence, id, TIMESTAMP_LENGTH + NODE_LENGTH, SEQUENCE_LENGTH);
+        return new String(id);
+    }
+
+    /**
+     * Continue as if the last identifier was generated at {@code timestamp} with {@code sequence}, e.g. to test the
+     * rollover of the sequence.
+     */
+    synchronized void continueFrom(final long timestamp, final long sequence) {
+        this.lastTimestamp = timestamp;
+        this.sequence = sequence & SEQUENCE_MASK;
+    }
+
+    /**
+     * Check whether {@code id} has the format of a generated identifier.
+     */
+    public static boolean isValid(final String id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < ID_LENGTH; i++) {
+            if (decode(id.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the creation time in milliseconds of a generated identifier.
+     *
+     * @throws IllegalArgumentException if {@code id} is not a generated identifier
+     */
+    public static long getTimestamp(final String id) {
+        if (!isValid(id)) {
+            throw new IllegalArgumentException("Not a generated identifier: " + id);
+        }
+        long timestamp = 0;
+        for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+            timestamp = (timestamp << 5) | decode(id.charAt(i));
+        }
+        return timestamp;
+    }
+
+    private static void encode(long value, final char[] target, final int offset, final int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            target[i] = ENCODING[(int) (value & 0x1F)];
+            value >>>= 5;
+        }
+    }
+
+    private static int decode(final char c) {
+        for (int i = 0; i < ENCODING.length; i++) {
+            if (ENCODING[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the identifier of the cluster node this JVM runs, which is the configured repository cluster node id or,
+     * if absent, the host name.
+     *
+     * @return the cluster node identifier, or null if it cannot be determined
+     */
+    public static String getClusterNodeId() {
+        final String clusterNodeId = System.getProperty(CLUSTER_NODE_ID_SYSTEM_PROPERTY);
+        if (!isBlank(clusterNodeId)) {
+            return clusterNodeId;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
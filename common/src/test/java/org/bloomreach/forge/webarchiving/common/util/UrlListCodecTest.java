@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UrlListCodecTest {
+
+    private static final List<String> SITE_URLS = Arrays.asList(
+            "https://www.example.com/site/news/2018/first.html",
+            "https://www.example.com/site/news/2018/second.html",
+            "https://www.example.com/site/about");
+
+    @Test
+    public void urlsOfOneOriginShareTheirCommonDirectory() {
+        final String encoded = UrlListCodec.encode(SITE_URLS);
+        assertTrue(encoded, encoded.startsWith("1\nhttps://www.example.com/site/\n0\tnews/2018/first.html\n"));
+        assertEquals(SITE_URLS, UrlListCodec.decode(encoded));
+    }
+
+    @Test
+    public void dictionaryHoldsAPrefixPerOrigin() {
+        final List<String> urls = Arrays.asList(
+                "https://www.example.com/site/news/first.html",
+                "http://intranet.example.com/news/first.html",
+                "https://www.example.com/site/news/first.html",
+                "https://www.example.com/site/events/",
+                "http://intranet.example.com/news/second.html");
+        final String encoded = UrlListCodec.encode(urls);
+        assertTrue(encoded, encoded.startsWith("2\nhttps://www.example.com/site/\nhttp://intranet.example.com/news/\n"));
+        assertEquals(urls, UrlListCodec.decode(encoded));
+    }
+
+    @Test
+    public void plainUrlsWithoutCommonPrefixRoundTrip() {
+        final List<String> urls = Arrays.asList(
+                "/news/first.html",
+                "relative/page",
+                "https://www.example.com",
+                "https://www.example.com/",
+                "https://other.example.com/page?query=a/b#fragment",
+                "");
+        assertEquals(urls, UrlListCodec.decode(UrlListCodec.encode(urls)));
+    }
+
+    @Test
+    public void emptyListRoundTrips() {
+        assertEquals("0\n", UrlListCodec.encode(Collections.emptyList()));
+        assertTrue(UrlListCodec.decode("0\n").isEmpty());
+    }
+
+    @Test
+    public void missingValuesDecodeToNoUrls() {
+        assertTrue(UrlListCodec.decode(null).isEmpty());
+        assertTrue(UrlListCodec.decode("").isEmpty());
+    }
+
+    @Test
+    public void lastLineWithoutNewlineIsDecoded() {
+        assertEquals(Arrays.asList("https://www.example.com/a", "https://www.example.com/b"),
+                UrlListCodec.decode("1\nhttps://www.example.com/\n0\ta\n0\tb"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lineWithoutPrefixIndexIsRejected() {
+        UrlListCodec.decode("1\nhttps://www.example.com/\nhttps://www.example.com/a\n");
+    }
+
+    @Test
+    public void compressedEncodingRoundTrips() {
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            urls.add("https://www.example.com/site/news/2018/article-" + i + ".html");
+        }
+        final String encoded = UrlListCodec.encode(urls);
+        final byte[] compressed = UrlListCodec.compress(encoded);
+        assertTrue(compressed.length < encoded.length() / 4);
+        assertEquals(encoded, UrlListCodec.decompress(compressed));
+        assertEquals(urls, UrlListCodec.decode(UrlListCodec.decompress(compressed)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCompressedUrlsAreRejected() {
+        UrlListCodec.decompress(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void compactListDecodesOnFirstAccess() {
+        final CompactUrlList encoded = CompactUrlList.fromEncoded(UrlListCodec.encode(SITE_URLS));
+        assertFalse(encoded.isDecoded());
+        assertEquals(SITE_URLS.size(), encoded.size());
+        assertTrue(encoded.isDecoded());
+        assertEquals(SITE_URLS, encoded);
+
+        final CompactUrlList compressed = CompactUrlList.fromCompressed(UrlListCodec.compress(UrlListCodec.encode(SITE_URLS)));
+        assertEquals(SITE_URLS.get(2), compressed.get(2));
+        assertEquals(SITE_URLS, compressed);
+    }
+
+    @Test
+    public void compactListSerializesTheEncodedForm() throws IOException, ClassNotFoundException {
+        final CompactUrlList urls = CompactUrlList.fromEncoded(UrlListCodec.encode(SITE_URLS));
+        assertEquals(SITE_URLS, urls);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(urls);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final CompactUrlList copy = (CompactUrlList) in.readObject();
+            assertFalse(copy.isDecoded());
+            assertEquals(SITE_URLS, copy);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.common.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WebArchiveUpdateJobIdGeneratorTest {
+
+    private static final long SEQUENCE_MASK = (1L << 60) - 1;
+
+    private final WebArchiveUpdateJobIdGenerator generator = new WebArchiveUpdateJobIdGenerator("node-1");
+
+    @Test
+    public void idsAreIncreasingWithinAMillisecond() {
+        String previous = generator.nextId(1000L);
+        for (int i = 0; i < 10000; i++) {
+            final String id = generator.nextId(1000L);
+            assertTrue(id + " should sort after " + previous, id.compareTo(previous) > 0);
+            assertEquals(1000L, WebArchiveUpdateJobIdGenerator.getTimestamp(id));
+            previous = id;
+        }
+    }
+
+    @Test
+    public void idsSortByTimestamp() {
+        final String first = generator.nextId(1000L);
+        final String second = generator.nextId(1001L);
+        assertTrue(second.compareTo(first) > 0);
+        assertEquals(1001L, WebArchiveUpdateJobIdGenerator.getTimestamp(second));
+    }
+
+    @Test
+    public void idsAreIncreasingWhenTheClockMovesBackwards() {
+        final String first = generator.nextId(2000L);
+        final String second = generator.nextId(1000L);
+        assertTrue(second.compareTo(first) > 0);
+        assertEquals(2000L, WebArchiveUpdateJobIdGenerator.getTimestamp(second));
+    }
+
+    @Test
+    public void exhaustedSequenceBorrowsTheNextMillisecond() {
+        generator.continueFrom(1000L, SEQUENCE_MASK - 1);
+        final String last = generator.nextId(1000L);
+        assertEquals(1000L, WebArchiveUpdateJobIdGenerator.getTimestamp(last));
+
+        final String rolledOver = generator.nextId(1000L);
+        assertTrue(rolledOver.compareTo(last) > 0);
+        assertEquals(1001L, WebArchiveUpdateJobIdGenerator.getTimestamp(rolledOver));
+        assertTrue(rolledOver.endsWith("000000000000"));
+
+        // the borrowed millisecond continues its sequence when the clock catches up
+        final String next = generator.nextId(1001L);
+        assertTrue(next.compareTo(rolledOver) > 0);
+        assertEquals(1001L, WebArchiveUpdateJobIdGenerator.getTimestamp(next));
+    }
+
+    @Test
+    public void nodeComponentDistinguishesClusterNodes() {
+        final String id = generator.nextId(1000L);
+        final String sameNode = new WebArchiveUpdateJobIdGenerator("node-1").nextId(1000L);
+        final String otherNode = new WebArchiveUpdateJobIdGenerator("node-2").nextId(1000L);
+        assertEquals(id.substring(10, 14), sameNode.substring(10, 14));
+        assertNotEquals(id.substring(10, 14), otherNode.substring(10, 14));
+    }
+
+    @Test
+    public void validatesTheFormat() {
+        final String id = generator.nextId();
+        assertEquals(WebArchiveUpdateJobIdGenerator.ID_LENGTH, id.length());
+        assertTrue(WebArchiveUpdateJobIdGenerator.isValid(id));
+        assertFalse(WebArchiveUpdateJobIdGenerator.isValid(null));
+        assertFalse(WebArchiveUpdateJobIdGenerator.isValid(id.substring(1)));
+        assertFalse(WebArchiveUpdateJobIdGenerator.isValid("I" + id.substring(1)));
+        assertFalse(WebArchiveUpdateJobIdGenerator.isValid("e3c1b2a0-7f4e-4a8e-9a55-0c1d2e3f4a5b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timestampOfAnInvalidIdIsRejected() {
+        WebArchiveUpdateJobIdGenerator.getTimestamp("not-an-id");
+    }
+}
@@ -87,7 +87,7 @@ public class ChannelPublicationEventListener {
             .setWebArchiveUpdate(webArchiveUpdate)
             .build();
         try {
-            webArchiveUpdateJobsManager.createWebArchiveUpdateJob(job);
+            webArchiveUpdateJobsManager.createOrMergeWebArchiveUpdateJob(job);
         } catch (WebArchiveUpdateException e) {
             log.error("Failed to create Web Archive update job {}", job);
         }
@@ -0,0 +1,899 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
+import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.UncheckedWebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.bloomreach.forge.webarchiving.common.util.WebArchiveUpdateJobIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates jobs manager that stores the jobs in an append-only log on the local file system, see
+ * {@link SegmentedJobLog}. Every change of a job appends the whole job to the log, laid out by {@link JobRecordFormat};
+ * the latest record of a job wins.
+ * The location, status and dates of every job are indexed in memory, so that searches and claims only read the
+ * records of the jobs they return. Per status, the jobs are kept ordered by creation date and by last modification
+ * date, so that claims, pages and purges seek to the jobs they need instead of sorting all jobs. The index is
+ * rebuilt from the log on startup.
+ * <p>
+ * Superseded and deleted records are reclaimed by a periodic compaction, which rewrites the live records of the
+ * sealed segments once the fraction of garbage in them exceeds the compaction threshold.
+ * <p>
+ * The store is local to the cluster node: in a cluster every node processes the jobs created on that node only.
+ */
+public class FileWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManager, PlatformManaged, Discoverable {
+
+    private static Logger log = LoggerFactory.getLogger(FileWebArchiveUpdateJobsManager.class);
+
+    protected static final String CONFIG_PROP_STORE_DIRECTORY = "storeDirectory";
+    protected static final String CONFIG_PROP_SEGMENT_SIZE = "segmentSize";
+    protected static final String CONFIG_PROP_SYNC_ON_WRITE = "syncOnWrite";
+    protected static final String CONFIG_PROP_COMPACTION_INTERVAL = "compactionInterval";
+    protected static final String CONFIG_PROP_COMPACTION_THRESHOLD = "compactionThreshold";
+    protected static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    protected static final long MIN_SEGMENT_SIZE = 1024L * 1024;
+    protected static final long MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+    protected static final long DEFAULT_COMPACTION_INTERVAL = 300L;
+    protected static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    protected static final String DEFAULT_STORE_DIRECTORY_NAME = "web-archiving-updates";
+
+    protected static final String JOB_ID_PREFIX = "job_";
+    private static final String ORDER_BY_CREATED = "created";
+
+    /**
+     * Indexed state of a stored job.
+     */
+    private static final class IndexEntry {
+        final String id;
+        final WebArchiveUpdateJobStatus status;
+        final long created;
+        final long lastModified;
+        final long leaseExpiration;
+        final long nextAttempt;
+        final String updateKey;
+        SegmentedJobLog.Location location;
+
+        IndexEntry(final WebArchiveUpdateJob job, final SegmentedJobLog.Location location) {
+            this.id = job.getId();
+            this.status = job.getStatus() != null ? job.getStatus() : WebArchiveUpdateJobStatus.UNDEFINED;
+            this.created = job.getCreated() != null ? job.getCreated().getTimeInMillis() : 0L;
+            this.lastModified = job.getLastModified() != null ? job.getLastModified().getTimeInMillis() : created;
+            this.leaseExpiration = job.getLeaseExpiration() != null ? job.getLeaseExpiration().getTimeInMillis() : 0L;
+            this.nextAttempt = job.getNextAttemptAt() != null ? job.getNextAttemptAt().getTimeInMillis() : 0L;
+            this.updateKey = getUpdateKey(job.getWebArchiveUpdate());
+            this.location = location;
+        }
+
+        /**
+         * A key to seek to in the ordered entries.
+         */
+        private IndexEntry(final String id, final long created, final long lastModified) {
+            this.id = id;
+            this.status = null;
+            this.created = created;
+            this.lastModified = lastModified;
+            this.leaseExpiration = 0L;
+            this.nextAttempt = 0L;
+            this.updateKey = null;
+        }
+    }
+
+    /**
+     * Iterates over the entries of iterators in the same order as if they were merged.
+     */
+    private static final class MergingIterator implements Iterator<IndexEntry> {
+        private final List<Iterator<IndexEntry>> iterators;
+        private final IndexEntry[] heads;
+        private final Comparator<IndexEntry> order;
+
+        MergingIterator(final List<Iterator<IndexEntry>> iterators, final Comparator<IndexEntry> order) {
+            this.iterators = iterators;
+            this.heads = new IndexEntry[iterators.size()];
+            this.order = order;
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = iterators.get(i).hasNext() ? iterators.get(i).next() : null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (IndexEntry head : heads) {
+                if (head != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public IndexEntry next() {
+            int first = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] != null && (first < 0 || order.compare(heads[i], heads[first]) < 0)) {
+                    first = i;
+                }
+            }
+            if (first < 0) {
+                throw new NoSuchElementException();
+            }
+            final IndexEntry next = heads[first];
+            heads[first] = iterators.get(first).hasNext() ? iterators.get(first).next() : null;
+            return next;
+        }
+    }
+
+    private static final Comparator<IndexEntry> CREATED_ORDER = Comparator.<IndexEntry>comparingLong(entry -> entry.created)
+            .thenComparing(entry -> entry.id);
+    private static final Comparator<IndexEntry> KEYSET_ORDER = Comparator.<IndexEntry>comparingLong(entry -> entry.lastModified)
+            .thenComparing(entry -> entry.id);
+    private static final List<WebArchiveUpdateJobStatus> CLAIMABLE_STATUSES = Arrays.asList(WebArchiveUpdateJobStatus.QUEUED,
+            WebArchiveUpdateJobStatus.ABORTED, WebArchiveUpdateJobStatus.SUBMITTED);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexEntry> index = new HashMap<>();
+    private final Map<WebArchiveUpdateJobStatus, NavigableSet<IndexEntry>> entriesByCreated = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+    private final Map<WebArchiveUpdateJobStatus, NavigableSet<IndexEntry>> entriesByLastModified = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+    private final Map<String, String> queuedJobIdsByUpdateKey = new HashMap<>();
+    private final WebArchiveUpdateJobIdGenerator idGenerator = WebArchiveUpdateJobIdGenerator.getInstance();
+    private final String ownerId = isBlank(WebArchiveUpdateJobIdGenerator.getClusterNodeId())
+            ? "unknown" : WebArchiveUpdateJobIdGenerator.getClusterNodeId();
+
+    protected Path storeDirectory;
+    protected long segmentSize = DEFAULT_SEGMENT_SIZE;
+    protected boolean syncOnWrite = true;
+    protected long compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+    protected double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private SegmentedJobLog jobLog;
+    private ScheduledExecutorService compactionExecutor;
+
+    public FileWebArchiveUpdateJobsManager() {
+        for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+            entriesByCreated.put(status, new TreeSet<>(CREATED_ORDER));
+            entriesByLastModified.put(status, new TreeSet<>(KEYSET_ORDER));
+        }
+    }
+
+    @Override
+    public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
+        destroy();
+
+        final String directory = props.get(CONFIG_PROP_STORE_DIRECTORY);
+        storeDirectory = isBlank(directory)
+                ? Paths.get(System.getProperty("repo.path", System.getProperty("java.io.tmpdir")), DEFAULT_STORE_DIRECTORY_NAME)
+                : Paths.get(directory.trim());
+        // sealed segments are memory mapped, which limits their size to 2GB
+        segmentSize = Math.min(MAX_SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, parseNumber(props.get(CONFIG_PROP_SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE)));
+        syncOnWrite = isBlank(props.get(CONFIG_PROP_SYNC_ON_WRITE)) || Boolean.parseBoolean(props.get(CONFIG_PROP_SYNC_ON_WRITE).trim());
+        compactionInterval = parseNumber(props.get(CONFIG_PROP_COMPACTION_INTERVAL), DEFAULT_COMPACTION_INTERVAL);
+        final String threshold = props.get(CONFIG_PROP_COMPACTION_THRESHOLD);
+        try {
+            compactionThreshold = isBlank(threshold) ? DEFAULT_COMPACTION_THRESHOLD : Double.parseDouble(threshold.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", threshold, DEFAULT_COMPACTION_THRESHOLD);
+            compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        }
+
+        lock.writeLock().lock();
+        try {
+            clearIndex();
+            jobLog = new SegmentedJobLog(storeDirectory, segmentSize);
+            jobLog.open(new SegmentedJobLog.RecordHandler() {
+                @Override
+                public void onPut(final String id, final byte[] payload, final SegmentedJobLog.Location location) throws IOException {
+                    final IndexEntry previous = indexJob(JobRecordFormat.read(payload), location);
+                    if (previous != null) {
+                        jobLog.release(previous.location);
+                    }
+                }
+
+                @Override
+                public void onDelete(final String id, final SegmentedJobLog.Location location) {
+                    final IndexEntry entry = unindexJob(id);
+                    if (entry != null) {
+                        jobLog.release(entry.location);
+                    }
+                }
+            });
+            log.info("Opened updates store {} with {} jobs in {} segments of {} bytes", storeDirectory, index.size(),
+                    jobLog.getSegmentCount(), jobLog.getSize());
+        } catch (IOException e) {
+            closeJobLog();
+            throw new WebArchiveUpdateException(e, "Error while opening updates store {}", storeDirectory);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (compactionInterval > 0) {
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "web-archiving-updates-store-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactionExecutor.scheduleWithFixedDelay(this::compactIfNeeded, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        log.debug("Destroying {}", this.getClass().getName());
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+            compactionExecutor = null;
+        }
+        lock.writeLock().lock();
+        try {
+            closeJobLog();
+            clearIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        return createWebArchiveUpdateJobs(Arrays.asList(webArchiveUpdateJob)).get(0);
+    }
+
+    /**
+     * Append all jobs to the log and force them to disk at once.
+     */
+    @Override
+    public List<String> createWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (webArchiveUpdateJob.getWebArchiveUpdate() == null) {
+                throw new WebArchiveUpdateException("Job does not contain an update {}", webArchiveUpdateJob);
+            }
+        }
+
+        final List<String> updateJobIds = new ArrayList<>(webArchiveUpdateJobs.size());
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                final Calendar now = Calendar.getInstance();
+                if (webArchiveUpdateJob.getCreated() == null) {
+                    webArchiveUpdateJob.setCreated(now);
+                }
+                if (webArchiveUpdateJob.getLastModified() == null) {
+                    webArchiveUpdateJob.setLastModified(now);
+                }
+                if (webArchiveUpdateJob.getStatus() == null) {
+                    webArchiveUpdateJob.setStatus(WebArchiveUpdateJobStatus.QUEUED);
+                }
+                final WebArchiveUpdate webArchiveUpdate = webArchiveUpdateJob.getWebArchiveUpdate();
+                if (webArchiveUpdate.getId() == null) {
+                    webArchiveUpdate.setId(idGenerator.nextId());
+                }
+                webArchiveUpdateJob.setId(JOB_ID_PREFIX + idGenerator.nextId());
+
+                write(webArchiveUpdateJob);
+                updateJobIds.add(webArchiveUpdateJob.getId());
+            }
+            sync();
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while creating a batch of {} jobs, {} jobs have been written",
+                    webArchiveUpdateJobs.size(), updateJobIds.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return updateJobIds;
+    }
+
+    /**
+     * Queued jobs are indexed by update identifier and type, the merge is atomic under the write lock.
+     */
+    @Override
+    public String createOrMergeWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        final String updateKey = getUpdateKey(webArchiveUpdateJob.getWebArchiveUpdate());
+        if (updateKey == null) {
+            return createWebArchiveUpdateJob(webArchiveUpdateJob);
+        }
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            final String queuedJobId = queuedJobIdsByUpdateKey.get(updateKey);
+            if (queuedJobId == null) {
+                return createWebArchiveUpdateJob(webArchiveUpdateJob);
+            }
+
+            final WebArchiveUpdateJob queuedJob = read(index.get(queuedJobId));
+            queuedJob.getWebArchiveUpdate().merge(webArchiveUpdateJob.getWebArchiveUpdate());
+            queuedJob.setLastModified(Calendar.getInstance());
+            write(queuedJob);
+            sync();
+
+            webArchiveUpdateJob.setId(queuedJob.getId());
+            log.debug("Merged update {} into queued job {}", updateKey, queuedJobId);
+            return queuedJobId;
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while merging job {}", webArchiveUpdateJob);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) throws WebArchiveUpdateException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            final IndexEntry entry = index.get(webArchiveUpdateJobId);
+            if (entry == null) {
+                throw new WebArchiveUpdateException("No job with identifier {}", webArchiveUpdateJobId);
+            }
+            return read(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        if (isBlank(webArchiveUpdateJob.getId())) {
+            throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
+        }
+        if (!webArchiveUpdateJob.isDirty()) {
+            log.debug("Job {} has not changed, skipping update", webArchiveUpdateJob.getId());
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (!index.containsKey(webArchiveUpdateJob.getId())) {
+                throw new WebArchiveUpdateException("No job with identifier {}", webArchiveUpdateJob.getId());
+            }
+            write(webArchiveUpdateJob);
+            sync();
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while updating job {}", webArchiveUpdateJob);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append all changed jobs to the log and force them to disk at once.
+     */
+    @Override
+    public void updateWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                if (isBlank(webArchiveUpdateJob.getId()) || !index.containsKey(webArchiveUpdateJob.getId())) {
+                    throw new WebArchiveUpdateException("No job with identifier {}", webArchiveUpdateJob.getId());
+                }
+            }
+            boolean written = false;
+            for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                if (webArchiveUpdateJob.isDirty()) {
+                    write(webArchiveUpdateJob);
+                    written = true;
+                }
+            }
+            if (written) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while updating a batch of {} jobs", webArchiveUpdateJobs.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Claims are atomic as they are made under the write lock of the store, which is local to this cluster node. The
+     * oldest claimable jobs of every claimable status are merged, skipping the jobs that are not due and the submitted
+     * jobs of which the lease has not expired.
+     */
+    @Override
+    public List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> claimedJobs = new ArrayList<>();
+        if (max <= 0) {
+            return claimedJobs;
+        }
+
+        final Calendar now = Calendar.getInstance();
+        final Calendar leaseExpiration = Calendar.getInstance();
+        leaseExpiration.setTimeInMillis(now.getTimeInMillis() + lease.toMillis());
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            final List<IndexEntry> claimable = new ArrayList<>();
+            for (WebArchiveUpdateJobStatus status : CLAIMABLE_STATUSES) {
+                int found = 0;
+                for (Iterator<IndexEntry> entries = entriesByCreated.get(status).iterator(); entries.hasNext() && found < max; ) {
+                    final IndexEntry entry = entries.next();
+                    if (isClaimable(entry, now.getTimeInMillis())) {
+                        claimable.add(entry);
+                        found++;
+                    }
+                }
+            }
+            claimable.sort(CREATED_ORDER);
+
+            for (IndexEntry entry : claimable.subList(0, Math.min(max, claimable.size()))) {
+                final WebArchiveUpdateJob job = read(entry);
+                job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+                job.setLastModified(now);
+                job.setOwner(ownerId);
+                job.setLeaseExpiration(leaseExpiration);
+                write(job);
+                claimedJobs.add(job);
+            }
+            if (!claimedJobs.isEmpty()) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while claiming {} jobs, {} jobs have been claimed", max, claimedJobs.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Claimed {} jobs", claimedJobs.size());
+        return claimedJobs;
+    }
+
+    private static boolean isClaimable(final IndexEntry entry, final long now) {
+        if (entry.nextAttempt > now) {
+            return false;
+        }
+        return entry.status == WebArchiveUpdateJobStatus.QUEUED
+                || entry.status == WebArchiveUpdateJobStatus.ABORTED
+                || (entry.status == WebArchiveUpdateJobStatus.SUBMITTED && entry.leaseExpiration <= now);
+    }
+
+    @Override
+    public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        int deleted = 0;
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                final IndexEntry entry = unindexJob(webArchiveUpdateJob.getId());
+                if (entry == null) {
+                    log.debug("Job {} to delete does not exist", webArchiveUpdateJob.getId());
+                    continue;
+                }
+                jobLog.append(SegmentedJobLog.TYPE_DELETE, entry.id, new byte[0]);
+                jobLog.release(entry.location);
+                deleted++;
+            }
+            sync();
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while deleting {} jobs, {} jobs have been deleted", webArchiveUpdateJobs.length, deleted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Deleted {} jobs", deleted);
+    }
+
+    /**
+     * Expired jobs are the head of the jobs of every status ordered by creation date, so no job is read. Deletion
+     * records are cheap to append, so all expired jobs are purged at once.
+     */
+    @Override
+    public long purgeOlderThan(final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        final long threshold = olderThan.getTimeInMillis();
+        int purged = 0;
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            final IndexEntry createdBefore = new IndexEntry("", threshold, 0L);
+            final List<String> expiredIds = new ArrayList<>();
+            for (WebArchiveUpdateJobStatus status : getStatusSet(statuses)) {
+                entriesByCreated.get(status).headSet(createdBefore, false).forEach(entry -> expiredIds.add(entry.id));
+            }
+            for (String id : expiredIds) {
+                final IndexEntry entry = unindexJob(id);
+                jobLog.append(SegmentedJobLog.TYPE_DELETE, entry.id, new byte[0]);
+                jobLog.release(entry.location);
+                purged++;
+            }
+            if (purged > 0) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while purging jobs created before {}, {} jobs have been purged", olderThan.getTime(), purged);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (purged > 0) {
+            log.info("Purged {} web archive update jobs created before {}", purged, olderThan.getTime());
+        }
+        return purged;
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                   final int offset, final int limit, final String orderByPropertyHint,
+                                                                   final boolean ascending) throws WebArchiveUpdateException {
+        final boolean byCreated = ORDER_BY_CREATED.equalsIgnoreCase(getAttributeName(orderByPropertyHint)) || isBlank(orderByPropertyHint);
+
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return search(statuses, searchFilters, byCreated ? entriesByCreated : entriesByLastModified, byCreated ? CREATED_ORDER : KEYSET_ORDER,
+                    ascending, null)
+                    .skip(Math.max(0, offset))
+                    .limit(Math.max(0, limit))
+                    .collect(Collectors.toList());
+        } catch (UncheckedWebArchiveUpdateException e) {
+            throw e.getCause();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                                 final Map<String, String> searchFilters, final int offset,
+                                                                                 final int limit, final String orderByPropertyHint,
+                                                                                 final boolean ascending) throws WebArchiveUpdateException {
+        return searchForWebArchiveUpdateJobs(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending).stream()
+                .map(WebArchiveUpdateJobSummary::new)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Keyset paging on (last modification date, identifier); the token holds the key of the last job of the page.
+     */
+    @Override
+    public WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final String continuationToken, final int limit) throws WebArchiveUpdateException {
+        final IndexEntry after = decodeContinuationToken(continuationToken);
+
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            final List<WebArchiveUpdateJob> jobs = search(statuses, searchFilters, entriesByLastModified, KEYSET_ORDER, true, after)
+                    .limit(Math.max(0, limit))
+                    .collect(Collectors.toList());
+            if (jobs.isEmpty() || jobs.size() < limit) {
+                return new WebArchiveUpdateJobsPage(jobs, null);
+            }
+            final WebArchiveUpdateJob lastJob = jobs.get(jobs.size() - 1);
+            return new WebArchiveUpdateJobsPage(jobs, encodeContinuationToken(index.get(lastJob.getId())));
+        } catch (UncheckedWebArchiveUpdateException e) {
+            throw e.getCause();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called with (at least) the read lock held. The ordered entries of the statuses are merged, starting
+     * after {@code after} if not null. Jobs are read lazily, i.e. only the jobs needed to evaluate the filters and the
+     * ones returned are read from the log.
+     *
+     * @param partitions the entries per status in {@code order}
+     */
+    private Stream<WebArchiveUpdateJob> search(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                               final Map<WebArchiveUpdateJobStatus, NavigableSet<IndexEntry>> partitions,
+                                               final Comparator<IndexEntry> order, final boolean ascending, final IndexEntry after) {
+        final List<Iterator<IndexEntry>> iterators = new ArrayList<>();
+        for (WebArchiveUpdateJobStatus status : getStatusSet(statuses)) {
+            NavigableSet<IndexEntry> entries = partitions.get(status);
+            if (after != null) {
+                entries = entries.tailSet(after, false);
+            }
+            if (!entries.isEmpty()) {
+                iterators.add(ascending ? entries.iterator() : entries.descendingIterator());
+            }
+        }
+        final Iterator<IndexEntry> entries = iterators.size() == 1
+                ? iterators.get(0) : new MergingIterator(iterators, ascending ? order : order.reversed());
+
+        Stream<WebArchiveUpdateJob> jobs = StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .map(this::readUnchecked);
+        if (searchFilters != null && !searchFilters.isEmpty()) {
+            jobs = jobs.filter(job -> matches(job, searchFilters));
+        }
+        return jobs;
+    }
+
+    private static Set<WebArchiveUpdateJobStatus> getStatusSet(final List<WebArchiveUpdateJobStatus> statuses) {
+        return statuses == null || statuses.isEmpty() ? EnumSet.allOf(WebArchiveUpdateJobStatus.class) : EnumSet.copyOf(statuses);
+    }
+
+    private static boolean matches(final WebArchiveUpdateJob job, final Map<String, String> searchFilters) {
+        for (Map.Entry<String, String> filter : searchFilters.entrySet()) {
+            final WebArchiveUpdate update = job.getWebArchiveUpdate();
+            final Object value;
+            switch (getAttributeName(filter.getKey())) {
+                case "id":
+                    value = job.getId();
+                    break;
+                case "status":
+                    value = job.getStatus() != null ? job.getStatus().name() : null;
+                    break;
+                case "owner":
+                    value = job.getOwner();
+                    break;
+                case "attempt":
+                    value = job.getAttempt();
+                    break;
+                case "creator":
+                    value = update != null ? update.getCreator() : null;
+                    break;
+                case "type":
+                    value = update != null && update.getType() != null ? update.getType().name() : null;
+                    break;
+                default:
+                    log.debug("Unsupported search filter '{}'", filter.getKey());
+                    return false;
+            }
+            if (value == null || !String.valueOf(value).equals(filter.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the attribute name without namespace prefix in lower case, e.g. 'lastmodified' for
+     * 'webarchivingaddon:lastModified'
+     */
+    private static String getAttributeName(final String attrName) {
+        if (attrName == null) {
+            return "";
+        }
+        return attrName.substring(attrName.indexOf(':') + 1).toLowerCase();
+    }
+
+    /**
+     * The counts are the sizes of the entries per status, so they are exact.
+     */
+    @Override
+    public Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        final Map<WebArchiveUpdateJobStatus, Long> counts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+                counts.put(status, (long) entriesByCreated.get(status).size());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Compact the log if the fraction of garbage in the sealed segments exceeds the compaction threshold.
+     */
+    protected void compactIfNeeded() {
+        lock.writeLock().lock();
+        try {
+            if (jobLog == null) {
+                return;
+            }
+            final double garbageRatio = jobLog.getGarbageRatio();
+            if (garbageRatio < compactionThreshold) {
+                log.debug("Not compacting updates store, garbage ratio {} is below threshold {}", garbageRatio, compactionThreshold);
+                return;
+            }
+
+            final long start = System.currentTimeMillis();
+            final long reclaimed = jobLog.compact(
+                    (id, location) -> {
+                        final IndexEntry entry = index.get(id);
+                        return entry != null && location.equals(entry.location);
+                    },
+                    (id, from, to) -> {
+                        final IndexEntry entry = index.get(id);
+                        if (entry != null && from.equals(entry.location)) {
+                            entry.location = to;
+                        }
+                    });
+            log.info("Compacted updates store in {} ms, reclaimed {} bytes, garbage ratio was {}", System.currentTimeMillis() - start,
+                    reclaimed, garbageRatio);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while compacting updates store {}", storeDirectory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called with the write lock held. Records always hold the complete job, so the job is written as a whole
+     * and is clean afterwards.
+     */
+    private void write(final WebArchiveUpdateJob job) throws IOException {
+        final SegmentedJobLog.Location location = jobLog.append(SegmentedJobLog.TYPE_PUT, job.getId(), JobRecordFormat.write(job));
+        final IndexEntry previous = indexJob(job, location);
+        if (previous != null) {
+            jobLog.release(previous.location);
+        }
+        job.clearDirty();
+    }
+
+    /**
+     * @return the entry of the previous version of the job, if any
+     */
+    private IndexEntry indexJob(final WebArchiveUpdateJob job, final SegmentedJobLog.Location location) {
+        final IndexEntry entry = new IndexEntry(job, location);
+        final IndexEntry previous = index.put(job.getId(), entry);
+        if (previous != null) {
+            unindexStatus(previous);
+            unindexQueued(previous);
+        }
+        entriesByCreated.get(entry.status).add(entry);
+        entriesByLastModified.get(entry.status).add(entry);
+        if (entry.status == WebArchiveUpdateJobStatus.QUEUED && entry.updateKey != null) {
+            queuedJobIdsByUpdateKey.put(entry.updateKey, entry.id);
+        }
+        return previous;
+    }
+
+    private IndexEntry unindexJob(final String id) {
+        final IndexEntry entry = index.remove(id);
+        if (entry != null) {
+            unindexStatus(entry);
+            unindexQueued(entry);
+        }
+        return entry;
+    }
+
+    private void unindexStatus(final IndexEntry entry) {
+        entriesByCreated.get(entry.status).remove(entry);
+        entriesByLastModified.get(entry.status).remove(entry);
+    }
+
+    private void unindexQueued(final IndexEntry entry) {
+        if (entry.updateKey != null) {
+            queuedJobIdsByUpdateKey.remove(entry.updateKey, entry.id);
+        }
+    }
+
+    private static String getUpdateKey(final WebArchiveUpdate update) {
+        if (update == null || isBlank(update.getId())) {
+            return null;
+        }
+        return (update.getType() != null ? update.getType().name() : "") + ":" + update.getId();
+    }
+
+    private void clearIndex() {
+        index.clear();
+        entriesByCreated.values().forEach(Set::clear);
+        entriesByLastModified.values().forEach(Set::clear);
+        queuedJobIdsByUpdateKey.clear();
+    }
+
+    private void sync() throws IOException {
+        if (syncOnWrite) {
+            jobLog.sync();
+        }
+    }
+
+    private WebArchiveUpdateJob read(final IndexEntry entry) throws WebArchiveUpdateException {
+        try {
+            return JobRecordFormat.read(jobLog.read(entry.location));
+        } catch (IOException e) {
+            throw new WebArchiveUpdateException(e, "Error while reading job {} at {}", entry.id, entry.location);
+        }
+    }
+
+    private WebArchiveUpdateJob readUnchecked(final IndexEntry entry) {
+        try {
+            return read(entry);
+        } catch (WebArchiveUpdateException e) {
+            throw new UncheckedWebArchiveUpdateException(e);
+        }
+    }
+
+    private void checkOpen() throws WebArchiveUpdateException {
+        if (jobLog == null) {
+            throw new WebArchiveUpdateException("Updates store {} is not open", storeDirectory);
+        }
+    }
+
+    private void closeJobLog() {
+        if (jobLog != null) {
+            try {
+                jobLog.close();
+            } catch (IOException e) {
+                log.warn("Error while closing updates store {}", storeDirectory, e);
+            }
+            jobLog = null;
+        }
+    }
+
+    private static String encodeContinuationToken(final IndexEntry entry) {
+        final String key = entry.lastModified + "|" + entry.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the key of the last job of the previous page, or null for the first page
+     */
+    private static IndexEntry decodeContinuationToken(final String continuationToken) throws WebArchiveUpdateException {
+        if (continuationToken == null) {
+            return null;
+        }
+        try {
+            final String[] key = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8).split("\\|", 2);
+            final long lastModified = Long.parseLong(key[0]);
+            if (key.length != 2) {
+                throw new IllegalArgumentException("Missing identifier");
+            }
+            return new IndexEntry(key[1], 0L, lastModified);
+        } catch (IllegalArgumentException e) {
+            throw new WebArchiveUpdateException(e, "Invalid continuation token '{}'", continuationToken);
+        }
+    }
+
+    private static long parseNumber(final String value, final long defaultValue) {
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.bloomreach.forge.webarchiving.common.util.UrlListCodec;
+
+/**
+ * The payload of a job record in the {@link SegmentedJobLog}, written field by field like the columns of the JDBC
+ * updates store, so that the stored jobs do not depend on the serialized form of the model classes.
+ * <p>
+ * Version 1 is laid out as: version (byte), job identifier, status, created, last modified, attempt (long), owner,
+ * lease expiration, next attempt, update present (boolean) followed by the update identifier, type, creator, created
+ * and URLs encoded with {@link UrlListCodec}. Strings are a length (int, -1 for null) followed by their UTF-8 bytes;
+ * dates are a present flag (boolean) followed by the time in milliseconds (long); enums are stored by name. A new
+ * version appends its fields after those of the previous one and keeps reading the records of older versions.
+ */
+final class JobRecordFormat {
+
+    static final byte VERSION = 1;
+
+    private JobRecordFormat() {
+    }
+
+    static byte[] write(final WebArchiveUpdateJob job) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeString(out, job.getId());
+            writeString(out, job.getStatus() != null ? job.getStatus().name() : null);
+            writeCalendar(out, job.getCreated());
+            writeCalendar(out, job.getLastModified());
+            out.writeLong(job.getAttempt());
+            writeString(out, job.getOwner());
+            writeCalendar(out, job.getLeaseExpiration());
+            writeCalendar(out, job.getNextAttemptAt());
+
+            final WebArchiveUpdate update = job.getWebArchiveUpdate();
+            out.writeBoolean(update != null);
+            if (update != null) {
+                writeString(out, update.getId());
+                writeString(out, update.getType() != null ? update.getType().name() : null);
+                writeString(out, update.getCreator());
+                writeCalendar(out, update.getCreated());
+                final List<String> urls = update.getUrls() != null ? update.getUrls() : Collections.emptyList();
+                writeString(out, UrlListCodec.encode(urls));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the job of the record, which is not dirty
+     * @throws IOException if the record is invalid or of an unsupported version
+     */
+    static WebArchiveUpdateJob read(final byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported job record version " + version);
+            }
+
+            final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+            job.setId(readString(in));
+            job.setStatus(readEnum(in, WebArchiveUpdateJobStatus.class));
+            job.setCreated(readCalendar(in));
+            job.setLastModified(readCalendar(in));
+            job.setAttempt(in.readLong());
+            job.setOwner(readString(in));
+            job.setLeaseExpiration(readCalendar(in));
+            job.setNextAttemptAt(readCalendar(in));
+
+            if (in.readBoolean()) {
+                final WebArchiveUpdate update = new WebArchiveUpdate();
+                update.setId(readString(in));
+                update.setType(readEnum(in, WebArchiveUpdateType.class));
+                update.setCreator(readString(in));
+                update.setCreated(readCalendar(in));
+                update.setUrls(UrlListCodec.decode(readString(in)));
+                job.setWebArchiveUpdate(update);
+            }
+            job.clearDirty();
+            return job;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid job record", e);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeCalendar(final DataOutputStream out, final Calendar value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getTimeInMillis());
+        }
+    }
+
+    private static Calendar readCalendar(final DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(in.readLong());
+        return calendar;
+    }
+
+    private static <E extends Enum<E>> E readEnum(final DataInputStream in, final Class<E> type) throws IOException {
+        final String name = readString(in);
+        return name != null ? Enum.valueOf(type, name) : null;
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of job records, stored in numbered segment files. The last segment is the active one, records are
+ * appended to it until it exceeds the segment size and a new one is started. Full segments are sealed and read
+ * through a memory mapping.
+ * <p>
+ * A record is laid out as: total length (int), CRC32 of the rest (int), type (byte), identifier length (short),
+ * identifier (UTF-8), payload. When opening the log, records are replayed in order; a torn or corrupt tail of the
+ * active segment, e.g. after a crash during a write, is truncated.
+ * <p>
+ * Instances are not thread safe, callers must synchronize access.
+ */
+class SegmentedJobLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedJobLog.class);
+
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_DELETE = 2;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Receives the records of the log when it is opened.
+     */
+    interface RecordHandler {
+        void onPut(String id, byte[] payload, Location location) throws IOException;
+
+        void onDelete(String id, Location location);
+    }
+
+    /**
+     * Receives the new location of live records moved by a compaction.
+     */
+    interface RelocationListener {
+        void relocated(String id, Location from, Location to);
+    }
+
+    /**
+     * Location of a record in the log.
+     */
+    static final class Location {
+        final long segmentId;
+        final long offset;
+        final int length;
+
+        Location(final long segmentId, final long offset, final int length) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Location)) {
+                return false;
+            }
+            final Location that = (Location) o;
+            return segmentId == that.segmentId && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(segmentId) + Long.hashCode(offset);
+        }
+
+        @Override
+        public String toString() {
+            return segmentId + ":" + offset + "+" + length;
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        FileChannel channel;
+        MappedByteBuffer mapping;
+        long size;
+        long liveBytes;
+
+        Segment(final long id, final Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        boolean isSealed() {
+            return mapping != null;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+
+    SegmentedJobLog(final Path directory, final long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Open the log, replaying all records to {@code handler} in the order they were written.
+     */
+    void open(final RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+
+        final TreeMap<Long, Path> segmentFiles = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segmentFiles.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in job log directory", file);
+                }
+            }
+        }
+
+        for (Map.Entry<Long, Path> entry : segmentFiles.entrySet()) {
+            final Segment segment = new Segment(entry.getKey(), entry.getValue());
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment.size = segment.channel.size();
+            segments.put(segment.id, segment);
+
+            final boolean last = entry.getKey().equals(segmentFiles.lastKey());
+            replay(segment, handler, last);
+            if (!last) {
+                seal(segment);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = createSegment(1L);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Append a record to the active segment, without forcing it to disk.
+     */
+    Location append(final byte type, final String id, final byte[] payload) throws IOException {
+        if (activeSegment.size >= segmentSize) {
+            roll();
+        }
+
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        final int length = HEADER_SIZE + idBytes.length + payload.length;
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(payload);
+        buffer.putInt(4, checksum(buffer.array(), 8, length - 8));
+        buffer.flip();
+
+        final long offset = activeSegment.size;
+        while (buffer.hasRemaining()) {
+            activeSegment.channel.write(buffer, offset + buffer.position());
+        }
+        activeSegment.size += length;
+        if (type == TYPE_PUT) {
+            activeSegment.liveBytes += length;
+        }
+        return new Location(activeSegment.id, offset, length);
+    }
+
+    /**
+     * Force appended records to disk.
+     */
+    void sync() throws IOException {
+        activeSegment.channel.force(false);
+    }
+
+    /**
+     * Read the payload of the record at {@code location}.
+     */
+    byte[] read(final Location location) throws IOException {
+        final Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            throw new IOException("Segment of record " + location + " does not exist");
+        }
+
+        final ByteBuffer record;
+        if (segment.isSealed()) {
+            record = segment.mapping.duplicate();
+            record.position((int) location.offset).limit((int) location.offset + location.length);
+        } else {
+            record = ByteBuffer.allocate(location.length);
+            while (record.hasRemaining()) {
+                if (segment.channel.read(record, location.offset + record.position()) < 0) {
+                    throw new IOException("Unexpected end of segment reading record " + location);
+                }
+            }
+            record.flip();
+        }
+
+        record.position(record.position() + 9);
+        final int idLength = record.getShort();
+        record.position(record.position() + idLength);
+        final byte[] payload = new byte[record.remaining()];
+        record.get(payload);
+        return payload;
+    }
+
+    /**
+     * Mark the record at {@code location} as superseded or deleted.
+     */
+    void release(final Location location) {
+        final Segment segment = segments.get(location.segmentId);
+        if (segment != null) {
+            segment.liveBytes -= location.length;
+        }
+    }
+
+    /**
+     * @return the fraction of the bytes in sealed segments that belong to superseded or deleted records
+     */
+    double getGarbageRatio() {
+        long size = 0;
+        long liveBytes = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.isSealed()) {
+                size += segment.size;
+                liveBytes += segment.liveBytes;
+            }
+        }
+        return size == 0 ? 0 : (size - liveBytes) / (double) size;
+    }
+
+    long getSize() {
+        return segments.values().stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Copy the live records of all sealed segments to the active segment and delete the sealed segments. Deletion
+     * records are dropped: the records they delete are in the same or older sealed segments. Segments are deleted
+     * oldest first, so a crash during compaction never resurrects a deleted record.
+     *
+     * @return the number of bytes reclaimed
+     */
+    long compact(final BiPredicate<String, Location> isLive, final RelocationListener listener) throws IOException {
+        final List<Segment> sealedSegments = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment.isSealed()) {
+                sealedSegments.add(segment);
+            }
+        }
+        if (sealedSegments.isEmpty()) {
+            return 0;
+        }
+
+        // rolling first makes sure the copies end up in a segment newer than any sealed segment
+        roll();
+
+        long reclaimed = 0;
+        for (Segment segment : sealedSegments) {
+            final ByteBuffer buffer = segment.mapping.duplicate();
+            long offset = 0;
+            while (offset + HEADER_SIZE <= segment.size) {
+                buffer.position((int) offset);
+                final int length = buffer.getInt();
+                buffer.getInt();
+                final byte type = buffer.get();
+                final byte[] idBytes = new byte[buffer.getShort()];
+                buffer.get(idBytes);
+
+                final String id = new String(idBytes, StandardCharsets.UTF_8);
+                final Location location = new Location(segment.id, offset, length);
+                if (type == TYPE_PUT && isLive.test(id, location)) {
+                    final byte[] payload = new byte[length - HEADER_SIZE - idBytes.length];
+                    buffer.get(payload);
+                    listener.relocated(id, location, append(TYPE_PUT, id, payload));
+                } else {
+                    reclaimed += length;
+                }
+                offset += length;
+            }
+        }
+        sync();
+
+        for (Segment segment : sealedSegments) {
+            segments.remove(segment.id);
+            segment.mapping = null;
+            Files.deleteIfExists(segment.path);
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            if (segment.channel != null) {
+                segment.channel.close();
+            }
+            segment.mapping = null;
+        }
+        segments.clear();
+        activeSegment = null;
+    }
+
+    private void replay(final Segment segment, final RecordHandler handler, final boolean truncateTornTail) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        long offset = 0;
+        while (offset < segment.size) {
+            header.clear();
+            final int length = segment.size - offset >= 4 && segment.channel.read(header, offset) == 4 ? header.getInt(0) : -1;
+            if (length < HEADER_SIZE || offset + length > segment.size) {
+                handleCorruption(segment, offset, "incomplete record", truncateTornTail);
+                return;
+            }
+
+            final ByteBuffer record = ByteBuffer.allocate(length);
+            while (record.hasRemaining()) {
+                segment.channel.read(record, offset + record.position());
+            }
+            if (record.getInt(4) != checksum(record.array(), 8, length - 8)) {
+                handleCorruption(segment, offset, "checksum mismatch", truncateTornTail);
+                return;
+            }
+
+            record.position(8);
+            final byte type = record.get();
+            final byte[] idBytes = new byte[record.getShort()];
+            record.get(idBytes);
+            final String id = new String(idBytes, StandardCharsets.UTF_8);
+            final Location location = new Location(segment.id, offset, length);
+
+            if (type == TYPE_PUT) {
+                final byte[] payload = new byte[record.remaining()];
+                record.get(payload);
+                segment.liveBytes += length;
+                handler.onPut(id, payload, location);
+            } else {
+                handler.onDelete(id, location);
+            }
+            offset += length;
+        }
+    }
+
+    private void handleCorruption(final Segment segment, final long offset, final String reason, final boolean truncate) throws IOException {
+        if (truncate) {
+            log.warn("Truncating job log segment {} at offset {} of {} bytes: {}", segment.path, offset, segment.size, reason);
+            segment.channel.truncate(offset);
+            segment.channel.force(true);
+            segment.size = offset;
+        } else {
+            log.error("Ignoring the rest of sealed job log segment {} from offset {}: {}", segment.path, offset, reason);
+            segment.size = offset;
+        }
+    }
+
+    private void roll() throws IOException {
+        final Segment previous = activeSegment;
+        activeSegment = createSegment(previous.id + 1);
+        if (previous.size > 0) {
+            seal(previous);
+        } else {
+            previous.channel.close();
+            segments.remove(previous.id);
+            Files.deleteIfExists(previous.path);
+        }
+    }
+
+    private Segment createSegment(final long id) throws IOException {
+        final Segment segment = new Segment(id, directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void seal(final Segment segment) throws IOException {
+        segment.channel.force(false);
+        segment.mapping = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        segment.channel.close();
+        segment.channel = null;
+    }
+
+    private static int checksum(final byte[] bytes, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
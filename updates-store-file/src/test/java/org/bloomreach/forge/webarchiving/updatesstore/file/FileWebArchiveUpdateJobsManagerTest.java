@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ABORTED;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ACKNOWLEDGED;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.ERROR;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.QUEUED;
+import static org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus.SUBMITTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileWebArchiveUpdateJobsManagerTest {
+
+    private static final long BASE = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, String> props = new HashMap<>();
+    private FileWebArchiveUpdateJobsManager manager;
+
+    @Before
+    public void setUp() throws IOException, WebArchiveUpdateException {
+        props.put(FileWebArchiveUpdateJobsManager.CONFIG_PROP_STORE_DIRECTORY, folder.newFolder("jobs").getPath());
+        props.put(FileWebArchiveUpdateJobsManager.CONFIG_PROP_COMPACTION_INTERVAL, "0");
+        manager = new FileWebArchiveUpdateJobsManager();
+        manager.initialize(props);
+    }
+
+    @After
+    public void tearDown() {
+        manager.destroy();
+    }
+
+    @Test
+    public void claimsTheOldestClaimableJobsOfAllStatuses() throws WebArchiveUpdateException {
+        final String aborted = create(ABORTED, 2, 2, null);
+        final Calendar inOneHour = Calendar.getInstance();
+        inOneHour.add(Calendar.HOUR, 1);
+        final String leased = create(SUBMITTED, 1, 1, inOneHour);
+        final String expiredLease = create(SUBMITTED, 4, 4, at(0));
+        final String queued = create(QUEUED, 3, 3, null);
+        create(ACKNOWLEDGED, 0, 0, null);
+        final String later = create(QUEUED, 5, 5, null);
+
+        final List<WebArchiveUpdateJob> claimed = manager.claimPendingJobs(3, Duration.ofMinutes(10));
+        assertEquals(Arrays.asList(aborted, queued, expiredLease), ids(claimed));
+        for (WebArchiveUpdateJob job : claimed) {
+            assertEquals(SUBMITTED, job.getStatus());
+        }
+
+        assertEquals(Collections.singletonList(later), ids(manager.claimPendingJobs(3, Duration.ofMinutes(10))));
+        assertEquals(0, manager.claimPendingJobs(3, Duration.ofMinutes(10)).size());
+        assertEquals(SUBMITTED, manager.getWebArchiveUpdateJobById(leased).getStatus());
+    }
+
+    @Test
+    public void jobsThatAreNotDueAreNotClaimed() throws WebArchiveUpdateException {
+        final String notDue = create(QUEUED, 1, 1, null);
+        final WebArchiveUpdateJob job = manager.getWebArchiveUpdateJobById(notDue);
+        final Calendar nextAttempt = Calendar.getInstance();
+        nextAttempt.add(Calendar.HOUR, 1);
+        job.setNextAttemptAt(nextAttempt);
+        manager.updateWebArchiveUpdateJob(job);
+        final String due = create(QUEUED, 2, 2, null);
+
+        assertEquals(Collections.singletonList(due), ids(manager.claimPendingJobs(10, Duration.ofMinutes(10))));
+    }
+
+    @Test
+    public void pagesMergeTheStatusesByLastModification() throws WebArchiveUpdateException {
+        final List<String> expected = new ArrayList<>();
+        final WebArchiveUpdateJobStatus[] statuses = {QUEUED, ERROR, ACKNOWLEDGED};
+        for (int i = 0; i < 10; i++) {
+            expected.add(create(statuses[i % statuses.length], 10 - i, i, null));
+        }
+
+        final List<String> paged = new ArrayList<>();
+        String token = null;
+        do {
+            final WebArchiveUpdateJobsPage page = manager.searchForWebArchiveUpdateJobs(null, null, token, 3);
+            paged.addAll(ids(page.getJobs()));
+            token = page.getContinuationToken();
+        } while (token != null);
+        assertEquals(expected, paged);
+
+        final WebArchiveUpdateJobsPage completed = manager.searchForWebArchiveUpdateJobs(Arrays.asList(ERROR, ACKNOWLEDGED), null, null, 4);
+        assertEquals(Arrays.asList(expected.get(1), expected.get(2), expected.get(4), expected.get(5)), ids(completed.getJobs()));
+        final WebArchiveUpdateJobsPage next = manager.searchForWebArchiveUpdateJobs(Arrays.asList(ERROR, ACKNOWLEDGED), null,
+                completed.getContinuationToken(), 4);
+        assertEquals(Arrays.asList(expected.get(7), expected.get(8)), ids(next.getJobs()));
+        assertNull(next.getContinuationToken());
+    }
+
+    @Test
+    public void searchesOrderByCreationInBothDirections() throws WebArchiveUpdateException {
+        final String second = create(QUEUED, 2, 0, null);
+        final String first = create(ERROR, 1, 5, null);
+        final String third = create(ABORTED, 3, 1, null);
+
+        assertEquals(Arrays.asList(first, second, third), ids(manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, "created", true)));
+        assertEquals(Arrays.asList(third, second, first), ids(manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, "created", false)));
+        assertEquals(Arrays.asList(second, first), ids(manager.searchForWebArchiveUpdateJobs(null, null, 1, 2, "created", false)));
+        assertEquals(Arrays.asList(first, third, second),
+                ids(manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, "webarchivingaddon:lastModified", false)));
+    }
+
+    @Test
+    public void purgeRemovesTheJobsCreatedBeforeOfTheGivenStatuses() throws WebArchiveUpdateException {
+        create(ACKNOWLEDGED, 1, 1, null);
+        create(ERROR, 2, 2, null);
+        final String queued = create(QUEUED, 1, 1, null);
+        final String recent = create(ACKNOWLEDGED, 10, 10, null);
+
+        assertEquals(2L, manager.purgeOlderThan(at(10), Arrays.asList(ACKNOWLEDGED, ERROR)));
+        assertEquals(Arrays.asList(queued, recent), ids(manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, "created", true)));
+
+        final Map<WebArchiveUpdateJobStatus, Long> counts = manager.countByStatus();
+        assertEquals(Long.valueOf(1L), counts.get(QUEUED));
+        assertEquals(Long.valueOf(1L), counts.get(ACKNOWLEDGED));
+        assertEquals(Long.valueOf(0L), counts.get(ERROR));
+    }
+
+    @Test
+    public void indexIsRebuiltOnStartup() throws WebArchiveUpdateException {
+        final String queued = create(QUEUED, 1, 1, null);
+        final String aborted = create(ABORTED, 2, 2, null);
+        final WebArchiveUpdateJob job = manager.getWebArchiveUpdateJobById(queued);
+        job.setStatus(ERROR);
+        job.setLastModified(at(3));
+        manager.updateWebArchiveUpdateJob(job);
+
+        manager.initialize(props);
+        assertEquals(Collections.singletonList(aborted), ids(manager.claimPendingJobs(10, Duration.ofMinutes(10))));
+        assertEquals(Long.valueOf(1L), manager.countByStatus().get(ERROR));
+        assertEquals(Long.valueOf(1L), manager.countByStatus().get(SUBMITTED));
+    }
+
+    private String create(final WebArchiveUpdateJobStatus status, final int created, final int lastModified,
+                          final Calendar leaseExpiration) throws WebArchiveUpdateException {
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setCreated(at(created));
+        update.setCreator("admin");
+        update.setType(WebArchiveUpdateType.DOCUMENT);
+        update.setUrls(Arrays.asList("https://www.example.com/" + created));
+
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setWebArchiveUpdate(update);
+        job.setStatus(status);
+        job.setCreated(at(created));
+        job.setLastModified(at(lastModified));
+        job.setLeaseExpiration(leaseExpiration);
+        return manager.createWebArchiveUpdateJob(job);
+    }
+
+    private static Calendar at(final int seconds) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(BASE + seconds * 1000L);
+        return calendar;
+    }
+
+    private static List<String> ids(final List<WebArchiveUpdateJob> jobs) {
+        return jobs.stream().map(WebArchiveUpdateJob::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JobRecordFormatTest {
+
+    @Test
+    public void allFieldsRoundTrip() throws IOException {
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setId("update-1");
+        update.setType(WebArchiveUpdateType.DOCUMENT);
+        update.setCreator("admin, editor");
+        update.setCreated(at(1000L));
+        update.setUrls(Arrays.asList("https://www.example.com/site/news/first.html", "https://www.example.com/site/about"));
+
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId("job_1");
+        job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+        job.setCreated(at(2000L));
+        job.setLastModified(at(3000L));
+        job.setAttempt(3L);
+        job.setOwner("node-1");
+        job.setLeaseExpiration(at(4000L));
+        job.setNextAttemptAt(at(5000L));
+        job.setWebArchiveUpdate(update);
+
+        final byte[] record = JobRecordFormat.write(job);
+        assertEquals(JobRecordFormat.VERSION, record[0]);
+
+        final WebArchiveUpdateJob read = JobRecordFormat.read(record);
+        assertFalse(read.isDirty());
+        assertEquals("job_1", read.getId());
+        assertEquals(WebArchiveUpdateJobStatus.SUBMITTED, read.getStatus());
+        assertEquals(2000L, read.getCreated().getTimeInMillis());
+        assertEquals(3000L, read.getLastModified().getTimeInMillis());
+        assertEquals(3L, read.getAttempt());
+        assertEquals("node-1", read.getOwner());
+        assertEquals(4000L, read.getLeaseExpiration().getTimeInMillis());
+        assertEquals(5000L, read.getNextAttemptAt().getTimeInMillis());
+        assertEquals("update-1", read.getWebArchiveUpdate().getId());
+        assertEquals(WebArchiveUpdateType.DOCUMENT, read.getWebArchiveUpdate().getType());
+        assertEquals("admin, editor", read.getWebArchiveUpdate().getCreator());
+        assertEquals(1000L, read.getWebArchiveUpdate().getCreated().getTimeInMillis());
+        assertEquals(update.getUrls(), read.getWebArchiveUpdate().getUrls());
+    }
+
+    @Test
+    public void missingFieldsRoundTrip() throws IOException {
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId("job_2");
+
+        final WebArchiveUpdateJob read = JobRecordFormat.read(JobRecordFormat.write(job));
+        assertEquals("job_2", read.getId());
+        assertNull(read.getStatus());
+        assertNull(read.getCreated());
+        assertNull(read.getOwner());
+        assertNull(read.getLeaseExpiration());
+        assertNull(read.getWebArchiveUpdate());
+
+        job.setWebArchiveUpdate(new WebArchiveUpdate());
+        job.getWebArchiveUpdate().setUrls(null);
+        final WebArchiveUpdate update = JobRecordFormat.read(JobRecordFormat.write(job)).getWebArchiveUpdate();
+        assertNull(update.getId());
+        assertNull(update.getType());
+        assertTrue(update.getUrls().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersionIsRejected() throws IOException {
+        final byte[] record = JobRecordFormat.write(new WebArchiveUpdateJob());
+        record[0] = (byte) (JobRecordFormat.VERSION + 1);
+        JobRecordFormat.read(record);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRecordIsRejected() throws IOException {
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId("job_3");
+        job.setStatus(WebArchiveUpdateJobStatus.QUEUED);
+        final byte[] record = JobRecordFormat.write(job);
+        JobRecordFormat.read(Arrays.copyOf(record, record.length - 4));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownStatusIsRejected() throws IOException {
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId("job");
+        job.setStatus(WebArchiveUpdateJobStatus.QUEUED);
+        final byte[] record = JobRecordFormat.write(job);
+        // overwrite the status name "QUEUED" following the version and the identifier
+        final int statusOffset = 1 + 4 + 3 + 4;
+        record[statusOffset] = 'X';
+        JobRecordFormat.read(record);
+    }
+
+    private static Calendar at(final long millis) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedJobLogTest {
+
+    private static final long SEGMENT_SIZE = 1024L * 1024L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private SegmentedJobLog jobLog;
+    private Replay replay;
+
+    /**
+     * Keeps the live records replayed from the log, as the file updates jobs manager does.
+     */
+    private static class Replay implements SegmentedJobLog.RecordHandler {
+        final Map<String, String> payloads = new LinkedHashMap<>();
+        final Map<String, SegmentedJobLog.Location> locations = new HashMap<>();
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void onPut(final String id, final byte[] payload, final SegmentedJobLog.Location location) {
+            payloads.put(id, new String(payload, StandardCharsets.UTF_8));
+            locations.put(id, location);
+            records.add("put " + id);
+        }
+
+        @Override
+        public void onDelete(final String id, final SegmentedJobLog.Location location) {
+            payloads.remove(id);
+            locations.remove(id);
+            records.add("delete " + id);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("jobs").toPath();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (jobLog != null) {
+            jobLog.close();
+        }
+    }
+
+    @Test
+    public void recordsAreReplayedInOrder() throws IOException {
+        open(SEGMENT_SIZE);
+        final SegmentedJobLog.Location first = put("job-1", "queued");
+        put("job-2", "queued");
+        put("job-1", "submitted");
+        delete("job-2");
+        assertEquals("queued", read(first));
+
+        reopen(SEGMENT_SIZE);
+        assertEquals(4, replay.records.size());
+        assertEquals("put job-1", replay.records.get(0));
+        assertEquals("delete job-2", replay.records.get(3));
+        assertEquals(1, replay.payloads.size());
+        assertEquals("submitted", replay.payloads.get("job-1"));
+        assertEquals("submitted", read(replay.locations.get("job-1")));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        open(SEGMENT_SIZE);
+        put("job-1", "queued");
+        put("job-2", "queued");
+        jobLog.sync();
+        final long size = jobLog.getSize();
+        jobLog.close();
+
+        // a record of which only the start was written before a crash
+        final Path segment = getLastSegment();
+        final ByteBuffer torn = ByteBuffer.allocate(6).putInt(100).putShort((short) 7);
+        torn.flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(torn);
+        }
+        assertEquals(size + 6, Files.size(segment));
+
+        reopen(SEGMENT_SIZE);
+        assertEquals(2, replay.payloads.size());
+        assertEquals(size, Files.size(segment));
+
+        put("job-3", "queued");
+        reopen(SEGMENT_SIZE);
+        assertEquals(3, replay.payloads.size());
+        assertEquals("queued", replay.payloads.get("job-3"));
+    }
+
+    @Test
+    public void tailWithChecksumMismatchIsTruncated() throws IOException {
+        open(SEGMENT_SIZE);
+        put("job-1", "queued");
+        final SegmentedJobLog.Location second = put("job-2", "queued");
+        jobLog.sync();
+        jobLog.close();
+
+        final Path segment = getLastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), second.offset + second.length - 1);
+        }
+
+        reopen(SEGMENT_SIZE);
+        assertEquals(1, replay.payloads.size());
+        assertEquals("queued", replay.payloads.get("job-1"));
+        assertEquals(second.offset, Files.size(segment));
+    }
+
+    @Test
+    public void recordsAreReadFromSealedSegments() throws IOException {
+        open(64);
+        for (int i = 0; i < 10; i++) {
+            put("job-" + i, "queued " + i);
+        }
+        assertTrue(jobLog.getSegmentCount() > 1);
+
+        reopen(64);
+        assertEquals(10, replay.payloads.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("queued " + i, read(replay.locations.get("job-" + i)));
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheLiveRecordsOnly() throws IOException {
+        open(64);
+        put("job-1", "queued");
+        put("job-2", "queued");
+        put("job-3", "queued");
+        put("job-1", "submitted");
+        delete("job-2");
+        put("job-4", "queued");
+        final Path firstSegment = getFirstSegment();
+        final double garbageRatio = jobLog.getGarbageRatio();
+        assertTrue(garbageRatio > 0);
+
+        // the sealed first segment holds the superseded job-1 and deleted job-2 records next to the live job-3 record
+        final long reclaimed = jobLog.compact((id, location) -> location.equals(replay.locations.get(id)),
+                (id, from, to) -> replay.locations.put(id, to));
+        assertEquals(2 * recordLength("job-1", "queued"), reclaimed);
+        assertFalse(Files.exists(firstSegment));
+        assertTrue(jobLog.getGarbageRatio() < garbageRatio);
+        assertEquals("submitted", read(replay.locations.get("job-1")));
+        assertEquals("queued", read(replay.locations.get("job-3")));
+
+        reopen(64);
+        assertEquals(3, replay.payloads.size());
+        assertEquals("submitted", replay.payloads.get("job-1"));
+        assertFalse(replay.payloads.containsKey("job-2"));
+        assertEquals("queued", replay.payloads.get("job-3"));
+        assertEquals("queued", replay.payloads.get("job-4"));
+    }
+
+    private void open(final long segmentSize) throws IOException {
+        replay = new Replay();
+        jobLog = new SegmentedJobLog(directory, segmentSize);
+        jobLog.open(replay);
+    }
+
+    private void reopen(final long segmentSize) throws IOException {
+        jobLog.close();
+        open(segmentSize);
+    }
+
+    private SegmentedJobLog.Location put(final String id, final String payload) throws IOException {
+        final SegmentedJobLog.Location previous = replay.locations.get(id);
+        final SegmentedJobLog.Location location = jobLog.append(SegmentedJobLog.TYPE_PUT, id, payload.getBytes(StandardCharsets.UTF_8));
+        if (previous != null) {
+            jobLog.release(previous);
+        }
+        replay.payloads.put(id, payload);
+        replay.locations.put(id, location);
+        return location;
+    }
+
+    private void delete(final String id) throws IOException {
+        jobLog.append(SegmentedJobLog.TYPE_DELETE, id, new byte[0]);
+        jobLog.release(replay.locations.remove(id));
+        replay.payloads.remove(id);
+    }
+
+    private String read(final SegmentedJobLog.Location location) throws IOException {
+        return new String(jobLog.read(location), StandardCharsets.UTF_8);
+    }
+
+    private static long recordLength(final String id, final String payload) {
+        return 4 + 4 + 1 + 2 + id.length() + payload.length();
+    }
+
+    private Path getFirstSegment() throws IOException {
+        return getSegments().get(0);
+    }
+
+    private Path getLastSegment() throws IOException {
+        final List<Path> segments = getSegments();
+        return segments.get(segments.size() - 1);
+    }
+
+    private List<Path> getSegments() throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+            files.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+}
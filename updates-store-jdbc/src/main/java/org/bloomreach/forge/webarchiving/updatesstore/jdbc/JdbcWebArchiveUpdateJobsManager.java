@@ -0,0 +1,1009 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
+import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.bloomreach.forge.webarchiving.common.util.UrlListCodec;
+import org.bloomreach.forge.webarchiving.common.util.WebArchiveUpdateJobIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates jobs manager that stores the jobs in a single table of a relational database, looked up as a JNDI
+ * {@link DataSource}. The status, creation and last modification dates of a job are indexed columns, so that claims,
+ * searches and purges are answered by the database. The URLs of a job are stored in the compact encoding of
+ * {@link UrlListCodec}; dates are stored as milliseconds since the epoch, which avoids time zone conversions of the
+ * different drivers.
+ * <p>
+ * Jobs are inserted, updated and deleted with JDBC batches in a single transaction per call; updates only write the
+ * columns of the fields that have changed. Pending jobs are claimed with a {@code SELECT ... FOR UPDATE SKIP LOCKED}
+ * query, so that concurrent claims of the cluster nodes never block on or return the same jobs. Jobs waiting for
+ * their next attempt are left out of the claim by the database.
+ */
+public class JdbcWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManager, PlatformManaged, Discoverable {
+
+    private static Logger log = LoggerFactory.getLogger(JdbcWebArchiveUpdateJobsManager.class);
+
+    protected static final String CONFIG_PROP_DATA_SOURCE = "dataSource";
+    protected static final String CONFIG_PROP_TABLE_NAME = "tableName";
+    protected static final String CONFIG_PROP_CREATE_TABLE = "createTable";
+    protected static final String CONFIG_PROP_BATCH_SIZE = "batchSize";
+    protected static final String CONFIG_PROP_LOCK_CLAUSE = "lockClause";
+    protected static final String DEFAULT_DATA_SOURCE = "java:comp/env/jdbc/repositoryDS";
+    protected static final String DEFAULT_TABLE_NAME = "webarchiving_update_job";
+    protected static final int DEFAULT_BATCH_SIZE = 100;
+    protected static final String LOCK_CLAUSE_SKIP_LOCKED = "FOR UPDATE SKIP LOCKED";
+    protected static final String LOCK_CLAUSE_FOR_UPDATE = "FOR UPDATE";
+
+    protected static final String JOB_ID_PREFIX = "job_";
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,49}");
+    private static final String JOB_COLUMNS = "id, status, created, last_modified, attempt, owner_id, lease_expiration, next_attempt, "
+            + "update_id, update_type, update_creator, update_created, url_count, urls";
+    private static final String SUMMARY_COLUMNS = "id, status, created, last_modified, attempt, update_type, url_count";
+    private static final String PENDING_CONDITION = "status IN ('" + WebArchiveUpdateJobStatus.QUEUED.name() + "', '"
+            + WebArchiveUpdateJobStatus.ABORTED.name() + "') OR (status = '" + WebArchiveUpdateJobStatus.SUBMITTED.name()
+            + "' AND (lease_expiration IS NULL OR lease_expiration <= ?))";
+    private static final String DUE_CONDITION = "(next_attempt IS NULL OR next_attempt <= ?)";
+
+    /**
+     * Work done in a transaction, see {@link #inTransaction(Transaction)}.
+     */
+    @FunctionalInterface
+    protected interface Transaction<T> {
+        T execute(Connection connection) throws SQLException, WebArchiveUpdateException;
+    }
+
+    private final WebArchiveUpdateJobIdGenerator idGenerator = WebArchiveUpdateJobIdGenerator.getInstance();
+    private final String ownerId = isBlank(WebArchiveUpdateJobIdGenerator.getClusterNodeId())
+            ? "unknown" : WebArchiveUpdateJobIdGenerator.getClusterNodeId();
+
+    protected String dataSourceName = DEFAULT_DATA_SOURCE;
+    protected String tableName = DEFAULT_TABLE_NAME;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected String lockClause;
+
+    private volatile DataSource dataSource;
+
+    @Override
+    public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
+        destroy();
+
+        dataSourceName = isBlank(props.get(CONFIG_PROP_DATA_SOURCE)) ? DEFAULT_DATA_SOURCE : props.get(CONFIG_PROP_DATA_SOURCE).trim();
+        tableName = isBlank(props.get(CONFIG_PROP_TABLE_NAME)) ? DEFAULT_TABLE_NAME : props.get(CONFIG_PROP_TABLE_NAME).trim();
+        if (!TABLE_NAME_PATTERN.matcher(tableName).matches()) {
+            throw new WebArchiveUpdateException("Invalid table name '{}'", tableName);
+        }
+        batchSize = (int) Math.max(1L, parseNumber(props.get(CONFIG_PROP_BATCH_SIZE), DEFAULT_BATCH_SIZE));
+        final boolean createTable = isBlank(props.get(CONFIG_PROP_CREATE_TABLE)) || Boolean.parseBoolean(props.get(CONFIG_PROP_CREATE_TABLE).trim());
+
+        final DataSource lookedUpDataSource = lookupDataSource(dataSourceName);
+        try (Connection connection = lookedUpDataSource.getConnection()) {
+            final String productName = connection.getMetaData().getDatabaseProductName();
+            lockClause = isBlank(props.get(CONFIG_PROP_LOCK_CLAUSE)) ? getDefaultLockClause(productName) : props.get(CONFIG_PROP_LOCK_CLAUSE).trim();
+            if (createTable && !tableExists(connection)) {
+                createTable(connection, productName);
+            }
+            log.info("Using table {} of data source {} ({}) for the updates store", tableName, dataSourceName, productName);
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while initializing table {} of data source {}", tableName, dataSourceName);
+        }
+        dataSource = lookedUpDataSource;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        log.debug("Destroying {}", this.getClass().getName());
+        // the data source is managed by the container
+        dataSource = null;
+    }
+
+    /**
+     * @return the data source bound to {@code name} in JNDI
+     */
+    protected DataSource lookupDataSource(final String name) throws WebArchiveUpdateException {
+        try {
+            return (DataSource) new InitialContext().lookup(name);
+        } catch (NamingException | ClassCastException e) {
+            throw new WebArchiveUpdateException(e, "Error while looking up data source {}", name);
+        }
+    }
+
+    /**
+     * SKIP LOCKED is supported by PostgreSQL (9.5), MySQL (8.0), Oracle and H2 (2.2); other databases lock the claimed
+     * rows without skipping the ones locked by concurrent claims, which then wait for each other.
+     */
+    protected String getDefaultLockClause(final String productName) {
+        final String product = productName != null ? productName.toLowerCase(Locale.ROOT) : "";
+        if (product.contains("postgres") || product.contains("mysql") || product.contains("mariadb")
+                || product.contains("oracle") || product.contains("h2")) {
+            return LOCK_CLAUSE_SKIP_LOCKED;
+        }
+        return LOCK_CLAUSE_FOR_UPDATE;
+    }
+
+    /**
+     * @return the column type of the encoded URLs, which can be larger than the maximum size of a VARCHAR
+     */
+    protected String getTextColumnType(final String productName) {
+        final String product = productName != null ? productName.toLowerCase(Locale.ROOT) : "";
+        if (product.contains("postgres")) {
+            return "TEXT";
+        } else if (product.contains("mysql") || product.contains("mariadb")) {
+            return "LONGTEXT";
+        } else if (product.contains("microsoft")) {
+            return "NVARCHAR(MAX)";
+        }
+        return "CLOB";
+    }
+
+    private boolean tableExists(final Connection connection) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        final String escape = metaData.getSearchStringEscape();
+        for (String name : new String[]{tableName, tableName.toUpperCase(Locale.ROOT), tableName.toLowerCase(Locale.ROOT)}) {
+            final String pattern = escape != null ? name.replace("_", escape + "_") : name;
+            try (ResultSet tables = metaData.getTables(null, null, pattern, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void createTable(final Connection connection, final String productName) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE " + tableName + " ("
+                    + "id VARCHAR(64) NOT NULL PRIMARY KEY, "
+                    + "status VARCHAR(16) NOT NULL, "
+                    + "created BIGINT NOT NULL, "
+                    + "last_modified BIGINT NOT NULL, "
+                    + "attempt BIGINT NOT NULL, "
+                    + "owner_id VARCHAR(255), "
+                    + "lease_expiration BIGINT, "
+                    + "next_attempt BIGINT, "
+                    + "update_id VARCHAR(255), "
+                    + "update_type VARCHAR(32), "
+                    + "update_creator VARCHAR(1024), "
+                    + "update_created BIGINT, "
+                    + "url_count INTEGER NOT NULL, "
+                    + "urls " + getTextColumnType(productName) + ", "
+                    + "version BIGINT NOT NULL)");
+            statement.executeUpdate("CREATE INDEX " + tableName + "_status_idx ON " + tableName + " (status, created)");
+            statement.executeUpdate("CREATE INDEX " + tableName + "_modified_idx ON " + tableName + " (last_modified, id)");
+            statement.executeUpdate("CREATE INDEX " + tableName + "_created_idx ON " + tableName + " (created)");
+            statement.executeUpdate("CREATE INDEX " + tableName + "_update_idx ON " + tableName + " (update_id, update_type)");
+            log.info("Created table {} for the updates store", tableName);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        return createWebArchiveUpdateJobs(Collections.singletonList(webArchiveUpdateJob)).get(0);
+    }
+
+    /**
+     * Insert all jobs with JDBC batches of at most batchSize jobs in a single transaction.
+     */
+    @Override
+    public List<String> createWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (webArchiveUpdateJob.getWebArchiveUpdate() == null) {
+                throw new WebArchiveUpdateException("Job does not contain an update {}", webArchiveUpdateJob);
+            }
+        }
+
+        final List<String> updateJobIds = new ArrayList<>(webArchiveUpdateJobs.size());
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            final Calendar now = Calendar.getInstance();
+            if (webArchiveUpdateJob.getCreated() == null) {
+                webArchiveUpdateJob.setCreated(now);
+            }
+            if (webArchiveUpdateJob.getLastModified() == null) {
+                webArchiveUpdateJob.setLastModified(now);
+            }
+            if (webArchiveUpdateJob.getStatus() == null) {
+                webArchiveUpdateJob.setStatus(WebArchiveUpdateJobStatus.QUEUED);
+            }
+            final WebArchiveUpdate webArchiveUpdate = webArchiveUpdateJob.getWebArchiveUpdate();
+            if (webArchiveUpdate.getId() == null) {
+                webArchiveUpdate.setId(idGenerator.nextId());
+            }
+            webArchiveUpdateJob.setId(JOB_ID_PREFIX + idGenerator.nextId());
+            updateJobIds.add(webArchiveUpdateJob.getId());
+        }
+
+        try {
+            inTransaction(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + tableName + " ("
+                        + JOB_COLUMNS + ", version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)")) {
+                    int batched = 0;
+                    for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                        bindJob(statement, webArchiveUpdateJob);
+                        statement.addBatch();
+                        if (++batched % batchSize == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+                    if (batched % batchSize != 0) {
+                        statement.executeBatch();
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while creating a batch of {} jobs", webArchiveUpdateJobs.size());
+        }
+        webArchiveUpdateJobs.forEach(WebArchiveUpdateJob::clearDirty);
+        return updateJobIds;
+    }
+
+    /**
+     * The queued job is locked while the update is merged into it; a queued job locked by a concurrent claim is skipped
+     * and a new job is created instead.
+     */
+    @Override
+    public String createOrMergeWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        final WebArchiveUpdate webArchiveUpdate = webArchiveUpdateJob.getWebArchiveUpdate();
+        if (webArchiveUpdate == null) {
+            throw new WebArchiveUpdateException("Job does not contain an update {}", webArchiveUpdateJob);
+        }
+        if (isBlank(webArchiveUpdate.getId())) {
+            return createWebArchiveUpdateJob(webArchiveUpdateJob);
+        }
+
+        final WebArchiveUpdateType type = webArchiveUpdate.getType() != null ? webArchiveUpdate.getType() : WebArchiveUpdateType.UNDEFINED;
+        final String mergedJobId;
+        try {
+            mergedJobId = inTransaction(connection -> {
+                final WebArchiveUpdateJob queuedJob;
+                try (PreparedStatement statement = connection.prepareStatement("SELECT " + JOB_COLUMNS + " FROM " + tableName
+                        + " WHERE update_id = ? AND update_type = ? AND status = ? ORDER BY last_modified DESC " + lockClause)) {
+                    statement.setMaxRows(1);
+                    statement.setString(1, webArchiveUpdate.getId());
+                    statement.setString(2, type.name());
+                    statement.setString(3, WebArchiveUpdateJobStatus.QUEUED.name());
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        queuedJob = resultSet.next() ? mapJob(resultSet) : null;
+                    }
+                }
+                if (queuedJob == null) {
+                    return null;
+                }
+
+                final WebArchiveUpdate queuedUpdate = queuedJob.getWebArchiveUpdate();
+                queuedUpdate.merge(webArchiveUpdate);
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE " + tableName
+                        + " SET update_creator = ?, url_count = ?, urls = ?, last_modified = ?, version = version + 1 WHERE id = ?")) {
+                    statement.setString(1, queuedUpdate.getCreator());
+                    statement.setInt(2, queuedUpdate.getUrls().size());
+                    statement.setString(3, UrlListCodec.encode(queuedUpdate.getUrls()));
+                    statement.setLong(4, System.currentTimeMillis());
+                    statement.setString(5, queuedJob.getId());
+                    statement.executeUpdate();
+                }
+                log.debug("Merged update {} into queued job {}", queuedUpdate.getId(), queuedJob.getId());
+                return queuedJob.getId();
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while merging job {}", webArchiveUpdateJob);
+        }
+
+        if (mergedJobId == null) {
+            return createWebArchiveUpdateJob(webArchiveUpdateJob);
+        }
+        webArchiveUpdateJob.setId(mergedJobId);
+        return mergedJobId;
+    }
+
+    @Override
+    public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) throws WebArchiveUpdateException {
+        final WebArchiveUpdateJob job;
+        try {
+            job = inTransaction(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT " + JOB_COLUMNS + " FROM " + tableName + " WHERE id = ?")) {
+                    statement.setString(1, webArchiveUpdateJobId);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next() ? mapJob(resultSet) : null;
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while reading job {}", webArchiveUpdateJobId);
+        }
+        if (job == null) {
+            throw new WebArchiveUpdateException("No job with identifier {}", webArchiveUpdateJobId);
+        }
+        return job;
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        if (isBlank(webArchiveUpdateJob.getId())) {
+            throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
+        }
+        updateWebArchiveUpdateJobs(Collections.singletonList(webArchiveUpdateJob));
+    }
+
+    /**
+     * Changed jobs are grouped by the set of changed fields, every group is updated with a JDBC batch of a statement
+     * that only sets the columns of those fields. Unchanged jobs are skipped.
+     */
+    @Override
+    public void updateWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        final Map<Set<WebArchiveUpdateJob.Field>, List<WebArchiveUpdateJob>> jobsByDirtyFields = new LinkedHashMap<>();
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (isBlank(webArchiveUpdateJob.getId())) {
+                throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
+            }
+            if (!webArchiveUpdateJob.isDirty()) {
+                log.debug("Job {} has not changed, skipping update", webArchiveUpdateJob.getId());
+                continue;
+            }
+            final Set<WebArchiveUpdateJob.Field> dirtyFields = EnumSet.noneOf(WebArchiveUpdateJob.Field.class);
+            for (WebArchiveUpdateJob.Field field : WebArchiveUpdateJob.Field.values()) {
+                if (webArchiveUpdateJob.isDirty(field)) {
+                    dirtyFields.add(field);
+                }
+            }
+            jobsByDirtyFields.computeIfAbsent(dirtyFields, fields -> new ArrayList<>()).add(webArchiveUpdateJob);
+        }
+        if (jobsByDirtyFields.isEmpty()) {
+            return;
+        }
+
+        try {
+            inTransaction(connection -> {
+                for (Map.Entry<Set<WebArchiveUpdateJob.Field>, List<WebArchiveUpdateJob>> entry : jobsByDirtyFields.entrySet()) {
+                    updateJobs(connection, entry.getKey(), entry.getValue());
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while updating a batch of {} jobs", webArchiveUpdateJobs.size());
+        }
+        jobsByDirtyFields.values().forEach(jobs -> jobs.forEach(WebArchiveUpdateJob::clearDirty));
+    }
+
+    private void updateJobs(final Connection connection, final Set<WebArchiveUpdateJob.Field> fields,
+                            final List<WebArchiveUpdateJob> jobs) throws SQLException, WebArchiveUpdateException {
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        for (WebArchiveUpdateJob.Field field : fields) {
+            sql.append(getColumnName(field)).append(" = ?, ");
+        }
+        sql.append("version = version + 1 WHERE id = ?");
+
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int start = 0; start < jobs.size(); start += batchSize) {
+                final List<WebArchiveUpdateJob> batch = jobs.subList(start, Math.min(jobs.size(), start + batchSize));
+                for (WebArchiveUpdateJob job : batch) {
+                    int index = 1;
+                    for (WebArchiveUpdateJob.Field field : fields) {
+                        bindField(statement, index++, job, field);
+                    }
+                    statement.setString(index, job.getId());
+                    statement.addBatch();
+                }
+                final int[] updateCounts = statement.executeBatch();
+                for (int i = 0; i < updateCounts.length; i++) {
+                    if (updateCounts[i] == 0) {
+                        throw new WebArchiveUpdateException("No job with identifier {}", batch.get(i).getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The pending jobs are selected and locked with the configured lock clause, {@code FOR UPDATE SKIP LOCKED} by
+     * default, and claimed in the same transaction. The number of rows is limited with
+     * {@link Statement#setMaxRows(int)}, as the syntax of a limit differs between databases.
+     */
+    @Override
+    public List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) throws WebArchiveUpdateException {
+        if (max <= 0) {
+            return new ArrayList<>();
+        }
+
+        final Calendar now = Calendar.getInstance();
+        final Calendar leaseExpiration = Calendar.getInstance();
+        leaseExpiration.setTimeInMillis(now.getTimeInMillis() + lease.toMillis());
+
+        final List<WebArchiveUpdateJob> claimedJobs;
+        try {
+            claimedJobs = inTransaction(connection -> {
+                final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT " + JOB_COLUMNS + " FROM " + tableName
+                        + " WHERE (" + PENDING_CONDITION + ") AND " + DUE_CONDITION + " ORDER BY created, id " + lockClause)) {
+                    statement.setMaxRows(max);
+                    statement.setLong(1, now.getTimeInMillis());
+                    statement.setLong(2, now.getTimeInMillis());
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            jobs.add(mapJob(resultSet));
+                        }
+                    }
+                }
+                for (WebArchiveUpdateJob job : jobs) {
+                    job.setStatus(WebArchiveUpdateJobStatus.SUBMITTED);
+                    job.setLastModified(now);
+                    job.setOwner(ownerId);
+                    job.setLeaseExpiration(leaseExpiration);
+                }
+                if (!jobs.isEmpty()) {
+                    updateJobs(connection, EnumSet.of(WebArchiveUpdateJob.Field.STATUS, WebArchiveUpdateJob.Field.LAST_MODIFIED,
+                            WebArchiveUpdateJob.Field.OWNER, WebArchiveUpdateJob.Field.LEASE_EXPIRATION), jobs);
+                }
+                return jobs;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while claiming {} jobs", max);
+        }
+        claimedJobs.forEach(WebArchiveUpdateJob::clearDirty);
+        log.debug("Claimed {} jobs", claimedJobs.size());
+        return claimedJobs;
+    }
+
+    /**
+     * Jobs waiting for their next attempt are left out, as in {@link #claimPendingJobs(int, Duration)}.
+     */
+    @Override
+    public List<WebArchiveUpdateJob> getPendingWebArchiveUpdateJobs(final int searchLimit) throws WebArchiveUpdateException {
+        final long now = System.currentTimeMillis();
+        try {
+            return inTransaction(connection -> {
+                final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT " + JOB_COLUMNS + " FROM " + tableName
+                        + " WHERE (" + PENDING_CONDITION + ") AND " + DUE_CONDITION + " ORDER BY created, id")) {
+                    statement.setMaxRows(Math.max(0, searchLimit));
+                    statement.setLong(1, now);
+                    statement.setLong(2, now);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            jobs.add(mapJob(resultSet));
+                        }
+                    }
+                }
+                return jobs;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while searching pending jobs");
+        }
+    }
+
+    @Override
+    public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        if (webArchiveUpdateJobs.length == 0) {
+            return;
+        }
+        final int deleted;
+        try {
+            deleted = inTransaction(connection -> {
+                int count = 0;
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + tableName + " WHERE id = ?")) {
+                    for (int start = 0; start < webArchiveUpdateJobs.length; start += batchSize) {
+                        final int end = Math.min(webArchiveUpdateJobs.length, start + batchSize);
+                        for (int i = start; i < end; i++) {
+                            statement.setString(1, webArchiveUpdateJobs[i].getId());
+                            statement.addBatch();
+                        }
+                        for (int updateCount : statement.executeBatch()) {
+                            count += Math.max(0, updateCount);
+                        }
+                    }
+                }
+                return count;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while deleting {} jobs", webArchiveUpdateJobs.length);
+        }
+        log.debug("Deleted {} jobs", deleted);
+    }
+
+    /**
+     * Expired jobs are deleted with a single statement on the indexed creation date.
+     */
+    @Override
+    public long purgeOlderThan(final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        final List<Object> params = new ArrayList<>();
+        params.add(olderThan.getTimeInMillis());
+        final StringBuilder sql = new StringBuilder("DELETE FROM ").append(tableName).append(" WHERE created < ?");
+        appendStatusCondition(sql, params, statuses);
+
+        final long purged;
+        try {
+            purged = inTransaction(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                    bindParams(statement, params);
+                    return statement.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while purging jobs created before {}", olderThan.getTime());
+        }
+        if (purged > 0) {
+            log.info("Purged {} web archive update jobs created before {}", purged, olderThan.getTime());
+        }
+        return purged;
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                   final int offset, final int limit, final String orderByPropertyHint,
+                                                                   final boolean ascending) throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+        search(JOB_COLUMNS, statuses, searchFilters, null, offset, limit, getOrderBy(orderByPropertyHint, ascending),
+                resultSet -> jobs.add(mapJob(resultSet)));
+        return jobs;
+    }
+
+    /**
+     * Summaries are read from the job columns only, the URLs are not read.
+     */
+    @Override
+    public List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                                 final Map<String, String> searchFilters, final int offset,
+                                                                                 final int limit, final String orderByPropertyHint,
+                                                                                 final boolean ascending) throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJobSummary> summaries = new ArrayList<>();
+        search(SUMMARY_COLUMNS, statuses, searchFilters, null, offset, limit, getOrderBy(orderByPropertyHint, ascending),
+                resultSet -> summaries.add(mapSummary(resultSet)));
+        return summaries;
+    }
+
+    /**
+     * Keyset paging on (last modification date, identifier), which is indexed; the token holds the key of the last
+     * job of the page.
+     */
+    @Override
+    public WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final String continuationToken, final int limit) throws WebArchiveUpdateException {
+        final String[] key = decodeContinuationToken(continuationToken);
+        final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+        search(JOB_COLUMNS, statuses, searchFilters, key, 0, limit, "last_modified, id", resultSet -> jobs.add(mapJob(resultSet)));
+        if (jobs.isEmpty() || jobs.size() < limit) {
+            return new WebArchiveUpdateJobsPage(jobs, null);
+        }
+        return new WebArchiveUpdateJobsPage(jobs, encodeContinuationToken(jobs.get(jobs.size() - 1)));
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        void handle(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * The offset is skipped on the result set, as the syntax of an offset differs between databases.
+     */
+    private void search(final String columns, final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                        final String[] afterKey, final int offset, final int limit, final String orderBy,
+                        final RowHandler rowHandler) throws WebArchiveUpdateException {
+        if (limit <= 0) {
+            return;
+        }
+        final List<Object> params = new ArrayList<>();
+        final StringBuilder sql = new StringBuilder("SELECT ").append(columns).append(" FROM ").append(tableName).append(" WHERE 1 = 1");
+        appendStatusCondition(sql, params, statuses);
+        if (searchFilters != null) {
+            for (Map.Entry<String, String> filter : searchFilters.entrySet()) {
+                final String column = getFilterColumnName(filter.getKey());
+                if (column == null) {
+                    log.debug("Unsupported search filter '{}'", filter.getKey());
+                    return;
+                }
+                sql.append(" AND ").append(column).append(" = ?");
+                if ("attempt".equals(column)) {
+                    try {
+                        params.add(Long.parseLong(filter.getValue()));
+                    } catch (NumberFormatException e) {
+                        return;
+                    }
+                } else {
+                    params.add(filter.getValue());
+                }
+            }
+        }
+        if (afterKey != null) {
+            final long lastModified = Long.parseLong(afterKey[0]);
+            sql.append(" AND (last_modified > ? OR (last_modified = ? AND id > ?))");
+            params.add(lastModified);
+            params.add(lastModified);
+            params.add(afterKey[1]);
+        }
+        sql.append(" ORDER BY ").append(orderBy);
+
+        final int skip = Math.max(0, offset);
+        try {
+            inTransaction(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                    statement.setMaxRows((int) Math.min(Integer.MAX_VALUE, (long) skip + limit));
+                    bindParams(statement, params);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        int row = 0;
+                        while (resultSet.next()) {
+                            if (row++ >= skip) {
+                                rowHandler.handle(resultSet);
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while searching jobs with statuses {} and filters {}", statuses, searchFilters);
+        }
+    }
+
+    private static void appendStatusCondition(final StringBuilder sql, final List<Object> params, final List<WebArchiveUpdateJobStatus> statuses) {
+        if (statuses == null || statuses.isEmpty()) {
+            return;
+        }
+        sql.append(" AND status IN (");
+        for (int i = 0; i < statuses.size(); i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+            params.add(statuses.get(i) != null ? statuses.get(i).name() : WebArchiveUpdateJobStatus.UNDEFINED.name());
+        }
+        sql.append(')');
+    }
+
+    /**
+     * The counts are made by the database with a single grouped count.
+     */
+    @Override
+    public Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        final Map<WebArchiveUpdateJobStatus, Long> counts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+            counts.put(status, 0L);
+        }
+        try {
+            inTransaction(connection -> {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT status, COUNT(*) FROM " + tableName + " GROUP BY status")) {
+                    while (resultSet.next()) {
+                        counts.merge(parseStatus(resultSet.getString(1)), resultSet.getLong(2), Long::sum);
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new WebArchiveUpdateException(e, "Error while counting jobs");
+        }
+        return counts;
+    }
+
+    /**
+     * Execute {@code transaction} on a connection of the data source without auto commit, commit when it completes
+     * and roll back when it fails.
+     */
+    protected <T> T inTransaction(final Transaction<T> transaction) throws SQLException, WebArchiveUpdateException {
+        final DataSource currentDataSource = dataSource;
+        if (currentDataSource == null) {
+            throw new WebArchiveUpdateException("Updates store {} is not initialized", tableName);
+        }
+        try (Connection connection = currentDataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                final T result = transaction.execute(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | WebArchiveUpdateException | RuntimeException e) {
+                rollback(connection);
+                throw e;
+            } finally {
+                restoreAutoCommit(connection, autoCommit);
+            }
+        }
+    }
+
+    private static void rollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("Error while rolling back transaction", e);
+        }
+    }
+
+    private static void restoreAutoCommit(final Connection connection, final boolean autoCommit) {
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            log.warn("Error while restoring auto commit of connection", e);
+        }
+    }
+
+    private static void bindJob(final PreparedStatement statement, final WebArchiveUpdateJob job) throws SQLException {
+        final WebArchiveUpdate update = job.getWebArchiveUpdate();
+        final List<String> urls = update.getUrls() != null ? update.getUrls() : Collections.emptyList();
+        statement.setString(1, job.getId());
+        bindField(statement, 2, job, WebArchiveUpdateJob.Field.STATUS);
+        bindField(statement, 3, job, WebArchiveUpdateJob.Field.CREATED);
+        bindField(statement, 4, job, WebArchiveUpdateJob.Field.LAST_MODIFIED);
+        bindField(statement, 5, job, WebArchiveUpdateJob.Field.ATTEMPT);
+        bindField(statement, 6, job, WebArchiveUpdateJob.Field.OWNER);
+        bindField(statement, 7, job, WebArchiveUpdateJob.Field.LEASE_EXPIRATION);
+        bindField(statement, 8, job, WebArchiveUpdateJob.Field.NEXT_ATTEMPT);
+        statement.setString(9, update.getId());
+        statement.setString(10, (update.getType() != null ? update.getType() : WebArchiveUpdateType.UNDEFINED).name());
+        statement.setString(11, update.getCreator());
+        bindMillis(statement, 12, update.getCreated());
+        statement.setInt(13, urls.size());
+        statement.setString(14, UrlListCodec.encode(urls));
+    }
+
+    private static void bindField(final PreparedStatement statement, final int index, final WebArchiveUpdateJob job,
+                                  final WebArchiveUpdateJob.Field field) throws SQLException {
+        switch (field) {
+            case CREATED:
+                statement.setLong(index, job.getCreated() != null ? job.getCreated().getTimeInMillis() : System.currentTimeMillis());
+                break;
+            case LAST_MODIFIED:
+                statement.setLong(index, job.getLastModified() != null ? job.getLastModified().getTimeInMillis() : System.currentTimeMillis());
+                break;
+            case STATUS:
+                statement.setString(index, (job.getStatus() != null ? job.getStatus() : WebArchiveUpdateJobStatus.UNDEFINED).name());
+                break;
+            case ATTEMPT:
+                statement.setLong(index, job.getAttempt());
+                break;
+            case OWNER:
+                statement.setString(index, job.getOwner());
+                break;
+            case LEASE_EXPIRATION:
+                bindMillis(statement, index, job.getLeaseExpiration());
+                break;
+            case NEXT_ATTEMPT:
+                bindMillis(statement, index, job.getNextAttemptAt());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported field " + field);
+        }
+    }
+
+    private static void bindMillis(final PreparedStatement statement, final int index, final Calendar calendar) throws SQLException {
+        if (calendar != null) {
+            statement.setLong(index, calendar.getTimeInMillis());
+        } else {
+            statement.setNull(index, Types.BIGINT);
+        }
+    }
+
+    private static void bindParams(final PreparedStatement statement, final List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            final Object param = params.get(i);
+            if (param instanceof Long) {
+                statement.setLong(i + 1, (Long) param);
+            } else {
+                statement.setString(i + 1, (String) param);
+            }
+        }
+    }
+
+    private static String getColumnName(final WebArchiveUpdateJob.Field field) {
+        switch (field) {
+            case CREATED:
+                return "created";
+            case LAST_MODIFIED:
+                return "last_modified";
+            case STATUS:
+                return "status";
+            case ATTEMPT:
+                return "attempt";
+            case OWNER:
+                return "owner_id";
+            case LEASE_EXPIRATION:
+                return "lease_expiration";
+            case NEXT_ATTEMPT:
+                return "next_attempt";
+            default:
+                throw new IllegalArgumentException("Unsupported field " + field);
+        }
+    }
+
+    /**
+     * @return the column of a search filter, or null if the filter is not supported
+     */
+    private static String getFilterColumnName(final String filterName) {
+        switch (getAttributeName(filterName)) {
+            case "id":
+                return "id";
+            case "status":
+                return "status";
+            case "owner":
+                return "owner_id";
+            case "attempt":
+                return "attempt";
+            case "creator":
+                return "update_creator";
+            case "type":
+                return "update_type";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Jobs are ordered by last modification date in descending order when no order is given, as in the JCR store.
+     */
+    private static String getOrderBy(final String orderByPropertyHint, final boolean ascending) {
+        final String direction = ascending ? " ASC" : " DESC";
+        switch (getAttributeName(orderByPropertyHint)) {
+            case "":
+                return "last_modified DESC, id DESC";
+            case "created":
+                return "created" + direction + ", id" + direction;
+            case "status":
+                return "status" + direction + ", id" + direction;
+            case "attempt":
+                return "attempt" + direction + ", id" + direction;
+            case "creator":
+                return "update_creator" + direction + ", id" + direction;
+            case "type":
+                return "update_type" + direction + ", id" + direction;
+            default:
+                return "last_modified" + direction + ", id" + direction;
+        }
+    }
+
+    /**
+     * @return the attribute name without namespace prefix in lower case, e.g. 'lastmodified' for
+     * 'webarchivingaddon:lastModified'
+     */
+    private static String getAttributeName(final String attrName) {
+        if (attrName == null) {
+            return "";
+        }
+        return attrName.substring(attrName.indexOf(':') + 1).trim().toLowerCase();
+    }
+
+    private static WebArchiveUpdateJob mapJob(final ResultSet resultSet) throws SQLException {
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setId(resultSet.getString("id"));
+        job.setStatus(parseStatus(resultSet.getString("status")));
+        job.setCreated(toCalendar(resultSet, "created"));
+        job.setLastModified(toCalendar(resultSet, "last_modified"));
+        job.setAttempt(resultSet.getLong("attempt"));
+        job.setOwner(resultSet.getString("owner_id"));
+        job.setLeaseExpiration(toCalendar(resultSet, "lease_expiration"));
+        job.setNextAttemptAt(toCalendar(resultSet, "next_attempt"));
+
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setId(resultSet.getString("update_id"));
+        update.setType(parseType(resultSet.getString("update_type")));
+        update.setCreator(resultSet.getString("update_creator"));
+        update.setCreated(toCalendar(resultSet, "update_created"));
+        update.setUrls(UrlListCodec.decode(resultSet.getString("urls")));
+        job.setWebArchiveUpdate(update);
+        job.clearDirty();
+        return job;
+    }
+
+    private static WebArchiveUpdateJobSummary mapSummary(final ResultSet resultSet) throws SQLException {
+        final WebArchiveUpdateJobSummary summary = new WebArchiveUpdateJobSummary();
+        summary.setId(resultSet.getString("id"));
+        summary.setStatus(parseStatus(resultSet.getString("status")));
+        summary.setCreated(toCalendar(resultSet, "created"));
+        summary.setLastModified(toCalendar(resultSet, "last_modified"));
+        summary.setAttempt(resultSet.getLong("attempt"));
+        summary.setType(parseType(resultSet.getString("update_type")));
+        summary.setUrlCount(resultSet.getLong("url_count"));
+        return summary;
+    }
+
+    private static Calendar toCalendar(final ResultSet resultSet, final String column) throws SQLException {
+        final long millis = resultSet.getLong(column);
+        if (resultSet.wasNull()) {
+            return null;
+        }
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    private static WebArchiveUpdateJobStatus parseStatus(final String status) {
+        try {
+            return status != null ? WebArchiveUpdateJobStatus.valueOf(status) : WebArchiveUpdateJobStatus.UNDEFINED;
+        } catch (IllegalArgumentException e) {
+            return WebArchiveUpdateJobStatus.UNDEFINED;
+        }
+    }
+
+    private static WebArchiveUpdateType parseType(final String type) {
+        try {
+            return type != null ? WebArchiveUpdateType.valueOf(type) : WebArchiveUpdateType.UNDEFINED;
+        } catch (IllegalArgumentException e) {
+            return WebArchiveUpdateType.UNDEFINED;
+        }
+    }
+
+    private static String encodeContinuationToken(final WebArchiveUpdateJob job) {
+        final String key = job.getLastModified().getTimeInMillis() + "|" + job.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeContinuationToken(final String continuationToken) throws WebArchiveUpdateException {
+        if (continuationToken == null) {
+            return null;
+        }
+        try {
+            final String[] key = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8).split("\\|", 2);
+            Long.parseLong(key[0]);
+            if (key.length != 2) {
+                throw new IllegalArgumentException("Missing identifier");
+            }
+            return key;
+        } catch (IllegalArgumentException e) {
+            throw new WebArchiveUpdateException(e, "Invalid continuation token '{}'", continuationToken);
+        }
+    }
+
+    private static long parseNumber(final String value, final long defaultValue) {
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the JDBC updates jobs manager against an in-memory H2 database, which supports the default
+ * {@code FOR UPDATE SKIP LOCKED} claim.
+ */
+public class JdbcWebArchiveUpdateJobsManagerTest {
+
+    private static final AtomicInteger DATABASE_COUNT = new AtomicInteger();
+
+    private JdbcDataSource dataSource;
+    private JdbcWebArchiveUpdateJobsManager manager;
+
+    @Before
+    public void setUp() throws WebArchiveUpdateException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:updates" + DATABASE_COUNT.incrementAndGet() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+        manager = new JdbcWebArchiveUpdateJobsManager() {
+            @Override
+            protected DataSource lookupDataSource(final String name) {
+                return dataSource;
+            }
+        };
+        manager.initialize(Collections.emptyMap());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.destroy();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    public void createsAndReadsJob() throws WebArchiveUpdateException {
+        final String id = manager.createWebArchiveUpdateJob(newJob("doc-1", "/a", "/b"));
+
+        final WebArchiveUpdateJob job = manager.getWebArchiveUpdateJobById(id);
+        assertEquals(id, job.getId());
+        assertEquals(WebArchiveUpdateJobStatus.QUEUED, job.getStatus());
+        assertEquals("doc-1", job.getWebArchiveUpdate().getId());
+        assertEquals(WebArchiveUpdateType.DOCUMENT, job.getWebArchiveUpdate().getType());
+        assertEquals(Arrays.asList("/a", "/b"), job.getWebArchiveUpdate().getUrls());
+        assertFalse(job.isDirty());
+    }
+
+    @Test
+    public void mergesIntoQueuedJobOfSameUpdate() throws WebArchiveUpdateException {
+        final String id = manager.createOrMergeWebArchiveUpdateJob(newJob("doc-1", "/a", "/b"));
+        final String mergedId = manager.createOrMergeWebArchiveUpdateJob(newJob("doc-1", "/b", "/c"));
+        final String otherId = manager.createOrMergeWebArchiveUpdateJob(newJob("doc-2", "/d"));
+
+        assertEquals(id, mergedId);
+        assertNotEquals(id, otherId);
+        assertEquals(Arrays.asList("/a", "/b", "/c"), manager.getWebArchiveUpdateJobById(id).getWebArchiveUpdate().getUrls());
+    }
+
+    @Test
+    public void doesNotMergeIntoSubmittedJob() throws WebArchiveUpdateException {
+        final String id = manager.createOrMergeWebArchiveUpdateJob(newJob("doc-1", "/a"));
+        assertEquals(1, manager.claimPendingJobs(10, Duration.ofMinutes(5)).size());
+
+        final String newId = manager.createOrMergeWebArchiveUpdateJob(newJob("doc-1", "/b"));
+        assertNotEquals(id, newId);
+        assertEquals(Collections.singletonList("/a"), manager.getWebArchiveUpdateJobById(id).getWebArchiveUpdate().getUrls());
+    }
+
+    @Test
+    public void claimsPendingJobsInCreationOrder() throws WebArchiveUpdateException {
+        final List<String> ids = manager.createWebArchiveUpdateJobs(newJobs(5));
+
+        final List<WebArchiveUpdateJob> claimed = manager.claimPendingJobs(3, Duration.ofMinutes(5));
+        assertEquals(ids.subList(0, 3), getIds(claimed));
+        for (WebArchiveUpdateJob job : claimed) {
+            assertEquals(WebArchiveUpdateJobStatus.SUBMITTED, job.getStatus());
+            assertTrue(job.getLeaseExpiration().after(Calendar.getInstance()));
+            assertEquals(WebArchiveUpdateJobStatus.SUBMITTED, manager.getWebArchiveUpdateJobById(job.getId()).getStatus());
+        }
+        assertEquals(ids.subList(3, 5), getIds(manager.claimPendingJobs(10, Duration.ofMinutes(5))));
+        assertTrue(manager.claimPendingJobs(10, Duration.ofMinutes(5)).isEmpty());
+    }
+
+    @Test
+    public void claimsJobsOfExpiredLease() throws WebArchiveUpdateException {
+        final List<String> ids = manager.createWebArchiveUpdateJobs(newJobs(2));
+        assertEquals(2, manager.claimPendingJobs(10, Duration.ZERO).size());
+
+        assertEquals(ids, getIds(manager.claimPendingJobs(10, Duration.ofMinutes(5))));
+        assertTrue(manager.claimPendingJobs(10, Duration.ofMinutes(5)).isEmpty());
+    }
+
+    @Test
+    public void skipsJobsWaitingForNextAttempt() throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> jobs = newJobs(2);
+        final Calendar later = Calendar.getInstance();
+        later.add(Calendar.HOUR, 1);
+        jobs.get(0).setNextAttemptAt(later);
+        final List<String> ids = manager.createWebArchiveUpdateJobs(jobs);
+
+        assertEquals(ids.subList(1, 2), getIds(manager.getPendingWebArchiveUpdateJobs(10)));
+        assertEquals(ids.subList(1, 2), getIds(manager.claimPendingJobs(10, Duration.ofMinutes(5))));
+    }
+
+    @Test
+    public void concurrentClaimsDoNotOverlap() throws Exception {
+        final int jobCount = 60;
+        final int claimers = 2;
+        manager.createWebArchiveUpdateJobs(newJobs(jobCount));
+
+        final CyclicBarrier barrier = new CyclicBarrier(claimers);
+        final ExecutorService executor = Executors.newFixedThreadPool(claimers);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < claimers; i++) {
+                futures.add(executor.submit(() -> {
+                    final List<String> claimedIds = new ArrayList<>();
+                    barrier.await();
+                    List<WebArchiveUpdateJob> claimed;
+                    while (!(claimed = manager.claimPendingJobs(5, Duration.ofMinutes(5))).isEmpty()) {
+                        claimedIds.addAll(getIds(claimed));
+                    }
+                    return claimedIds;
+                }));
+            }
+
+            final Set<String> allIds = new HashSet<>();
+            int total = 0;
+            for (Future<List<String>> future : futures) {
+                final List<String> claimedIds = future.get(30, TimeUnit.SECONDS);
+                total += claimedIds.size();
+                allIds.addAll(claimedIds);
+            }
+            assertEquals(jobCount, total);
+            assertEquals(jobCount, allIds.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void updatesChangedColumnsOnly() throws Exception {
+        final String id = manager.createWebArchiveUpdateJob(newJob("doc-1", "/a"));
+        final WebArchiveUpdateJob job = manager.getWebArchiveUpdateJobById(id);
+
+        // concurrent change of a column that the update below does not touch
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("UPDATE webarchiving_update_job SET attempt = 7 WHERE id = ?")) {
+            statement.setString(1, id);
+            assertEquals(1, statement.executeUpdate());
+        }
+
+        job.setStatus(WebArchiveUpdateJobStatus.ACKNOWLEDGED);
+        assertEquals(Collections.singleton(WebArchiveUpdateJob.Field.STATUS), job.getDirtyFields());
+        manager.updateWebArchiveUpdateJob(job);
+        assertFalse(job.isDirty());
+
+        final WebArchiveUpdateJob updated = manager.getWebArchiveUpdateJobById(id);
+        assertEquals(WebArchiveUpdateJobStatus.ACKNOWLEDGED, updated.getStatus());
+        assertEquals(7L, updated.getAttempt());
+    }
+
+    @Test(expected = WebArchiveUpdateException.class)
+    public void failsToUpdateMissingJob() throws WebArchiveUpdateException {
+        final WebArchiveUpdateJob job = newJob("doc-1", "/a");
+        job.setId("job_missing");
+        job.setStatus(WebArchiveUpdateJobStatus.ERROR);
+        manager.updateWebArchiveUpdateJob(job);
+    }
+
+    @Test
+    public void purgesJobsCreatedBeforeDateWithStatuses() throws WebArchiveUpdateException {
+        final Calendar old = Calendar.getInstance();
+        old.add(Calendar.DATE, -10);
+        final List<WebArchiveUpdateJob> jobs = newJobs(4);
+        for (WebArchiveUpdateJob job : jobs.subList(0, 3)) {
+            job.setCreated((Calendar) old.clone());
+        }
+        jobs.get(0).setStatus(WebArchiveUpdateJobStatus.ACKNOWLEDGED);
+        jobs.get(1).setStatus(WebArchiveUpdateJobStatus.ERROR);
+        jobs.get(3).setStatus(WebArchiveUpdateJobStatus.ACKNOWLEDGED);
+        final List<String> ids = manager.createWebArchiveUpdateJobs(jobs);
+
+        final Calendar olderThan = Calendar.getInstance();
+        olderThan.add(Calendar.DATE, -1);
+        assertEquals(2, manager.purgeOlderThan(olderThan, Arrays.asList(WebArchiveUpdateJobStatus.CATEGORY_COMPLETED)));
+
+        final List<WebArchiveUpdateJob> remaining = manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, "created", true);
+        assertEquals(ids.subList(2, 4), getIds(remaining));
+    }
+
+    @Test
+    public void pagesWithContinuationToken() throws WebArchiveUpdateException {
+        final List<String> ids = manager.createWebArchiveUpdateJobs(newJobs(7));
+        final Set<String> pagedIds = new HashSet<>();
+
+        WebArchiveUpdateJobsPage page = manager.searchForWebArchiveUpdateJobs(null, null, null, 3);
+        int pages = 1;
+        pagedIds.addAll(getIds(page.getJobs()));
+        while (page.hasNext()) {
+            page = manager.searchForWebArchiveUpdateJobs(null, null, page.getContinuationToken(), 3);
+            pagedIds.addAll(getIds(page.getJobs()));
+            pages++;
+        }
+        assertEquals(3, pages);
+        assertEquals(new HashSet<>(ids), pagedIds);
+        assertNull(page.getContinuationToken());
+    }
+
+    @Test
+    public void pagesWithStatusAndFilter() throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> jobs = newJobs(4);
+        jobs.get(1).setStatus(WebArchiveUpdateJobStatus.ERROR);
+        jobs.get(2).setStatus(WebArchiveUpdateJobStatus.ERROR);
+        jobs.get(2).getWebArchiveUpdate().setCreator("editor");
+        final List<String> ids = manager.createWebArchiveUpdateJobs(jobs);
+
+        final List<WebArchiveUpdateJobStatus> errors = Collections.singletonList(WebArchiveUpdateJobStatus.ERROR);
+        assertEquals(2, manager.searchForWebArchiveUpdateJobs(errors, null, null, 10).getJobs().size());
+
+        final Map<String, String> filters = new HashMap<>();
+        filters.put("webarchivingaddon:creator", "editor");
+        assertEquals(ids.subList(2, 3), getIds(manager.searchForWebArchiveUpdateJobs(errors, filters, null, 10).getJobs()));
+    }
+
+    @Test(expected = WebArchiveUpdateException.class)
+    public void rejectsInvalidContinuationToken() throws WebArchiveUpdateException {
+        manager.searchForWebArchiveUpdateJobs(null, null, "not a token", 10);
+    }
+
+    @Test
+    public void countsByStatus() throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> jobs = newJobs(5);
+        jobs.get(0).setStatus(WebArchiveUpdateJobStatus.ACKNOWLEDGED);
+        jobs.get(1).setStatus(WebArchiveUpdateJobStatus.ERROR);
+        jobs.get(2).setStatus(WebArchiveUpdateJobStatus.ERROR);
+        manager.createWebArchiveUpdateJobs(jobs);
+
+        final Map<WebArchiveUpdateJobStatus, Long> counts = manager.countByStatus();
+        assertEquals(Long.valueOf(2), counts.get(WebArchiveUpdateJobStatus.QUEUED));
+        assertEquals(Long.valueOf(1), counts.get(WebArchiveUpdateJobStatus.ACKNOWLEDGED));
+        assertEquals(Long.valueOf(2), counts.get(WebArchiveUpdateJobStatus.ERROR));
+        assertEquals(Long.valueOf(0), counts.get(WebArchiveUpdateJobStatus.SUBMITTED));
+    }
+
+    @Test
+    public void deletesJobs() throws WebArchiveUpdateException {
+        manager.createWebArchiveUpdateJobs(newJobs(3));
+        final List<WebArchiveUpdateJob> jobs = manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, null, true);
+
+        manager.deleteWebArchiveUpdateJobs(jobs.get(0), jobs.get(2));
+        assertEquals(Collections.singletonList(jobs.get(1).getId()),
+                getIds(manager.searchForWebArchiveUpdateJobs(null, null, 0, 10, null, true)));
+    }
+
+    private static List<WebArchiveUpdateJob> newJobs(final int count) {
+        final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+        final Calendar created = Calendar.getInstance();
+        for (int i = 0; i < count; i++) {
+            final WebArchiveUpdateJob job = newJob("doc-" + i, "/doc-" + i);
+            // distinct creation dates, so that the creation order is deterministic
+            final Calendar jobCreated = (Calendar) created.clone();
+            jobCreated.add(Calendar.MILLISECOND, i - count);
+            job.setCreated(jobCreated);
+            job.setLastModified(jobCreated);
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    private static WebArchiveUpdateJob newJob(final String updateId, final String... urls) {
+        final WebArchiveUpdate update = new WebArchiveUpdate();
+        update.setId(updateId);
+        update.setType(WebArchiveUpdateType.DOCUMENT);
+        update.setCreator("admin");
+        update.setCreated(Calendar.getInstance());
+        update.setUrls(new ArrayList<>(Arrays.asList(urls)));
+        final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+        job.setWebArchiveUpdate(update);
+        return job;
+    }
+
+    private static List<String> getIds(final List<WebArchiveUpdateJob> jobs) {
+        final List<String> ids = new ArrayList<>();
+        for (WebArchiveUpdateJob job : jobs) {
+            ids.add(job.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.decorator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.cms.util.Decorating;
+import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
+import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates an updates jobs manager with a cache of search results, for the screens and monitoring that repeatedly
+ * run the same searches. Results are cached by their normalized search parameters for at most {@code cacheTtl}
+ * milliseconds; at most {@code maxCacheEntries} results are kept, the least recently used are evicted first.
+ * <p>
+ * Every change made through this manager clears the cache. Changes made by other cluster nodes are seen once the
+ * cached results expire. The convenience methods used by the updates processor to get pending jobs, as well as
+ * claims, are not cached. Cached jobs are copied when returned; summaries are shared.
+ */
+public class CachingWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManager, Decorating<WebArchiveUpdateJobsManager>,
+        PlatformManaged, Discoverable {
+
+    private static Logger log = LoggerFactory.getLogger(CachingWebArchiveUpdateJobsManager.class);
+
+    protected static final String CONFIG_PROP_CACHE_TTL = "cacheTtl";
+    protected static final String CONFIG_PROP_MAX_CACHE_ENTRIES = "maxCacheEntries";
+    protected static final long DEFAULT_CACHE_TTL = 5000L;
+    protected static final long DEFAULT_MAX_CACHE_ENTRIES = 100L;
+
+    /**
+     * Normalized parameters of a search: the statuses are a set, the filters are sorted by name and the order is the
+     * property name without namespace prefix in lower case.
+     */
+    private static final class SearchKey {
+        private final String method;
+        private final Set<WebArchiveUpdateJobStatus> statuses;
+        private final Map<String, String> searchFilters;
+        private final int offset;
+        private final int limit;
+        private final String orderBy;
+        private final boolean ascending;
+        private final String continuationToken;
+
+        SearchKey(final String method, final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                  final int offset, final int limit, final String orderByPropertyHint, final boolean ascending,
+                  final String continuationToken) {
+            this.method = method;
+            this.statuses = statuses == null || statuses.isEmpty() ? Collections.emptySet() : EnumSet.copyOf(statuses);
+            this.searchFilters = searchFilters == null ? Collections.emptyMap() : new TreeMap<>(searchFilters);
+            this.offset = offset;
+            this.limit = limit;
+            this.orderBy = orderByPropertyHint == null ? ""
+                    : orderByPropertyHint.substring(orderByPropertyHint.indexOf(':') + 1).trim().toLowerCase();
+            this.ascending = ascending;
+            this.continuationToken = continuationToken;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SearchKey)) {
+                return false;
+            }
+            final SearchKey other = (SearchKey) o;
+            return offset == other.offset && limit == other.limit && ascending == other.ascending
+                    && method.equals(other.method) && statuses.equals(other.statuses) && searchFilters.equals(other.searchFilters)
+                    && orderBy.equals(other.orderBy) && Objects.equals(continuationToken, other.continuationToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, statuses, searchFilters, offset, limit, orderBy, ascending, continuationToken);
+        }
+    }
+
+    private static final class CacheEntry {
+        private final Object value;
+        private final long expiration;
+
+        CacheEntry(final Object value, final long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Search<T> {
+        T execute() throws WebArchiveUpdateException;
+    }
+
+    private static final SearchKey COUNT_KEY = new SearchKey("count", null, null, 0, 0, null, true, null);
+
+    private final Object cacheLock = new Object();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private WebArchiveUpdateJobsManager delegate;
+    private Map<SearchKey, CacheEntry> cache = createCache(DEFAULT_MAX_CACHE_ENTRIES);
+
+    protected long cacheTtl = DEFAULT_CACHE_TTL;
+    protected long maxCacheEntries = DEFAULT_MAX_CACHE_ENTRIES;
+
+    @Override
+    public void setDelegate(final WebArchiveUpdateJobsManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public WebArchiveUpdateJobsManager getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
+        if (delegate == null) {
+            throw new WebArchiveUpdateException("No updates jobs manager to decorate");
+        }
+
+        cacheTtl = Math.max(0L, parseNumber(props.get(CONFIG_PROP_CACHE_TTL), DEFAULT_CACHE_TTL));
+        maxCacheEntries = Math.max(1L, parseNumber(props.get(CONFIG_PROP_MAX_CACHE_ENTRIES), DEFAULT_MAX_CACHE_ENTRIES));
+        synchronized (cacheLock) {
+            cache = createCache(maxCacheEntries);
+            generation.incrementAndGet();
+        }
+        log.info("Caching search results for {} ms, at most {} results", cacheTtl, maxCacheEntries);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        log.debug("Destroying {}", this.getClass().getName());
+        invalidate();
+        log.info("Search result cache had {} hits and {} misses, evicted {} results and was invalidated {} times", hitCount.get(),
+                missCount.get(), evictionCount.get(), invalidationCount.get());
+    }
+
+    private Map<SearchKey, CacheEntry> createCache(final long maxEntries) {
+        return new LinkedHashMap<SearchKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<SearchKey, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        try {
+            return delegate.createWebArchiveUpdateJob(webArchiveUpdateJob);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public List<String> createWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        try {
+            return delegate.createWebArchiveUpdateJobs(webArchiveUpdateJobs);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public String createOrMergeWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        try {
+            return delegate.createOrMergeWebArchiveUpdateJob(webArchiveUpdateJob);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) throws WebArchiveUpdateException {
+        return delegate.getWebArchiveUpdateJobById(webArchiveUpdateJobId);
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        try {
+            delegate.updateWebArchiveUpdateJob(webArchiveUpdateJob);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        try {
+            delegate.updateWebArchiveUpdateJobs(webArchiveUpdateJobs);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        try {
+            delegate.deleteWebArchiveUpdateJobs(webArchiveUpdateJobs);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public long purgeOlderThan(final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        try {
+            return delegate.purgeOlderThan(olderThan, statuses);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) throws WebArchiveUpdateException {
+        try {
+            return delegate.claimPendingJobs(max, lease);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                   final int offset, final int limit, final String orderByPropertyHint,
+                                                                   final boolean ascending) throws WebArchiveUpdateException {
+        final SearchKey key = new SearchKey("jobs", statuses, searchFilters, offset, limit, orderByPropertyHint, ascending, null);
+        final List<WebArchiveUpdateJob> jobs = cached(key, () ->
+                delegate.searchForWebArchiveUpdateJobs(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending));
+        return copy(jobs);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                                 final Map<String, String> searchFilters, final int offset,
+                                                                                 final int limit, final String orderByPropertyHint,
+                                                                                 final boolean ascending) throws WebArchiveUpdateException {
+        final SearchKey key = new SearchKey("summaries", statuses, searchFilters, offset, limit, orderByPropertyHint, ascending, null);
+        return new ArrayList<>(cached(key, () ->
+                delegate.searchForWebArchiveUpdateJobSummaries(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending)));
+    }
+
+    @Override
+    public WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final String continuationToken, final int limit) throws WebArchiveUpdateException {
+        final SearchKey key = new SearchKey("page", statuses, searchFilters, 0, limit, null, true, continuationToken);
+        final WebArchiveUpdateJobsPage page = cached(key, () ->
+                delegate.searchForWebArchiveUpdateJobs(statuses, searchFilters, continuationToken, limit));
+        return new WebArchiveUpdateJobsPage(copy(page.getJobs()), page.getContinuationToken());
+    }
+
+    /**
+     * Streams page through the decorated manager directly, so that a long iteration does not fill the cache.
+     */
+    @Override
+    public Stream<WebArchiveUpdateJob> streamWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final int pageSize) {
+        return delegate.streamWebArchiveUpdateJobs(statuses, searchFilters, pageSize);
+    }
+
+    @Override
+    public Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        final Map<WebArchiveUpdateJobStatus, Long> counts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        counts.putAll(cached(COUNT_KEY, delegate::countByStatus));
+        return counts;
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> getAllWebArchiveUpdateJobs(final int searchLimit) throws WebArchiveUpdateException {
+        return delegate.getAllWebArchiveUpdateJobs(searchLimit);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> getPendingWebArchiveUpdateJobs(final int searchLimit) throws WebArchiveUpdateException {
+        return delegate.getPendingWebArchiveUpdateJobs(searchLimit);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> getCompletedWebArchiveUpdateJobs(final int searchLimit) throws WebArchiveUpdateException {
+        return delegate.getCompletedWebArchiveUpdateJobs(searchLimit);
+    }
+
+    /**
+     * Get the cached result of a search, or execute the search and cache its result. A result is only cached when the
+     * cache has not been invalidated while the search was executed, as it may not contain the changes made since.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(final SearchKey key, final Search<T> search) throws WebArchiveUpdateException {
+        final long searchGeneration;
+        synchronized (cacheLock) {
+            final CacheEntry entry = cache.get(key);
+            if (entry != null && entry.expiration - System.nanoTime() > 0) {
+                hitCount.incrementAndGet();
+                return (T) entry.value;
+            }
+            if (entry != null) {
+                cache.remove(key);
+            }
+            searchGeneration = generation.get();
+        }
+
+        missCount.incrementAndGet();
+        final T result = search.execute();
+        if (cacheTtl > 0) {
+            synchronized (cacheLock) {
+                if (generation.get() == searchGeneration) {
+                    cache.put(key, new CacheEntry(result, System.nanoTime() + cacheTtl * 1000000L));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clear the cached search results.
+     */
+    public void invalidate() {
+        synchronized (cacheLock) {
+            generation.incrementAndGet();
+            if (!cache.isEmpty()) {
+                cache.clear();
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static List<WebArchiveUpdateJob> copy(final List<WebArchiveUpdateJob> jobs) {
+        return jobs.stream().map(WebArchiveUpdateJob::new).collect(Collectors.toList());
+    }
+
+    public int getCachedResultCount() {
+        synchronized (cacheLock) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the fraction of searches answered from the cache, or 0 if there have been no searches
+     */
+    public double getHitRatio() {
+        final long hits = hitCount.get();
+        final long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    protected static long parseNumber(final String value, final long defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
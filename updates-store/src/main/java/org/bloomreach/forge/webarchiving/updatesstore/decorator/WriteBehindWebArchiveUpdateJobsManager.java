@@ -0,0 +1,386 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.decorator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.bloomreach.forge.webarchiving.cms.util.Decorating;
+import org.bloomreach.forge.webarchiving.cms.util.Discoverable;
+import org.bloomreach.forge.webarchiving.cms.util.PlatformManaged;
+import org.bloomreach.forge.webarchiving.common.api.WebArchiveUpdateJobsManager;
+import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates an updates jobs manager with a write-behind buffer for job updates. Updates are kept in memory, where
+ * successive updates of the same job are coalesced, and written to the decorated manager in batches every
+ * {@code flushInterval} milliseconds, when {@code maxDirtyJobs} jobs are buffered and on shutdown.
+ * <p>
+ * Reading a buffered job returns the buffered state. Searches and claims flush the buffer first, so that they see
+ * all updates. Creations and deletions are passed on directly.
+ * <p>
+ * With durability 'sync', the default, every update is written through before returning. With durability 'async' the
+ * updates are buffered, and the updates buffered when the cluster node goes down are lost. For the processor this
+ * means a job can remain submitted until its lease expires, after which it is claimed and submitted again.
+ */
+public class WriteBehindWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManager, Decorating<WebArchiveUpdateJobsManager>,
+        PlatformManaged, Discoverable {
+
+    private static Logger log = LoggerFactory.getLogger(WriteBehindWebArchiveUpdateJobsManager.class);
+
+    protected static final String CONFIG_PROP_FLUSH_INTERVAL = "flushInterval";
+    protected static final String CONFIG_PROP_MAX_DIRTY_JOBS = "maxDirtyJobs";
+    protected static final String CONFIG_PROP_DURABILITY = "durability";
+    protected static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+    protected static final long DEFAULT_MAX_DIRTY_JOBS = 1000L;
+
+    /**
+     * When updates are written to the decorated manager.
+     */
+    protected enum Durability {
+        /** updates are buffered and written in the background */
+        ASYNC,
+        /** updates are written before returning */
+        SYNC
+    }
+
+    protected static final Durability DEFAULT_DURABILITY = Durability.SYNC;
+
+    private final Object dirtyLock = new Object();
+    private final Object flushLock = new Object();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedJobCount = new AtomicLong();
+    private final AtomicLong coalescedUpdateCount = new AtomicLong();
+    private final AtomicLong failedJobCount = new AtomicLong();
+
+    private WebArchiveUpdateJobsManager delegate;
+    private Map<String, WebArchiveUpdateJob> dirtyJobs = new LinkedHashMap<>();
+    private ScheduledExecutorService flushExecutor;
+
+    protected long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    protected long maxDirtyJobs = DEFAULT_MAX_DIRTY_JOBS;
+    protected volatile Durability durability = DEFAULT_DURABILITY;
+
+    @Override
+    public void setDelegate(final WebArchiveUpdateJobsManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public WebArchiveUpdateJobsManager getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
+        if (delegate == null) {
+            throw new WebArchiveUpdateException("No updates jobs manager to decorate");
+        }
+
+        flushInterval = Math.max(1L, parseNumber(props.get(CONFIG_PROP_FLUSH_INTERVAL), DEFAULT_FLUSH_INTERVAL));
+        maxDirtyJobs = Math.max(1L, parseNumber(props.get(CONFIG_PROP_MAX_DIRTY_JOBS), DEFAULT_MAX_DIRTY_JOBS));
+        final String value = props.get(CONFIG_PROP_DURABILITY);
+        Durability configuredDurability;
+        try {
+            configuredDurability = StringUtils.isBlank(value) ? DEFAULT_DURABILITY : Durability.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Incorrect durability '{}'. Setting to default '{}'", value, DEFAULT_DURABILITY);
+            configuredDurability = DEFAULT_DURABILITY;
+        }
+
+        stopFlushing();
+        if (configuredDurability == Durability.ASYNC) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "web-archiving-updates-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        durability = configuredDurability;
+        log.info("Write-behind of job updates with durability {}, flush interval {} ms and at most {} dirty jobs", durability,
+                flushInterval, maxDirtyJobs);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        log.debug("Destroying {}", this.getClass().getName());
+        durability = Durability.SYNC;
+        stopFlushing();
+        flushQuietly();
+        log.info("Flushed {} job updates in {} flushes, coalesced {} updates, dropped {} failed updates", flushedJobCount.get(),
+                flushCount.get(), coalescedUpdateCount.get(), failedJobCount.get());
+    }
+
+    private void stopFlushing() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                if (!flushExecutor.awaitTermination(flushInterval + 10000L, TimeUnit.MILLISECONDS)) {
+                    log.warn("Write-behind flush did not finish in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushExecutor = null;
+        }
+    }
+
+    @Override
+    public String createWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        return delegate.createWebArchiveUpdateJob(webArchiveUpdateJob);
+    }
+
+    @Override
+    public List<String> createWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        return delegate.createWebArchiveUpdateJobs(webArchiveUpdateJobs);
+    }
+
+    /**
+     * Flushes first, as a buffered update may change the status of the queued job to merge into.
+     */
+    @Override
+    public String createOrMergeWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        flush();
+        return delegate.createOrMergeWebArchiveUpdateJob(webArchiveUpdateJob);
+    }
+
+    @Override
+    public WebArchiveUpdateJob getWebArchiveUpdateJobById(final String webArchiveUpdateJobId) throws WebArchiveUpdateException {
+        synchronized (dirtyLock) {
+            final WebArchiveUpdateJob dirtyJob = dirtyJobs.get(webArchiveUpdateJobId);
+            if (dirtyJob != null) {
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob(dirtyJob);
+                job.clearDirty();
+                return job;
+            }
+        }
+        return delegate.getWebArchiveUpdateJobById(webArchiveUpdateJobId);
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        if (durability == Durability.SYNC) {
+            delegate.updateWebArchiveUpdateJob(webArchiveUpdateJob);
+            return;
+        }
+        if (StringUtils.isBlank(webArchiveUpdateJob.getId())) {
+            throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
+        }
+        if (buffer(webArchiveUpdateJob)) {
+            flush();
+        }
+    }
+
+    @Override
+    public void updateWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        if (durability == Durability.SYNC) {
+            delegate.updateWebArchiveUpdateJobs(webArchiveUpdateJobs);
+            return;
+        }
+        boolean full = false;
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (StringUtils.isBlank(webArchiveUpdateJob.getId())) {
+                throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
+            }
+            full |= buffer(webArchiveUpdateJob);
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Buffer a copy of the job. When the job is buffered already, the copy replaces the buffered one and also takes
+     * over its changed fields, so that the delegate writes the changes of both updates.
+     *
+     * @return whether the buffer is full
+     */
+    private boolean buffer(final WebArchiveUpdateJob webArchiveUpdateJob) {
+        synchronized (dirtyLock) {
+            final WebArchiveUpdateJob previous = dirtyJobs.get(webArchiveUpdateJob.getId());
+            if (previous == null && !webArchiveUpdateJob.isDirty()) {
+                return false;
+            }
+            final WebArchiveUpdateJob copy = new WebArchiveUpdateJob(webArchiveUpdateJob);
+            if (previous != null) {
+                copy.markDirty(previous.getDirtyFields().toArray(new WebArchiveUpdateJob.Field[0]));
+                coalescedUpdateCount.incrementAndGet();
+            }
+            dirtyJobs.put(copy.getId(), copy);
+            webArchiveUpdateJob.clearDirty();
+            return dirtyJobs.size() >= maxDirtyJobs;
+        }
+    }
+
+    @Override
+    public void deleteWebArchiveUpdateJobs(final WebArchiveUpdateJob... webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        synchronized (dirtyLock) {
+            for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+                dirtyJobs.remove(webArchiveUpdateJob.getId());
+            }
+        }
+        delegate.deleteWebArchiveUpdateJobs(webArchiveUpdateJobs);
+    }
+
+    /**
+     * Flushes first, so that the status of the buffered jobs is taken into account.
+     */
+    @Override
+    public long purgeOlderThan(final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        flush();
+        return delegate.purgeOlderThan(olderThan, statuses);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                   final int offset, final int limit, final String orderByPropertyHint,
+                                                                   final boolean ascending) throws WebArchiveUpdateException {
+        flush();
+        return delegate.searchForWebArchiveUpdateJobs(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(final List<WebArchiveUpdateJobStatus> statuses,
+                                                                                 final Map<String, String> searchFilters, final int offset,
+                                                                                 final int limit, final String orderByPropertyHint,
+                                                                                 final boolean ascending) throws WebArchiveUpdateException {
+        flush();
+        return delegate.searchForWebArchiveUpdateJobSummaries(statuses, searchFilters, offset, limit, orderByPropertyHint, ascending);
+    }
+
+    @Override
+    public WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final String continuationToken, final int limit) throws WebArchiveUpdateException {
+        flush();
+        return delegate.searchForWebArchiveUpdateJobs(statuses, searchFilters, continuationToken, limit);
+    }
+
+    @Override
+    public List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) throws WebArchiveUpdateException {
+        flush();
+        return delegate.claimPendingJobs(max, lease);
+    }
+
+    @Override
+    public Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        flush();
+        return delegate.countByStatus();
+    }
+
+    /**
+     * Write the buffered updates to the decorated manager. When the batch fails, the jobs are written one by one and
+     * the updates that fail again are dropped, so that a job deleted in the meantime does not block the buffer.
+     *
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    public void flush() throws WebArchiveUpdateException {
+        synchronized (flushLock) {
+            final List<WebArchiveUpdateJob> jobs;
+            synchronized (dirtyLock) {
+                if (dirtyJobs.isEmpty()) {
+                    return;
+                }
+                jobs = new ArrayList<>(dirtyJobs.values());
+                dirtyJobs = new LinkedHashMap<>();
+            }
+
+            flushCount.incrementAndGet();
+            try {
+                delegate.updateWebArchiveUpdateJobs(jobs);
+                flushedJobCount.addAndGet(jobs.size());
+                log.debug("Flushed {} job updates", jobs.size());
+                return;
+            } catch (WebArchiveUpdateException e) {
+                log.warn("Error while flushing {} job updates, retrying one by one: {}", jobs.size(), e.getMessage());
+            }
+
+            WebArchiveUpdateException lastException = null;
+            for (WebArchiveUpdateJob job : jobs) {
+                try {
+                    delegate.updateWebArchiveUpdateJob(job);
+                    flushedJobCount.incrementAndGet();
+                } catch (WebArchiveUpdateException e) {
+                    log.error("Dropping update of job {}", job.getId(), e);
+                    failedJobCount.incrementAndGet();
+                    lastException = e;
+                }
+            }
+            if (lastException != null) {
+                throw lastException;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (WebArchiveUpdateException | RuntimeException e) {
+            log.error("Error while flushing job updates", e);
+        }
+    }
+
+    public int getDirtyJobCount() {
+        synchronized (dirtyLock) {
+            return dirtyJobs.size();
+        }
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushedJobCount() {
+        return flushedJobCount.get();
+    }
+
+    public long getCoalescedUpdateCount() {
+        return coalescedUpdateCount.get();
+    }
+
+    public long getFailedJobCount() {
+        return failedJobCount.get();
+    }
+
+    protected static long parseNumber(final String value, final long defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
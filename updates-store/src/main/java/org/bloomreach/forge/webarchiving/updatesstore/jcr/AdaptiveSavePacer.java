@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.jcr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a sequence of batched saves by the measured save latency instead of a fixed pause. The latency of a save grows
+ * with the load on the repository (cluster journal, search index updates), so pausing in proportion to a moving
+ * average of it backs off when the repository is busy and hardly pauses when it is not. Pauses never exceed the
+ * configured ceiling.
+ * <p>
+ * Instances are not thread safe, use one per sequence of saves.
+ */
+class AdaptiveSavePacer {
+
+    /** weight of the latest save in the moving average */
+    private static final double SMOOTHING = 0.3;
+
+    private final long maxPauseMillis;
+    private final double pauseFactor;
+
+    private final long startNanos = System.nanoTime();
+    private double averageSaveMillis = -1;
+    private long totalSaveMillis;
+    private long totalPauseMillis;
+    private long saveCount;
+    private long itemCount;
+    private boolean interrupted;
+
+    AdaptiveSavePacer(final long maxPauseMillis, final double pauseFactor) {
+        this.maxPauseMillis = maxPauseMillis;
+        this.pauseFactor = pauseFactor;
+    }
+
+    /**
+     * Record a save of {@code items} changes that took {@code saveNanos} and pause before the next batch.
+     */
+    void afterSave(final int items, final long saveNanos) {
+        final long saveMillis = TimeUnit.NANOSECONDS.toMillis(saveNanos);
+        averageSaveMillis = averageSaveMillis < 0 ? saveMillis : SMOOTHING * saveMillis + (1 - SMOOTHING) * averageSaveMillis;
+        totalSaveMillis += saveMillis;
+        saveCount++;
+        itemCount += items;
+
+        final long pauseMillis = getPauseMillis();
+        if (pauseMillis > 0 && !interrupted) {
+            try {
+                Thread.sleep(pauseMillis);
+                totalPauseMillis += pauseMillis;
+            } catch (InterruptedException e) {
+                // stop pacing, but let the caller finish its work
+                interrupted = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    long getPauseMillis() {
+        if (averageSaveMillis < 0) {
+            return 0;
+        }
+        return Math.min(maxPauseMillis, Math.round(averageSaveMillis * pauseFactor));
+    }
+
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of items saved per second, including pauses
+     */
+    double getThroughput() {
+        final long elapsedMillis = getElapsedMillis();
+        return elapsedMillis == 0 ? itemCount : itemCount * 1000d / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d items in %d saves, %d ms elapsed (%.1f items/s), %d ms saving (average %.0f ms), %d ms paused",
+                itemCount, saveCount, getElapsedMillis(), getThroughput(), totalSaveMillis, Math.max(averageSaveMillis, 0), totalPauseMillis);
+    }
+}
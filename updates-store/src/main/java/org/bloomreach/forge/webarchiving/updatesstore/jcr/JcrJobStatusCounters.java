@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.bloomreach.forge.webarchiving.updatesstore.jcr;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+
+/**
+ * In-memory number of jobs per status, maintained incrementally from the changes saved by this cluster node and
+ * reset from a count of the stored jobs by {@link #reconcile(Map)}. Changes saved by other cluster nodes are only
+ * reflected after the next reconciliation, so the counts are eventually consistent. The count of a status is known
+ * once it has been reset from a count of the stored jobs.
+ */
+class JcrJobStatusCounters {
+
+    private final Map<WebArchiveUpdateJobStatus, Long> counts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+    private final Set<WebArchiveUpdateJobStatus> known = EnumSet.noneOf(WebArchiveUpdateJobStatus.class);
+    private long reconciledAt;
+
+    /**
+     * Status transitions of unsaved changes, applied to the counters by {@link #commit()} after the changes have been
+     * saved.
+     */
+    class Changes {
+        private final Map<WebArchiveUpdateJobStatus, Long> deltas = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+
+        /**
+         * Record the transition of a job from status {@code from} to status {@code to}; null for a created or removed
+         * job respectively.
+         */
+        void add(final WebArchiveUpdateJobStatus from, final WebArchiveUpdateJobStatus to) {
+            if (from == to) {
+                return;
+            }
+            if (from != null) {
+                deltas.merge(from, -1L, Long::sum);
+            }
+            if (to != null) {
+                deltas.merge(to, 1L, Long::sum);
+            }
+        }
+
+        void commit() {
+            synchronized (JcrJobStatusCounters.this) {
+                deltas.forEach((status, delta) -> counts.merge(status, delta, (count, d) -> Math.max(0L, count + d)));
+            }
+            deltas.clear();
+        }
+
+        void discard() {
+            deltas.clear();
+        }
+    }
+
+    Changes changes() {
+        return new Changes();
+    }
+
+    /**
+     * @return whether the counts of all statuses are known
+     */
+    synchronized boolean isReconciled() {
+        return known.size() == WebArchiveUpdateJobStatus.values().length;
+    }
+
+    synchronized boolean isKnown(final WebArchiveUpdateJobStatus status) {
+        return known.contains(status);
+    }
+
+    synchronized long getReconciledAt() {
+        return reconciledAt;
+    }
+
+    /**
+     * Reset the counts of the statuses in {@code storedCounts}, the counts of the other statuses are kept.
+     */
+    synchronized void reconcile(final Map<WebArchiveUpdateJobStatus, Long> storedCounts) {
+        counts.putAll(storedCounts);
+        known.addAll(storedCounts.keySet());
+        reconciledAt = System.currentTimeMillis();
+    }
+
+    synchronized Map<WebArchiveUpdateJobStatus, Long> snapshot() {
+        final Map<WebArchiveUpdateJobStatus, Long> snapshot = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+            snapshot.put(status, Math.max(0L, counts.getOrDefault(status, 0L)));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JcrJobStatusCounters" + counts;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.jcr;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+
+/**
+ * Builds XPath queries for job nodes below the updates store, for the cases the search service API cannot express,
+ * like range constraints on dates.
+ */
+class JcrJobsQueryBuilder {
+
+    private final String storePath;
+    private final List<String> predicates = new ArrayList<>();
+    private final List<String> orderings = new ArrayList<>();
+
+    JcrJobsQueryBuilder(final String storePath) {
+        this.storePath = storePath;
+    }
+
+    /**
+     * Restrict to jobs having one of the {@code statuses}; null or empty means no restriction.
+     */
+    JcrJobsQueryBuilder statuses(final Collection<WebArchiveUpdateJobStatus> statuses) {
+        if (statuses != null && !statuses.isEmpty()) {
+            predicates.add(statuses.stream()
+                    .map(status -> "@" + WebArchivingConstants.PROP_STATUS + " = " + literal(status.name()))
+                    .collect(Collectors.joining(" or ", "(", ")")));
+        }
+        return this;
+    }
+
+    /**
+     * Restrict to jobs of which all filtered properties equal the given value.
+     */
+    JcrJobsQueryBuilder filters(final Map<String, String> searchFilters) {
+        if (searchFilters != null) {
+            searchFilters.forEach((attrName, value) -> predicates.add("@" + getPropertyName(attrName) + " = " + literal(value)));
+        }
+        return this;
+    }
+
+    /**
+     * Restrict to jobs that come after the job with {@code lastModified} and {@code uuid} in the keyset order
+     * (last modification date, identifier).
+     */
+    JcrJobsQueryBuilder after(final Calendar lastModified, final String uuid) {
+        final String date = dateLiteral(lastModified);
+        predicates.add("(@" + WebArchivingConstants.PROP_LAST_MODIFIED + " > " + date +
+                " or (@" + WebArchivingConstants.PROP_LAST_MODIFIED + " = " + date + " and @jcr:uuid > " + literal(uuid) + "))");
+        return this;
+    }
+
+    /**
+     * Restrict to jobs created before {@code created}.
+     */
+    JcrJobsQueryBuilder createdBefore(final Calendar created) {
+        predicates.add("@" + WebArchivingConstants.PROP_CREATED + " < " + dateLiteral(created));
+        return this;
+    }
+
+    JcrJobsQueryBuilder where(final String predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    JcrJobsQueryBuilder orderBy(final String propertyName, final boolean ascending) {
+        orderings.add("@" + propertyName + (ascending ? " ascending" : " descending"));
+        return this;
+    }
+
+    String build() {
+        final StringBuilder xpath = new StringBuilder("/jcr:root").append(storePath)
+                .append("//element(*, ").append(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB).append(")");
+        if (!predicates.isEmpty()) {
+            xpath.append(predicates.stream().collect(Collectors.joining(" and ", "[", "]")));
+        }
+        if (!orderings.isEmpty()) {
+            xpath.append(" order by ").append(String.join(", ", orderings));
+        }
+        return xpath.toString();
+    }
+
+    @Override
+    public String toString() {
+        return build();
+    }
+
+    /**
+     * Map a search filter or ordering hint, like 'status' or 'lastmodified', to the name of the job node property.
+     */
+    static String getPropertyName(final String attrName) {
+        if (attrName.contains(":")) {
+            return attrName;
+        }
+        final String propName = WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + attrName.toLowerCase();
+        if (WebArchivingConstants.BUILTIN_JOB_PROP_NAMES.contains(propName)) {
+            return propName;
+        }
+        return WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + attrName;
+    }
+
+    static String literal(final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    static String dateLiteral(final Calendar calendar) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "xs:dateTime('" + format.format(calendar.getTime()) + "')";
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 BloomReach Inc. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bloomreach.forge.webarchiving.updatesstore.jcr;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JCR sessions. A borrowed session is confined to the borrowing thread until it is returned with
+ * {@link #returnSession(Session)}; sessions are refreshed and validated when they are borrowed.
+ */
+public class JcrSessionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(JcrSessionPool.class);
+
+    /**
+     * Creates the sessions of the pool.
+     */
+    @FunctionalInterface
+    public interface SessionFactory {
+        Session createSession() throws RepositoryException;
+    }
+
+    private final SessionFactory sessionFactory;
+    private final int poolSize;
+    private final long maxWaitMillis;
+
+    private final Semaphore permits;
+    private final BlockingDeque<Session> idleSessions = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public JcrSessionPool(final SessionFactory sessionFactory, final int poolSize, final long maxWaitMillis) {
+        this.sessionFactory = sessionFactory;
+        this.poolSize = poolSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Borrow a session, waiting at most the configured maximum wait time for one to become available.
+     *
+     * @return a live session, refreshed to the latest saved state
+     * @throws RepositoryException if no session became available in time or a session could not be created
+     */
+    public Session borrowSession() throws RepositoryException {
+        if (closed) {
+            throw new RepositoryException("Session pool is closed");
+        }
+
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new RepositoryException("Timed out after " + maxWaitMillis + " ms waiting for a session of the pool");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for a session of the pool", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            Session session;
+            while ((session = idleSessions.pollFirst()) != null) {
+                if (isValid(session)) {
+                    return session;
+                }
+                discard(session);
+            }
+            session = sessionFactory.createSession();
+            createCount.incrementAndGet();
+            return session;
+        } catch (RepositoryException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a session borrowed from this pool. Pending changes are discarded.
+     *
+     * @param session the borrowed session, may be null
+     */
+    public void returnSession(final Session session) {
+        if (session == null) {
+            return;
+        }
+        try {
+            if (!closed && session.isLive()) {
+                if (session.hasPendingChanges()) {
+                    session.refresh(false);
+                }
+                idleSessions.offerFirst(session);
+            } else {
+                discard(session);
+            }
+        } catch (RepositoryException e) {
+            log.warn("Discarding pooled session that could not be reset: {}", e.toString());
+            discard(session);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close the pool and log out all idle sessions. Sessions that are still borrowed are logged out when returned.
+     */
+    public void close() {
+        closed = true;
+        Session session;
+        while ((session = idleSessions.pollFirst()) != null) {
+            discard(session);
+        }
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getActiveCount() {
+        return poolSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idleSessions.size();
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        final long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : (totalWaitNanos.get() / (double) borrows) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private void recordWait(final long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private boolean isValid(final Session session) {
+        try {
+            if (session.isLive()) {
+                session.refresh(false);
+                return true;
+            }
+        } catch (RepositoryException e) {
+            log.debug("Pooled session failed validation: {}", e.toString());
+        }
+        return false;
+    }
+
+    private void discard(final Session session) {
+        try {
+            if (session.isLive()) {
+                session.logout();
+            }
+        } catch (RuntimeException e) {
+            log.debug("Error while logging out pooled session: {}", e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JcrSessionPool{" +
+            "poolSize=" + poolSize +
+            ", active=" + getActiveCount() +
+            ", idle=" + getIdleCount() +
+            ", waiting=" + getWaitingCount() +
+            ", borrows=" + getBorrowCount() +
+            ", created=" + getCreateCount() +
+            ", averageWaitMillis=" + getAverageWaitMillis() +
+            ", maxWaitMillis=" + getMaxWaitMillis() +
+            '}';
+    }
+}
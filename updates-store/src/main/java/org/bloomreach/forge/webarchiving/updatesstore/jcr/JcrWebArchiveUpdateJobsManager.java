@@ -16,15 +16,42 @@
 
 package org.bloomreach.forge.webarchiving.updatesstore.jcr;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.jcr.Binary;
 import javax.jcr.Credentials;
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.ItemExistsException;
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
@@ -38,7 +65,12 @@ import org.bloomreach.forge.webarchiving.common.error.WebArchiveUpdateException;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdate;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJob;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobStatus;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobSummary;
+import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateJobsPage;
 import org.bloomreach.forge.webarchiving.common.model.WebArchiveUpdateType;
+import org.bloomreach.forge.webarchiving.common.util.CompactUrlList;
+import org.bloomreach.forge.webarchiving.common.util.UrlListCodec;
+import org.bloomreach.forge.webarchiving.common.util.WebArchiveUpdateJobIdGenerator;
 import org.hippoecm.repository.util.JcrUtils;
 import org.onehippo.cms7.services.HippoServiceRegistry;
 import org.onehippo.cms7.services.search.query.OrderClause;
@@ -67,12 +99,127 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
     private static Logger log = LoggerFactory.getLogger(JcrWebArchiveUpdateJobsManager.class);
 
     protected static final String DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION = WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "updatesstore";
+    private static final String MIX_REFERENCEABLE = "mix:referenceable";
     protected static final String CONFIG_PROP_BATCH_SIZE = "batchSize";
     protected static final int DEFAULT_BATCH_SIZE = 100;
+    protected static final String CONFIG_PROP_STORE_LAYOUT = "storeLayout";
+    protected static final String CONFIG_PROP_STATUS_PARTITIONING = "statusPartitioning";
+    protected static final String CONFIG_PROP_SESSION_POOL_SIZE = "sessionPoolSize";
+    protected static final String CONFIG_PROP_SESSION_POOL_MAX_WAIT = "sessionPoolMaxWait";
+    protected static final String CONFIG_PROP_DELETE_PAUSE_MAX = "deletePauseMax";
+    protected static final String CONFIG_PROP_DELETE_PAUSE_FACTOR = "deletePauseFactor";
+    protected static final String CONFIG_PROP_COUNT_RECONCILE_INTERVAL = "countReconcileInterval";
+    protected static final String CONFIG_PROP_URL_ENCODING = "urlEncoding";
+    protected static final String CONFIG_PROP_URL_COMPRESSION_THRESHOLD = "urlCompressionThreshold";
+    protected static final String CONFIG_PROP_PURGE_TIME_LIMIT = "purgeTimeLimit";
+    protected static final int DEFAULT_SESSION_POOL_SIZE = 10;
+    protected static final long DEFAULT_DELETE_PAUSE_MAX = 1000L;
+    protected static final double DEFAULT_DELETE_PAUSE_FACTOR = 1.0;
+    protected static final long DEFAULT_SESSION_POOL_MAX_WAIT = 10000L;
+    protected static final long DEFAULT_COUNT_RECONCILE_INTERVAL = 300L;
+    protected static final long DEFAULT_URL_COMPRESSION_THRESHOLD = 8192L;
+    protected static final long DEFAULT_PURGE_TIME_LIMIT = 60L;
+
+    protected static final String JOB_NODE_NAME_PREFIX = "job_";
+    protected static final TimeZone BUCKET_TIME_ZONE = TimeZone.getTimeZone("UTC");
+    private static final int MAX_CONFLICT_RETRIES = 3;
+    private static final int BUCKET_DEPTH = 4;
+
+    /**
+     * Encoding of the URLs of an update node.
+     */
+    protected enum UrlEncoding {
+        /** every URL is a value of a multiple string property, the default */
+        PLAIN,
+        /** the URLs are stored with {@link UrlListCodec}, compressed in a binary property when the encoding is large */
+        COMPACT
+    }
+
+    /**
+     * Folders of the job nodes when status partitioning is enabled, each holding the jobs of one or more statuses.
+     */
+    protected enum Partition {
+        QUEUED("queued", WebArchiveUpdateJobStatus.QUEUED),
+        SUBMITTED("submitted", WebArchiveUpdateJobStatus.SUBMITTED),
+        ABORTED("aborted", WebArchiveUpdateJobStatus.ABORTED),
+        COMPLETED("completed", WebArchiveUpdateJobStatus.ACKNOWLEDGED, WebArchiveUpdateJobStatus.ERROR, WebArchiveUpdateJobStatus.UNDEFINED);
+
+        private final String folderName;
+        private final List<WebArchiveUpdateJobStatus> statuses;
+
+        Partition(final String folderName, final WebArchiveUpdateJobStatus... statuses) {
+            this.folderName = folderName;
+            this.statuses = Arrays.asList(statuses);
+        }
+
+        public String getFolderName() {
+            return folderName;
+        }
+
+        public List<WebArchiveUpdateJobStatus> getStatuses() {
+            return statuses;
+        }
+
+        public static Partition of(final WebArchiveUpdateJobStatus status) {
+            for (Partition partition : values()) {
+                if (partition.statuses.contains(status)) {
+                    return partition;
+                }
+            }
+            return COMPLETED;
+        }
+
+        public static boolean isFolderName(final String name) {
+            return Arrays.stream(values()).anyMatch(partition -> partition.folderName.equals(name));
+        }
+    }
+
+    /**
+     * Filter on job nodes while iterating over a folder.
+     */
+    @FunctionalInterface
+    protected interface JobNodeFilter {
+        boolean accept(Node jobNode) throws RepositoryException;
+    }
+
+    /**
+     * Changes applied to a session, see {@link #applyAndSave(Session, JcrJobStatusCounters.Changes, SessionChanges)}.
+     */
+    @FunctionalInterface
+    protected interface SessionChanges {
+        void apply(Session session) throws RepositoryException;
+    }
+
+    /**
+     * Layout of the job nodes below the updates store container.
+     */
+    protected enum StoreLayout {
+        /** all jobs are direct children of the updates store container */
+        FLAT,
+        /** jobs are sharded into yyyy/MM/dd/HH bucket folders, based on their creation time */
+        DATED
+    }
 
-    private static final Object mutex = new Object();
+    private final Object jobsStoreMutex = new Object();
+    private volatile String jobsStoreIdentifier;
     protected Session moduleSession;
     protected long batchSize = DEFAULT_BATCH_SIZE;
+    protected StoreLayout storeLayout = StoreLayout.FLAT;
+    protected boolean statusPartitioning;
+    protected UrlEncoding urlEncoding = UrlEncoding.PLAIN;
+    protected long urlCompressionThreshold = DEFAULT_URL_COMPRESSION_THRESHOLD;
+    protected long deletePauseMax = DEFAULT_DELETE_PAUSE_MAX;
+    protected double deletePauseFactor = DEFAULT_DELETE_PAUSE_FACTOR;
+    protected long purgeTimeLimit = DEFAULT_PURGE_TIME_LIMIT;
+    private volatile JcrSessionPool sessionPool;
+    private final String ownerId = StringUtils.defaultIfEmpty(WebArchiveUpdateJobIdGenerator.getClusterNodeId(), "unknown");
+
+    private ExecutorService migrationExecutor;
+    private volatile boolean migrationStopped;
+
+    private final JcrJobStatusCounters statusCounters = new JcrJobStatusCounters();
+    protected long countReconcileInterval = DEFAULT_COUNT_RECONCILE_INTERVAL;
+    private ScheduledExecutorService countReconcileExecutor;
 
     @Override
     public synchronized void initialize(final Map<String, String> props) throws WebArchiveUpdateException {
@@ -86,6 +233,66 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             log.warn("Incorrect number '{}'. Setting to default '{}'", value, DEFAULT_BATCH_SIZE);
             batchSize = DEFAULT_BATCH_SIZE;
         }
+
+        value = props.get(CONFIG_PROP_STORE_LAYOUT);
+        try {
+            storeLayout = StringUtils.isBlank(value) ? StoreLayout.FLAT : StoreLayout.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Incorrect store layout '{}'. Setting to default '{}'", value, StoreLayout.FLAT);
+            storeLayout = StoreLayout.FLAT;
+        }
+        statusPartitioning = Boolean.parseBoolean(StringUtils.trim(props.get(CONFIG_PROP_STATUS_PARTITIONING)));
+
+        value = props.get(CONFIG_PROP_URL_ENCODING);
+        try {
+            urlEncoding = StringUtils.isBlank(value) ? UrlEncoding.PLAIN : UrlEncoding.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Incorrect URL encoding '{}'. Setting to default '{}'", value, UrlEncoding.PLAIN);
+            urlEncoding = UrlEncoding.PLAIN;
+        }
+        urlCompressionThreshold = parseNumber(props.get(CONFIG_PROP_URL_COMPRESSION_THRESHOLD), DEFAULT_URL_COMPRESSION_THRESHOLD);
+
+        deletePauseMax = Math.max(0L, parseNumber(props.get(CONFIG_PROP_DELETE_PAUSE_MAX), DEFAULT_DELETE_PAUSE_MAX));
+        value = props.get(CONFIG_PROP_DELETE_PAUSE_FACTOR);
+        try {
+            deletePauseFactor = StringUtils.isBlank(value) ? DEFAULT_DELETE_PAUSE_FACTOR : Math.max(0, Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, DEFAULT_DELETE_PAUSE_FACTOR);
+            deletePauseFactor = DEFAULT_DELETE_PAUSE_FACTOR;
+        }
+        purgeTimeLimit = Math.max(0L, parseNumber(props.get(CONFIG_PROP_PURGE_TIME_LIMIT), DEFAULT_PURGE_TIME_LIMIT));
+
+        final int sessionPoolSize = (int) parseNumber(props.get(CONFIG_PROP_SESSION_POOL_SIZE), DEFAULT_SESSION_POOL_SIZE);
+        final long sessionPoolMaxWait = parseNumber(props.get(CONFIG_PROP_SESSION_POOL_MAX_WAIT), DEFAULT_SESSION_POOL_MAX_WAIT);
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+        sessionPool = sessionPoolSize > 0 ? new JcrSessionPool(this::createSession, sessionPoolSize, sessionPoolMaxWait) : null;
+
+        if (moduleSession != null) {
+            try {
+                jobsStoreIdentifier = ensureJobsStoreNode();
+            } catch (RepositoryException e) {
+                throw new WebArchiveUpdateException(e, "Error while creating the updates store node");
+            }
+        }
+
+        startMigration();
+
+        countReconcileInterval = parseNumber(props.get(CONFIG_PROP_COUNT_RECONCILE_INTERVAL), DEFAULT_COUNT_RECONCILE_INTERVAL);
+        startCountReconciliation();
+    }
+
+    protected static long parseNumber(final String value, final long defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Incorrect number '{}'. Setting to default '{}'", value, defaultValue);
+            return defaultValue;
+        }
     }
 
 
@@ -100,36 +307,151 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
     @Override
     public void destroy() {
         log.debug("Destroying {}", this.getClass().getName());
+        stopMigration();
+        stopCountReconciliation();
+        if (sessionPool != null) {
+            log.info("Closing session pool {}", sessionPool);
+            sessionPool.close();
+            sessionPool = null;
+        }
     }
 
     @Override
     public String createWebArchiveUpdateJob(WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
-        String updateJobId;
-        Session session = null;
-        try {
-            WebArchiveUpdate webArchiveUpdate = webArchiveUpdateJob.getWebArchiveUpdate();
-            if (webArchiveUpdate == null) {
+        return createWebArchiveUpdateJobs(Collections.singletonList(webArchiveUpdateJob)).get(0);
+    }
+
+    /**
+     * Create the jobs in a single session, saving them in chunks of {@code batchSize}. If a save fails, the jobs of the
+     * chunks saved before remain stored and have their identifier set.
+     */
+    @Override
+    public List<String> createWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (webArchiveUpdateJob.getWebArchiveUpdate() == null) {
                 throw new WebArchiveUpdateException("Job does not contain an update {}", webArchiveUpdateJob);
             }
+        }
 
+        final List<String> updateJobIds = new ArrayList<>(webArchiveUpdateJobs.size());
+        final List<String> chunkJobIds = new ArrayList<>();
+        final List<String> chunkUpdateIds = new ArrayList<>();
+        final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+        Session session = null;
+        try {
             session = getSession();
-            Node jobNode = createJobNode(session);
-            bindWebArchiveUpdateJobNode(jobNode, webArchiveUpdateJob);
+            for (int start = 0; start < webArchiveUpdateJobs.size(); start += batchSize) {
+                final List<WebArchiveUpdateJob> chunk = webArchiveUpdateJobs.subList(start, (int) Math.min(webArchiveUpdateJobs.size(), start + batchSize));
+                applyAndSave(session, statusChanges, chunkSession -> {
+                    chunkJobIds.clear();
+                    chunkUpdateIds.clear();
+                    for (WebArchiveUpdateJob webArchiveUpdateJob : chunk) {
+                        final Node jobNode = createJobNode(chunkSession, getStoredStatus(webArchiveUpdateJob));
+                        bindWebArchiveUpdateJobNode(jobNode, webArchiveUpdateJob);
+                        final Node updateNode = addWebArchiveUpdateNode(jobNode, webArchiveUpdateJob.getWebArchiveUpdate());
+                        statusChanges.add(null, getStoredStatus(webArchiveUpdateJob));
+                        chunkJobIds.add(jobNode.getName());
+                        chunkUpdateIds.add(updateNode.getIdentifier());
+                    }
+                });
 
-            updateJobId = jobNode.getName();
-            webArchiveUpdateJob.setId(updateJobId);
+                for (int i = 0; i < chunk.size(); i++) {
+                    final WebArchiveUpdateJob job = chunk.get(i);
+                    job.setId(chunkJobIds.get(i));
+                    job.getWebArchiveUpdate().setId(chunkUpdateIds.get(i));
+                    job.clearDirty();
+                }
+                updateJobIds.addAll(chunkJobIds);
+                log.debug("Saved a batch of {} after a total of {} job creations", chunk.size(), updateJobIds.size());
+            }
+        } catch (RepositoryException e) {
+            refreshSession(session);
+            throw new WebArchiveUpdateException(e, "Error while creating a batch of {} jobs, {} jobs have been created",
+                    webArchiveUpdateJobs.size(), updateJobIds.size());
+        } finally {
+            releaseSession(session);
+        }
+        return updateJobIds;
+    }
 
-            createWebArchiveUpdate(jobNode, webArchiveUpdate);
+    /**
+     * Look up a queued job by the update identifier and type mirrored on the job node. Merging bumps the version of the
+     * job node like a claim does, so if the job is claimed concurrently one of both saves fails; when the merge fails,
+     * the job is created instead.
+     */
+    @Override
+    public String createOrMergeWebArchiveUpdateJob(final WebArchiveUpdateJob webArchiveUpdateJob) throws WebArchiveUpdateException {
+        final WebArchiveUpdate webArchiveUpdate = webArchiveUpdateJob.getWebArchiveUpdate();
+        if (webArchiveUpdate == null) {
+            throw new WebArchiveUpdateException("Job does not contain an update {}", webArchiveUpdateJob);
+        }
+        if (StringUtils.isBlank(webArchiveUpdate.getId())) {
+            return createWebArchiveUpdateJob(webArchiveUpdateJob);
+        }
 
+        Session session = null;
+        try {
+            session = getSession();
+            final Node jobNode = findQueuedJobNode(session, webArchiveUpdate);
+            if (jobNode != null) {
+                final Node updateNode = jobNode.getNode(WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "update");
+                final WebArchiveUpdateJob queuedJob = new WebArchiveUpdateJob();
+                mapWebArchiveJob(jobNode, queuedJob);
+
+                final WebArchiveUpdate queuedUpdate = queuedJob.getWebArchiveUpdate();
+                if (queuedUpdate.merge(webArchiveUpdate)) {
+                    updateNode.setProperty(WebArchivingConstants.PROP_CREATOR, StringUtils.defaultIfEmpty(queuedUpdate.getCreator(), ""));
+                    bindUrls(updateNode, queuedUpdate.getUrls());
+                    jobNode.setProperty(WebArchivingConstants.PROP_URL_COUNT, queuedUpdate.getUrls().size());
+                }
+                jobNode.setProperty(WebArchivingConstants.PROP_LAST_MODIFIED, Calendar.getInstance());
+                jobNode.setProperty(WebArchivingConstants.PROP_VERSION, JcrUtils.getLongProperty(jobNode, WebArchivingConstants.PROP_VERSION, 0L) + 1);
+                try {
+                    session.save();
+                    webArchiveUpdateJob.setId(jobNode.getName());
+                    webArchiveUpdate.setId(updateNode.getIdentifier());
+                    log.debug("Merged update {} into queued job {}", queuedUpdate.getId(), jobNode.getName());
+                    return jobNode.getName();
+                } catch (InvalidItemStateException e) {
+                    log.debug("Queued job {} has been changed concurrently, creating a new job: {}", jobNode.getName(), e.toString());
+                    refreshSession(session);
+                }
+            }
         } catch (RepositoryException e) {
             refreshSession(session);
-            throw new WebArchiveUpdateException(e, "Error while creating job {}", webArchiveUpdateJob);
+            throw new WebArchiveUpdateException(e, "Error while merging job {}", webArchiveUpdateJob);
         } finally {
-            if (session != null) {
-                session.logout();
+            releaseSession(session);
+        }
+        return createWebArchiveUpdateJob(webArchiveUpdateJob);
+    }
+
+    /**
+     * @return the most recently modified queued job node of which the update has the identifier and type of
+     * {@code webArchiveUpdate}, or null if none
+     */
+    protected Node findQueuedJobNode(final Session session, final WebArchiveUpdate webArchiveUpdate) throws RepositoryException {
+        final WebArchiveUpdateType type = webArchiveUpdate.getType() != null ? webArchiveUpdate.getType() : WebArchiveUpdateType.UNDEFINED;
+        final JcrJobsQueryBuilder queryBuilder = new JcrJobsQueryBuilder("/" + DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                .statuses(Collections.singletonList(WebArchiveUpdateJobStatus.QUEUED))
+                .where("@" + WebArchivingConstants.PROP_UPDATE_ID + " = " + JcrJobsQueryBuilder.literal(webArchiveUpdate.getId()))
+                .where("@" + WebArchivingConstants.PROP_TYPE + " = " + JcrJobsQueryBuilder.literal(type.name()))
+                .orderBy(WebArchivingConstants.PROP_LAST_MODIFIED, false);
+
+        final javax.jcr.query.Query query = session.getWorkspace().getQueryManager()
+                .createQuery(queryBuilder.build(), javax.jcr.query.Query.XPATH);
+        query.setLimit(1);
+        log.debug("Searching queued job with query {}", queryBuilder);
+
+        final NodeIterator nodes = query.execute().getNodes();
+        if (nodes.hasNext()) {
+            final Node jobNode = nodes.nextNode();
+            // check the stored status, as the search index may lag behind
+            if (mapStatus(jobNode, WebArchivingConstants.PROP_STATUS) == WebArchiveUpdateJobStatus.QUEUED) {
+                return jobNode;
             }
         }
-        return updateJobId;
+        return null;
     }
 
     @Override
@@ -138,14 +460,12 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
         Session session = null;
         try {
             session = getSession();
-            Node jobNode = getJobsStoreNode(session).getNode(webArchiveUpdateJobId);
+            Node jobNode = getJobNode(session, webArchiveUpdateJobId);
             mapWebArchiveJob(jobNode, job);
         } catch (RepositoryException e) {
             throw new WebArchiveUpdateException(e);
         } finally {
-            if (session != null) {
-                session.logout();
-            }
+            releaseSession(session);
         }
         return job;
     }
@@ -156,25 +476,273 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
         }
 
+        if (!webArchiveUpdateJob.isDirty()) {
+            log.debug("Job {} has not changed, skipping update", webArchiveUpdateJob.getId());
+            return;
+        }
+
         Session session = null;
         try {
             session = getSession();
-            Node jobNode = getJobsStoreNode(session).getNode(webArchiveUpdateJob.getId());
+            final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+            applyAndSave(session, statusChanges,
+                    jobSession -> bindDirtyProperties(getJobNode(jobSession, webArchiveUpdateJob.getId()), webArchiveUpdateJob, statusChanges));
+            webArchiveUpdateJob.clearDirty();
+        } catch (RepositoryException e) {
+            refreshSession(session);
+            throw new WebArchiveUpdateException(e, "Error while creating job {}", webArchiveUpdateJob);
+        } finally {
+            releaseSession(session);
+        }
+    }
 
-            if (!jobNode.isNodeType("mix:referenceable")) {
-                jobNode.addMixin("mix:referenceable");
+    /**
+     * Update the jobs in a single session, saving them in chunks of {@code batchSize}. If a save fails, the chunks
+     * saved before remain stored.
+     */
+    @Override
+    public void updateWebArchiveUpdateJobs(final List<WebArchiveUpdateJob> webArchiveUpdateJobs) throws WebArchiveUpdateException {
+        for (WebArchiveUpdateJob webArchiveUpdateJob : webArchiveUpdateJobs) {
+            if (StringUtils.isBlank(webArchiveUpdateJob.getId())) {
+                throw new WebArchiveUpdateException("No identifier in job {}", webArchiveUpdateJob);
             }
+        }
 
-            bindWebArchiveUpdateJobNode(jobNode, webArchiveUpdateJob);
+        final List<WebArchiveUpdateJob> dirtyJobs = webArchiveUpdateJobs.stream()
+                .filter(WebArchiveUpdateJob::isDirty)
+                .collect(Collectors.toList());
+        int saved = 0;
+        final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+        Session session = null;
+        try {
+            session = getSession();
+            for (int start = 0; start < dirtyJobs.size(); start += batchSize) {
+                final List<WebArchiveUpdateJob> chunk = dirtyJobs.subList(start, (int) Math.min(dirtyJobs.size(), start + batchSize));
+                applyAndSave(session, statusChanges, chunkSession -> {
+                    for (WebArchiveUpdateJob webArchiveUpdateJob : chunk) {
+                        bindDirtyProperties(getJobNode(chunkSession, webArchiveUpdateJob.getId()), webArchiveUpdateJob, statusChanges);
+                    }
+                });
+                chunk.forEach(WebArchiveUpdateJob::clearDirty);
+                saved += chunk.size();
+            }
+        } catch (RepositoryException e) {
+            refreshSession(session);
+            throw new WebArchiveUpdateException(e, "Error while updating a batch of {} jobs, {} jobs have been updated",
+                    webArchiveUpdateJobs.size(), saved);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * Apply {@code changes} to the session and save it. Missing folders of the store layout are added to the same
+     * session by {@link #getOrCreateFolderNode(Session, String)} and saved along with the jobs, and emptied bucket
+     * folders are removed along with them. When another session has saved one of these folders first, the save fails;
+     * the changes are then discarded and applied once more on the refreshed session. The status changes are committed
+     * after a successful save.
+     */
+    protected void applyAndSave(final Session session, final JcrJobStatusCounters.Changes statusChanges,
+                                final SessionChanges changes) throws RepositoryException {
+        changes.apply(session);
+        try {
+            session.save();
+        } catch (ItemExistsException | InvalidItemStateException e) {
+            log.debug("Concurrent change of the jobs folders, applying the changes again: {}", e.toString());
+            statusChanges.discard();
+            session.refresh(false);
+            changes.apply(session);
             session.save();
+        }
+        statusChanges.commit();
+    }
+
+    /**
+     * Claim jobs with an optimistic check: a claim bumps the version of the job node, so a concurrent claim of the same
+     * job on another cluster node makes the save fail as the node has been modified externally. Claims are saved at
+     * once; on a conflict they are retried one job at a time, skipping the jobs claimed by others.
+     */
+    @Override
+    public List<WebArchiveUpdateJob> claimPendingJobs(final int max, final Duration lease) throws WebArchiveUpdateException {
+        final List<WebArchiveUpdateJob> claimedJobs = new ArrayList<>();
+        if (max <= 0) {
+            return claimedJobs;
+        }
+
+        final Calendar now = Calendar.getInstance();
+        final Calendar leaseExpiration = Calendar.getInstance();
+        leaseExpiration.setTimeInMillis(now.getTimeInMillis() + lease.toMillis());
+
+        Session session = null;
+        try {
+            session = getSession();
+            final List<String> candidateIds = findClaimableJobNodeIdentifiers(session, now, max);
+
+            List<Node> claimedNodes = new ArrayList<>();
+            final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+            for (String candidateId : candidateIds) {
+                final Node jobNode = session.getNodeByIdentifier(candidateId);
+                if (isClaimable(jobNode, now)) {
+                    statusChanges.add(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS), WebArchiveUpdateJobStatus.SUBMITTED);
+                    claimedNodes.add(bindClaim(jobNode, now, leaseExpiration));
+                }
+            }
+            try {
+                session.save();
+                statusChanges.commit();
+            } catch (InvalidItemStateException | ItemExistsException e) {
+                statusChanges.discard();
+                log.debug("Concurrent claim of {} candidate jobs, claiming them one by one: {}", candidateIds.size(), e.toString());
+                refreshSession(session);
+                claimedNodes = claimOneByOne(session, candidateIds, now, leaseExpiration);
+            }
+
+            for (Node jobNode : claimedNodes) {
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+                mapWebArchiveJob(jobNode, job);
+                claimedJobs.add(job);
+            }
         } catch (RepositoryException e) {
             refreshSession(session);
-            throw new WebArchiveUpdateException(e, "Error while creating job {}", webArchiveUpdateJob);
+            throw new WebArchiveUpdateException(e, "Error while claiming pending jobs");
         } finally {
-            if (session != null) {
-                session.logout();
+            releaseSession(session);
+        }
+        log.debug("Claimed {} pending jobs for {}", claimedJobs.size(), ownerId);
+        return claimedJobs;
+    }
+
+    private List<Node> claimOneByOne(final Session session, final List<String> candidateIds, final Calendar now,
+                                     final Calendar leaseExpiration) throws RepositoryException {
+        final List<Node> claimedNodes = new ArrayList<>();
+        for (String candidateId : candidateIds) {
+            try {
+                final Node jobNode = session.getNodeByIdentifier(candidateId);
+                if (isClaimable(jobNode, now)) {
+                    final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+                    statusChanges.add(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS), WebArchiveUpdateJobStatus.SUBMITTED);
+                    final Node claimedNode = bindClaim(jobNode, now, leaseExpiration);
+                    session.save();
+                    statusChanges.commit();
+                    claimedNodes.add(claimedNode);
+                }
+            } catch (InvalidItemStateException | ItemExistsException | ItemNotFoundException e) {
+                log.debug("Job {} has been claimed or removed concurrently: {}", candidateId, e.toString());
+                refreshSession(session);
+            }
+        }
+        return claimedNodes;
+    }
+
+    /**
+     * Find the jobs to claim by a query, or, with status partitioning, by iterating over the queued, aborted and
+     * submitted folders, which does not depend on the search index being up to date.
+     */
+    protected List<String> findClaimableJobNodeIdentifiers(final Session session, final Calendar now, final int max) throws RepositoryException {
+        if (statusPartitioning) {
+            final List<Node> jobNodes = new ArrayList<>();
+            for (Partition partition : new Partition[]{Partition.QUEUED, Partition.ABORTED, Partition.SUBMITTED}) {
+                final Node partitionNode = getPartitionNode(session, partition);
+                if (partitionNode != null) {
+                    collectJobNodes(partitionNode, max, jobNode -> isClaimable(jobNode, now), jobNodes);
+                }
+            }
+            final List<String> identifiers = new ArrayList<>(jobNodes.size());
+            for (Node jobNode : jobNodes) {
+                identifiers.add(jobNode.getIdentifier());
+            }
+            return identifiers;
+        }
+
+        final String status = "@" + WebArchivingConstants.PROP_STATUS + " = ";
+        final String leaseExpiration = "@" + WebArchivingConstants.PROP_LEASE_EXPIRATION;
+        final String nextAttempt = "@" + WebArchivingConstants.PROP_NEXT_ATTEMPT;
+        final JcrJobsQueryBuilder queryBuilder = new JcrJobsQueryBuilder("/" + DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                .where("(" + status + JcrJobsQueryBuilder.literal(WebArchiveUpdateJobStatus.QUEUED.name()) +
+                        " or " + status + JcrJobsQueryBuilder.literal(WebArchiveUpdateJobStatus.ABORTED.name()) +
+                        " or (" + status + JcrJobsQueryBuilder.literal(WebArchiveUpdateJobStatus.SUBMITTED.name()) +
+                        " and (not(" + leaseExpiration + ") or " + leaseExpiration + " < " + JcrJobsQueryBuilder.dateLiteral(now) + ")))")
+                .where("(not(" + nextAttempt + ") or " + nextAttempt + " <= " + JcrJobsQueryBuilder.dateLiteral(now) + ")")
+                .orderBy(WebArchivingConstants.PROP_LAST_MODIFIED, true);
+
+        final javax.jcr.query.Query query = session.getWorkspace().getQueryManager()
+                .createQuery(queryBuilder.build(), javax.jcr.query.Query.XPATH);
+        query.setLimit(max);
+        log.debug("Searching claimable jobs with query {}", queryBuilder);
+
+        final List<String> identifiers = new ArrayList<>();
+        for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext(); ) {
+            identifiers.add(nodes.nextNode().getIdentifier());
+        }
+        return identifiers;
+    }
+
+    /**
+     * Check the stored state of a job node, as the search index may lag behind. Jobs of which the next attempt is
+     * scheduled after {@code now} are not claimable.
+     */
+    protected boolean isClaimable(final Node jobNode, final Calendar now) throws RepositoryException {
+        final Calendar nextAttempt = JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_NEXT_ATTEMPT, null);
+        if (nextAttempt != null && nextAttempt.after(now)) {
+            return false;
+        }
+        final WebArchiveUpdateJobStatus status = mapStatus(jobNode, WebArchivingConstants.PROP_STATUS);
+        if (status == WebArchiveUpdateJobStatus.QUEUED || status == WebArchiveUpdateJobStatus.ABORTED) {
+            return true;
+        }
+        if (status == WebArchiveUpdateJobStatus.SUBMITTED) {
+            final Calendar leaseExpiration = JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_LEASE_EXPIRATION, null);
+            return leaseExpiration == null || leaseExpiration.before(now);
+        }
+        return false;
+    }
+
+    /**
+     * @return the claimed job node, which has been moved if status partitioning is enabled
+     */
+    protected Node bindClaim(final Node jobNode, final Calendar now, final Calendar leaseExpiration) throws RepositoryException {
+        jobNode.setProperty(WebArchivingConstants.PROP_STATUS, WebArchiveUpdateJobStatus.SUBMITTED.name());
+        jobNode.setProperty(WebArchivingConstants.PROP_LAST_MODIFIED, now);
+        jobNode.setProperty(WebArchivingConstants.PROP_OWNER, ownerId);
+        jobNode.setProperty(WebArchivingConstants.PROP_LEASE_EXPIRATION, leaseExpiration);
+        jobNode.setProperty(WebArchivingConstants.PROP_VERSION, JcrUtils.getLongProperty(jobNode, WebArchivingConstants.PROP_VERSION, 0L) + 1);
+        return moveToPartition(jobNode, WebArchiveUpdateJobStatus.SUBMITTED);
+    }
+
+    /**
+     * With status partitioning, pending jobs are read from the queued, submitted and aborted folders in that order,
+     * oldest first within each folder, instead of being searched. As in {@link #claimPendingJobs(int, Duration)}, only
+     * the claimable jobs are returned, see {@link #isClaimable(Node, Calendar)}.
+     */
+    @Override
+    public List<WebArchiveUpdateJob> getPendingWebArchiveUpdateJobs(final int searchLimit) throws WebArchiveUpdateException {
+        if (!statusPartitioning) {
+            return WebArchiveUpdateJobsManager.super.getPendingWebArchiveUpdateJobs(searchLimit);
+        }
+
+        final List<WebArchiveUpdateJob> jobs = new ArrayList<>();
+        Session session = null;
+        try {
+            session = getSession();
+            final Calendar now = Calendar.getInstance();
+            final List<Node> jobNodes = new ArrayList<>();
+            for (Partition partition : new Partition[]{Partition.QUEUED, Partition.SUBMITTED, Partition.ABORTED}) {
+                final Node partitionNode = getPartitionNode(session, partition);
+                if (partitionNode != null) {
+                    collectJobNodes(partitionNode, searchLimit, jobNode -> isClaimable(jobNode, now), jobNodes);
+                }
+            }
+            for (Node jobNode : jobNodes) {
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+                mapWebArchiveJob(jobNode, job);
+                jobs.add(job);
             }
+        } catch (RepositoryException e) {
+            throw new WebArchiveUpdateException(e, "Error while reading pending jobs");
+        } finally {
+            releaseSession(session);
         }
+        return jobs;
     }
 
     @Override
@@ -182,15 +750,21 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
         int batchCount = 0;
         int totalJobsDeleted = 0;
         final StringBuilder infoText = new StringBuilder("Deleted web archive update jobs:\n");
+        final AdaptiveSavePacer pacer = new AdaptiveSavePacer(deletePauseMax, deletePauseFactor);
+        final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
         Session session = null;
 
         try {
             session = getSession();
             for (WebArchiveUpdateJob job : webArchiveUpdateJobs) {
                 try {
-                    Node node = getJobsStoreNode(session).getNode(job.getId());
+                    Node node = getJobNode(session, job.getId());
                     log.debug("Removing node {}", node.getPath());
+                    final WebArchiveUpdateJobStatus status = mapStatus(node, WebArchivingConstants.PROP_STATUS);
+                    final Node folder = node.getParent();
                     node.remove();
+                    pruneEmptyBuckets(folder);
+                    statusChanges.add(status, null);
 
                     infoText.append("  ").append(job.getId()).append("\n");
                     totalJobsDeleted++;
@@ -201,14 +775,13 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
 
                 if (batchCount >= batchSize) {
                     log.debug("Saving a batch of {} after a total of {} deletions", batchCount, totalJobsDeleted);
-                    batchCount = 0;
+                    final long start = System.nanoTime();
                     session.save();
+                    statusChanges.commit();
 
-                    // pause for the save to be propagated (cluster, Lucene)
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ignored) {
-                    }
+                    // give the save time to be propagated (cluster, Lucene), in proportion to how long it took
+                    pacer.afterSave(batchCount, System.nanoTime() - start);
+                    batchCount = 0;
                 }
             }
 
@@ -216,8 +789,11 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             if (session.hasPendingChanges()) {
                 session.save();
             }
+            statusChanges.commit();
             if (totalJobsDeleted > 0) {
                 log.info(infoText.toString());
+                log.info("Deleted {} web archive update jobs in {} ms ({} jobs/s), paced: {}", totalJobsDeleted, pacer.getElapsedMillis(),
+                        String.format("%.1f", pacer.getThroughput()), pacer);
             }
         } catch (RepositoryException e) {
             refreshSession(session);
@@ -225,19 +801,214 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
                     "Error while deleting job {}",
                     Arrays.stream(webArchiveUpdateJobs).map(WebArchiveUpdateJob::getId).collect(Collectors.toList()));
         } finally {
-            if (session != null) {
-                session.logout();
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * Purge jobs without mapping them. With the dated store layout and all statuses selected, or all statuses of a
+     * status partition, the hour buckets that lie entirely before {@code olderThan} are removed as a whole. The
+     * remaining jobs are found by a query and removed in batches of {@code batchSize}. Saves are paced like deletions
+     * and the purge stops after {@code purgeTimeLimit} seconds.
+     */
+    @Override
+    public long purgeOlderThan(final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses) throws WebArchiveUpdateException {
+        final long deadline = purgeTimeLimit > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(purgeTimeLimit) : Long.MAX_VALUE;
+        final boolean allStatuses = statuses == null || statuses.isEmpty() || statuses.containsAll(Arrays.asList(WebArchiveUpdateJobStatus.values()));
+        final AdaptiveSavePacer pacer = new AdaptiveSavePacer(deletePauseMax, deletePauseFactor);
+        long purged = 0;
+        Session session = null;
+        try {
+            session = getSession();
+            if (storeLayout == StoreLayout.DATED) {
+                if (allStatuses) {
+                    purged += purgeBuckets(session, getJobsStoreNode(session), null, olderThan.getTimeInMillis(), deadline, pacer);
+                }
+                for (Partition partition : Partition.values()) {
+                    final Node partitionNode = statusPartitioning ? getPartitionNode(session, partition) : null;
+                    if (partitionNode != null && (allStatuses || statuses.containsAll(partition.getStatuses()))) {
+                        purged += purgeBuckets(session, partitionNode, null, olderThan.getTimeInMillis(), deadline, pacer);
+                    }
+                }
+            }
+            purged += purgeJobNodes(session, olderThan, allStatuses ? null : statuses, deadline, pacer);
+        } catch (RepositoryException e) {
+            refreshSession(session);
+            throw new WebArchiveUpdateException(e, "Error while purging jobs created before {} after purging {} jobs", olderThan.getTime(), purged);
+        } finally {
+            releaseSession(session);
+        }
+
+        if (purged > 0) {
+            log.info("Purged {} web archive update jobs created before {}, paced: {}", purged, olderThan.getTime(), pacer);
+        }
+        if (System.currentTimeMillis() >= deadline) {
+            log.info("Stopped purging web archive update jobs after {} seconds, the remaining jobs are purged next time", purgeTimeLimit);
+        }
+        return purged;
+    }
+
+    /**
+     * Remove the hour buckets below {@code folder} that lie entirely before {@code olderThan}, as well as the day,
+     * month and year folders that are empty afterwards.
+     *
+     * @param folderPath relative bucket path of {@code folder}, or null for the store node or a status partition
+     * @return the number of removed jobs
+     */
+    protected long purgeBuckets(final Session session, final Node folder, final String folderPath, final long olderThan,
+                                final long deadline, final AdaptiveSavePacer pacer) throws RepositoryException {
+        final List<Node> subFolders = new ArrayList<>();
+        for (NodeIterator children = folder.getNodes(); children.hasNext(); ) {
+            final Node child = children.nextNode();
+            if (child.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER)) {
+                subFolders.add(child);
+            }
+        }
+
+        long purged = 0;
+        for (Node subFolder : subFolders) {
+            if (System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            final String bucketPath = folderPath == null ? subFolder.getName() : folderPath + "/" + subFolder.getName();
+            final long[] range = getBucketRange(bucketPath);
+            if (range == null || range[0] >= olderThan) {
+                continue;
+            }
+            if (StringUtils.countMatches(bucketPath, "/") + 1 < BUCKET_DEPTH) {
+                purged += purgeBuckets(session, subFolder, bucketPath, olderThan, deadline, pacer);
+                if (range[1] <= olderThan && !subFolder.hasNodes()) {
+                    subFolder.remove();
+                    session.save();
+                }
+            } else if (range[1] <= olderThan) {
+                purged += removeBucket(session, subFolder, pacer);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Remove an hour bucket with all its jobs in a single save. Only the statuses of the jobs are read, to keep the
+     * status counters up to date.
+     *
+     * @return the number of removed jobs, 0 if the bucket has been changed concurrently
+     */
+    protected long removeBucket(final Session session, final Node bucketNode, final AdaptiveSavePacer pacer) throws RepositoryException {
+        final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+        int jobCount = 0;
+        for (NodeIterator jobNodes = bucketNode.getNodes(); jobNodes.hasNext(); ) {
+            final Node jobNode = jobNodes.nextNode();
+            if (jobNode.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB)) {
+                statusChanges.add(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS), null);
+                jobCount++;
+            }
+        }
+
+        final String bucketPath = bucketNode.getPath();
+        bucketNode.remove();
+        final long start = System.nanoTime();
+        try {
+            session.save();
+        } catch (InvalidItemStateException e) {
+            statusChanges.discard();
+            refreshSession(session);
+            log.debug("Bucket {} has been changed concurrently, purging its jobs one by one: {}", bucketPath, e.toString());
+            return 0;
+        }
+        statusChanges.commit();
+        pacer.afterSave(jobCount, System.nanoTime() - start);
+        log.debug("Purged bucket {} with {} jobs", bucketPath, jobCount);
+        return jobCount;
+    }
+
+    /**
+     * Remove the jobs found by a query on creation date and status, in batches of {@code batchSize}.
+     *
+     * @return the number of removed jobs
+     */
+    protected long purgeJobNodes(final Session session, final Calendar olderThan, final List<WebArchiveUpdateJobStatus> statuses,
+                                 final long deadline, final AdaptiveSavePacer pacer) throws RepositoryException {
+        final String statement = new JcrJobsQueryBuilder("/" + DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                .createdBefore(olderThan)
+                .statuses(statuses)
+                .build();
+        log.debug("Purging jobs with query {}", statement);
+
+        long purged = 0;
+        int failedRounds = 0;
+        while (System.currentTimeMillis() < deadline) {
+            final javax.jcr.query.Query query = session.getWorkspace().getQueryManager().createQuery(statement, javax.jcr.query.Query.XPATH);
+            query.setLimit(batchSize);
+
+            final JcrJobStatusCounters.Changes statusChanges = statusCounters.changes();
+            int batchCount = 0;
+            for (NodeIterator jobNodes = query.execute().getNodes(); jobNodes.hasNext(); ) {
+                final Node jobNode = jobNodes.nextNode();
+                final WebArchiveUpdateJobStatus status = mapStatus(jobNode, WebArchivingConstants.PROP_STATUS);
+                if (statuses == null || statuses.contains(status)) {
+                    final Node folder = jobNode.getParent();
+                    jobNode.remove();
+                    pruneEmptyBuckets(folder);
+                    statusChanges.add(status, null);
+                    batchCount++;
+                }
             }
+            if (batchCount == 0) {
+                break;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                session.save();
+            } catch (InvalidItemStateException e) {
+                statusChanges.discard();
+                refreshSession(session);
+                if (++failedRounds >= MAX_CONFLICT_RETRIES) {
+                    log.warn("Giving up purging jobs after {} conflicting attempts: {}", failedRounds, e.toString());
+                    break;
+                }
+                log.debug("Concurrent modification while purging jobs, retrying: {}", e.toString());
+                continue;
+            }
+            statusChanges.commit();
+            failedRounds = 0;
+            purged += batchCount;
+            pacer.afterSave(batchCount, System.nanoTime() - start);
         }
+        return purged;
+    }
+
+    /**
+     * Get the time range of the bucket folder at {@code bucketPath}, which has one to four segments (yyyy/MM/dd/HH).
+     *
+     * @return the start (inclusive) and end (exclusive) in milliseconds, or null if the path is not a bucket path
+     */
+    protected long[] getBucketRange(final String bucketPath) {
+        final String[] segments = bucketPath.split("/");
+        final int[] fields = {Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY};
+        if (segments.length > BUCKET_DEPTH) {
+            return null;
+        }
+        final Calendar calendar = Calendar.getInstance(BUCKET_TIME_ZONE);
+        calendar.clear();
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].isEmpty() || !StringUtils.isNumeric(segments[i])) {
+                return null;
+            }
+            final int value = Integer.parseInt(segments[i]);
+            calendar.set(fields[i], fields[i] == Calendar.MONTH ? value - 1 : value);
+        }
+        final long start = calendar.getTimeInMillis();
+        calendar.add(fields[segments.length - 1], 1);
+        return new long[]{start, calendar.getTimeInMillis()};
     }
 
     @Override
     public List<WebArchiveUpdateJob> searchForWebArchiveUpdateJobs(List<WebArchiveUpdateJobStatus> statuses, Map<String, String> searchFilters, int offset,
                                                                    int limit, String orderByPropertyHint, boolean ascending) throws WebArchiveUpdateException {
-        final SearchServiceFactory searchServiceFactory = HippoServiceRegistry.getService(SearchServiceFactory.class);
-        if (searchServiceFactory == null) {
-            throw new SearchServiceException("Cannot find service by name " + SearchServiceFactory.class.getName());
-        }
+        final SearchServiceFactory searchServiceFactory = getSearchServiceFactory();
 
         List<WebArchiveUpdateJob> jobs = new LinkedList<>();
 
@@ -245,65 +1016,225 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             Session session = null;
             try {
                 session = getSession();
-                final SearchService searchService = searchServiceFactory.createSearchService(session);
-                Query query = createSearchQuery(searchService, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB, statuses, searchFilters);
-
-                if (StringUtils.isNotBlank(orderByPropertyHint)) {
-                    query = query.orderBy(orderByPropertyHint);
-                    query = ascending ? ((OrderClause) query).ascending() : ((OrderClause) query).descending();
-                } else {
-                    query = query.orderBy(WebArchivingConstants.PROP_LAST_MODIFIED).descending();
-                }
-
-                if (offset > 0) {
-                    query = query.offsetBy(offset);
-                }
-                if (limit > 0) {
-                    query = query.limitTo(limit);
-                }
-
-                QueryResult result = searchService.search(query);
-                for (final HitIterator hits = result.getHits(); hits.hasNext(); ) {
-                    final Hit hit = hits.next();
-                    final String uuid = hit.getSearchDocument().getContentId().toIdentifier();
+                final List<String> uuids = searchForJobNodeIdentifiers(searchServiceFactory.createSearchService(session), statuses, searchFilters,
+                        offset, limit, orderByPropertyHint, ascending);
+                for (String uuid : uuids) {
                     final WebArchiveUpdateJob job = getWebArchiveUpdateJobByUuid(uuid, session);
                     jobs.add(job);
                 }
             } catch (SearchServiceException | RepositoryException e) {
                 throw new WebArchiveUpdateException(e);
             } finally {
-                if (session != null) {
-                    session.logout();
-                }
+                releaseSession(session);
             }
         }
         return jobs;
     }
 
-    protected Node createJobNode(final Session session) throws RepositoryException {
-        Node updateJobsContainerNode = getJobsStoreNode(session);
+    /**
+     * Search job summaries, which are mapped from the properties of the job nodes only. The update child nodes and
+     * their URLs are not read, unless the job node was created by an older version that did not store the update type
+     * and URL count on the job node.
+     */
+    @Override
+    public List<WebArchiveUpdateJobSummary> searchForWebArchiveUpdateJobSummaries(List<WebArchiveUpdateJobStatus> statuses, Map<String, String> searchFilters,
+                                                                                int offset, int limit, String orderByPropertyHint,
+                                                                                boolean ascending) throws WebArchiveUpdateException {
+        final SearchServiceFactory searchServiceFactory = getSearchServiceFactory();
+
+        List<WebArchiveUpdateJobSummary> summaries = new ArrayList<>();
 
-        String jobNodeName = "job_" + System.currentTimeMillis();
-        Random rand = new Random();
-        while (updateJobsContainerNode.hasNode(jobNodeName)) {
-            jobNodeName += "_" + rand.nextInt(10);
+        if (limit > 0) {
+            Session session = null;
+            try {
+                session = getSession();
+                final List<String> uuids = searchForJobNodeIdentifiers(searchServiceFactory.createSearchService(session), statuses, searchFilters,
+                        offset, limit, orderByPropertyHint, ascending);
+                for (String uuid : uuids) {
+                    summaries.add(mapWebArchiveJobSummary(session.getNodeByIdentifier(uuid)));
+                }
+            } catch (SearchServiceException | RepositoryException e) {
+                throw new WebArchiveUpdateException(e);
+            } finally {
+                releaseSession(session);
+            }
         }
-        Node jobNode = updateJobsContainerNode.addNode(jobNodeName, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB);
+        return summaries;
+    }
+
+    /**
+     * Keyset based search, ordered by last modification date and node identifier. The continuation token encodes both
+     * values of the last job of the page, so the next page is found by a range constraint instead of an offset.
+     */
+    @Override
+    public WebArchiveUpdateJobsPage searchForWebArchiveUpdateJobs(final List<WebArchiveUpdateJobStatus> statuses, final Map<String, String> searchFilters,
+                                                                  final String continuationToken, final int limit) throws WebArchiveUpdateException {
+        if (limit <= 0) {
+            return new WebArchiveUpdateJobsPage(null, continuationToken);
+        }
+
+        final JcrJobsQueryBuilder queryBuilder = new JcrJobsQueryBuilder("/" + DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                .statuses(statuses)
+                .filters(searchFilters);
+        if (continuationToken != null) {
+            final String[] position = decodeContinuationToken(continuationToken);
+            final Calendar lastModified = Calendar.getInstance();
+            lastModified.setTimeInMillis(Long.parseLong(position[0]));
+            queryBuilder.after(lastModified, position[1]);
+        }
+        queryBuilder.orderBy(WebArchivingConstants.PROP_LAST_MODIFIED, true).orderBy("jcr:uuid", true);
+
+        final List<WebArchiveUpdateJob> jobs = new ArrayList<>(limit);
+        String nextToken = null;
+        Session session = null;
+        try {
+            session = getSession();
+            final javax.jcr.query.Query query = session.getWorkspace().getQueryManager()
+                    .createQuery(queryBuilder.build(), javax.jcr.query.Query.XPATH);
+            query.setLimit(limit);
+            log.debug("Searching page of jobs with query {}", queryBuilder);
+
+            Node lastJobNode = null;
+            for (NodeIterator nodes = query.execute().getNodes(); nodes.hasNext(); ) {
+                lastJobNode = nodes.nextNode();
+                final WebArchiveUpdateJob job = new WebArchiveUpdateJob();
+                mapWebArchiveJob(lastJobNode, job);
+                jobs.add(job);
+            }
+            if (jobs.size() == limit) {
+                nextToken = encodeContinuationToken(lastJobNode);
+            }
+        } catch (RepositoryException e) {
+            throw new WebArchiveUpdateException(e, "Error while searching jobs after continuation token '{}'", continuationToken);
+        } finally {
+            releaseSession(session);
+        }
+        return new WebArchiveUpdateJobsPage(jobs, nextToken);
+    }
+
+    protected String encodeContinuationToken(final Node jobNode) throws RepositoryException {
+        final Calendar lastModified = JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_LAST_MODIFIED, null);
+        final String position = (lastModified != null ? lastModified.getTimeInMillis() : 0L) + "|" + jobNode.getIdentifier();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected String[] decodeContinuationToken(final String continuationToken) throws WebArchiveUpdateException {
+        try {
+            final String position = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+            final String[] parts = StringUtils.split(position, '|');
+            if (parts.length == 2 && StringUtils.isNumeric(parts[0]) && StringUtils.isNotBlank(parts[1])) {
+                return parts;
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Cannot decode continuation token '{}': {}", continuationToken, e.toString());
+        }
+        throw new WebArchiveUpdateException("Invalid continuation token '{}'", continuationToken);
+    }
+
+    protected List<String> searchForJobNodeIdentifiers(final SearchService searchService, final List<WebArchiveUpdateJobStatus> statuses,
+                                                       final Map<String, String> searchFilters, final int offset, final int limit,
+                                                       final String orderByPropertyHint, final boolean ascending) throws SearchServiceException, RepositoryException {
+        Query query = createSearchQuery(searchService, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB, statuses, searchFilters);
 
-        if (!jobNode.isNodeType("mix:referenceable")) {
-            jobNode.addMixin("mix:referenceable");
+        if (StringUtils.isNotBlank(orderByPropertyHint)) {
+            query = query.orderBy(JcrJobsQueryBuilder.getPropertyName(orderByPropertyHint));
+            query = ascending ? ((OrderClause) query).ascending() : ((OrderClause) query).descending();
+        } else {
+            query = query.orderBy(WebArchivingConstants.PROP_LAST_MODIFIED).descending();
         }
+
+        if (offset > 0) {
+            query = query.offsetBy(offset);
+        }
+        if (limit > 0) {
+            query = query.limitTo(limit);
+        }
+
+        final List<String> uuids = new ArrayList<>();
+        QueryResult result = searchService.search(query);
+        for (final HitIterator hits = result.getHits(); hits.hasNext(); ) {
+            final Hit hit = hits.next();
+            uuids.add(hit.getSearchDocument().getContentId().toIdentifier());
+        }
+        return uuids;
+    }
+
+    protected SearchServiceFactory getSearchServiceFactory() {
+        final SearchServiceFactory searchServiceFactory = HippoServiceRegistry.getService(SearchServiceFactory.class);
+        if (searchServiceFactory == null) {
+            throw new SearchServiceException("Cannot find service by name " + SearchServiceFactory.class.getName());
+        }
+        return searchServiceFactory;
+    }
+
+    /**
+     * Create a job node named after a new time ordered, cluster unique identifier, so no existence check is needed and
+     * the order of the job nodes equals their creation order.
+     */
+    protected Node createJobNode(final Session session, final WebArchiveUpdateJobStatus status) throws RepositoryException {
+        final String jobId = WebArchiveUpdateJobIdGenerator.getInstance().nextId();
+        String jobNodeName = JOB_NODE_NAME_PREFIX + jobId;
+        Node updateJobsContainerNode = getJobContainerNode(session, jobNodeName, status);
+
+        Node jobNode = updateJobsContainerNode.addNode(jobNodeName, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB);
+        jobNode.addMixin("mix:referenceable");
         return jobNode;
     }
 
+    /**
+     * Bind only the changed properties of an existing job node. Job nodes always have mix:referenceable, as they are
+     * created by {@link #createJobNode(Session, WebArchiveUpdateJobStatus)}, so that is not checked. A job of which the
+     * status changes is moved into the folder of its new status if status partitioning is enabled.
+     */
+    protected void bindDirtyProperties(final Node jobNode, final WebArchiveUpdateJob job,
+                                       final JcrJobStatusCounters.Changes statusChanges) throws RepositoryException {
+        for (WebArchiveUpdateJob.Field field : job.getDirtyFields()) {
+            switch (field) {
+                case STATUS:
+                    statusChanges.add(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS), getStoredStatus(job));
+                    jobNode.setProperty(WebArchivingConstants.PROP_STATUS, getStoredStatus(job).name());
+                    break;
+                case ATTEMPT:
+                    jobNode.setProperty(WebArchivingConstants.PROP_ATTEMPT, job.getAttempt());
+                    break;
+                case CREATED:
+                    jobNode.setProperty(WebArchivingConstants.PROP_CREATED, job.getCreated());
+                    break;
+                case LAST_MODIFIED:
+                    jobNode.setProperty(WebArchivingConstants.PROP_LAST_MODIFIED, job.getLastModified());
+                    break;
+                case OWNER:
+                    jobNode.setProperty(WebArchivingConstants.PROP_OWNER, job.getOwner());
+                    break;
+                case LEASE_EXPIRATION:
+                    jobNode.setProperty(WebArchivingConstants.PROP_LEASE_EXPIRATION, job.getLeaseExpiration());
+                    break;
+                case NEXT_ATTEMPT:
+                    jobNode.setProperty(WebArchivingConstants.PROP_NEXT_ATTEMPT, job.getNextAttemptAt());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (job.isDirty(WebArchiveUpdateJob.Field.STATUS)) {
+            moveToPartition(jobNode, getStoredStatus(job));
+        }
+    }
+
     protected void bindWebArchiveUpdateJobNode(final Node jobNode, final WebArchiveUpdateJob job) throws RepositoryException {
         jobNode.setProperty(WebArchivingConstants.PROP_STATUS, job.getStatus() != null ? job.getStatus().name() : WebArchiveUpdateJobStatus.UNDEFINED.name());
         jobNode.setProperty(WebArchivingConstants.PROP_ATTEMPT, job.getAttempt());
         jobNode.setProperty(WebArchivingConstants.PROP_CREATED, job.getCreated());
         jobNode.setProperty(WebArchivingConstants.PROP_LAST_MODIFIED, job.getLastModified());
+        jobNode.setProperty(WebArchivingConstants.PROP_OWNER, job.getOwner());
+        jobNode.setProperty(WebArchivingConstants.PROP_LEASE_EXPIRATION, job.getLeaseExpiration());
+        jobNode.setProperty(WebArchivingConstants.PROP_NEXT_ATTEMPT, job.getNextAttemptAt());
     }
 
-    protected void createWebArchiveUpdate(final Node jobNode, final WebArchiveUpdate update) throws RepositoryException {
+    /**
+     * Add and bind the update node of a job, without saving it.
+     */
+    protected Node addWebArchiveUpdateNode(final Node jobNode, final WebArchiveUpdate update) throws RepositoryException {
         Node updateNode = jobNode.addNode(WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "update", WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE);
 
         if (!updateNode.isNodeType("mix:referenceable")) {
@@ -312,9 +1243,11 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
 
         bindWebArchiveUpdateNode(updateNode, update);
 
-        updateNode.getSession().save();
-        String jobItemId = updateNode.getIdentifier();
-        update.setId(jobItemId);
+        // mirrored on the job node so that job summaries can be read without the update node
+        jobNode.setProperty(WebArchivingConstants.PROP_TYPE, updateNode.getProperty(WebArchivingConstants.PROP_TYPE).getString());
+        jobNode.setProperty(WebArchivingConstants.PROP_URL_COUNT, update.getUrls().size());
+        jobNode.setProperty(WebArchivingConstants.PROP_UPDATE_ID, updateNode.getProperty(WebArchivingConstants.PROP_ID).getString());
+        return updateNode;
     }
 
     protected void bindWebArchiveUpdateNode(final Node updateNode, final WebArchiveUpdate update) throws RepositoryException {
@@ -322,7 +1255,68 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
         updateNode.setProperty(WebArchivingConstants.PROP_CREATOR, StringUtils.defaultIfEmpty(update.getCreator(), ""));
         updateNode.setProperty(WebArchivingConstants.PROP_ID, StringUtils.defaultIfEmpty(update.getId(), ""));
         updateNode.setProperty(WebArchivingConstants.PROP_TYPE, update.getType() != null ? update.getType().name() : WebArchiveUpdateType.UNDEFINED.name());
-        updateNode.setProperty(WebArchivingConstants.PROP_URLS, update.getUrls().toArray(new String[0]));
+        bindUrls(updateNode, update.getUrls());
+    }
+
+    /**
+     * Store the URLs of an update node with the configured encoding, removing the properties of other encodings.
+     */
+    protected void bindUrls(final Node updateNode, final List<String> urls) throws RepositoryException {
+        if (urlEncoding == UrlEncoding.PLAIN) {
+            updateNode.setProperty(WebArchivingConstants.PROP_URLS, urls.toArray(new String[0]));
+            removeProperties(updateNode, WebArchivingConstants.PROP_URLS_ENCODED, WebArchivingConstants.PROP_URLS_DATA);
+            return;
+        }
+
+        final String encoded = UrlListCodec.encode(urls);
+        if (encoded.length() > urlCompressionThreshold) {
+            final Binary binary = updateNode.getSession().getValueFactory()
+                    .createBinary(new ByteArrayInputStream(UrlListCodec.compress(encoded)));
+            try {
+                updateNode.setProperty(WebArchivingConstants.PROP_URLS_DATA, binary);
+            } finally {
+                binary.dispose();
+            }
+            removeProperties(updateNode, WebArchivingConstants.PROP_URLS, WebArchivingConstants.PROP_URLS_ENCODED);
+        } else {
+            updateNode.setProperty(WebArchivingConstants.PROP_URLS_ENCODED, encoded);
+            removeProperties(updateNode, WebArchivingConstants.PROP_URLS, WebArchivingConstants.PROP_URLS_DATA);
+        }
+    }
+
+    /**
+     * Read the URLs of an update node in any of the encodings. Compact encodings are decoded when the URLs are first
+     * accessed.
+     */
+    protected List<String> mapUrls(final Node updateNode) throws RepositoryException {
+        if (updateNode.hasProperty(WebArchivingConstants.PROP_URLS_ENCODED)) {
+            return CompactUrlList.fromEncoded(updateNode.getProperty(WebArchivingConstants.PROP_URLS_ENCODED).getString());
+        }
+        if (updateNode.hasProperty(WebArchivingConstants.PROP_URLS_DATA)) {
+            final Binary binary = updateNode.getProperty(WebArchivingConstants.PROP_URLS_DATA).getBinary();
+            try (InputStream in = binary.getStream()) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.max(0, binary.getSize()));
+                final byte[] buffer = new byte[8192];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    bytes.write(buffer, 0, read);
+                }
+                return CompactUrlList.fromCompressed(bytes.toByteArray());
+            } catch (IOException e) {
+                throw new RepositoryException("Error while reading URLs of " + updateNode.getPath(), e);
+            } finally {
+                binary.dispose();
+            }
+        }
+        final String[] urls = JcrUtils.getMultipleStringProperty(updateNode, WebArchivingConstants.PROP_URLS, null);
+        return urls != null ? Arrays.asList(urls) : new ArrayList<>();
+    }
+
+    private static void removeProperties(final Node node, final String... propertyNames) throws RepositoryException {
+        for (String propertyName : propertyNames) {
+            if (node.hasProperty(propertyName)) {
+                node.getProperty(propertyName).remove();
+            }
+        }
     }
 
     protected WebArchiveUpdateJob getWebArchiveUpdateJobByUuid(final String jobUuid, final Session session) throws RepositoryException {
@@ -338,6 +1332,9 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
         job.setLastModified(JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_LAST_MODIFIED, null));
         job.setStatus(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS));
         job.setAttempt(JcrUtils.getLongProperty(jobNode, WebArchivingConstants.PROP_ATTEMPT, 1L));
+        job.setOwner(JcrUtils.getStringProperty(jobNode, WebArchivingConstants.PROP_OWNER, null));
+        job.setLeaseExpiration(JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_LEASE_EXPIRATION, null));
+        job.setNextAttemptAt(JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_NEXT_ATTEMPT, null));
 
         Node updateNode = jobNode.getNode(WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "update");
         if (updateNode.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE)) {
@@ -346,9 +1343,30 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             update.setCreated(JcrUtils.getDateProperty(updateNode, WebArchivingConstants.PROP_CREATED, null));
             update.setCreator(JcrUtils.getStringProperty(updateNode, WebArchivingConstants.PROP_CREATOR, null));
             update.setType(mapType(updateNode, WebArchivingConstants.PROP_TYPE));
-            update.setUrls(Arrays.asList(JcrUtils.getMultipleStringProperty(updateNode, WebArchivingConstants.PROP_URLS, null)));
+            update.setUrls(mapUrls(updateNode));
             job.setWebArchiveUpdate(update);
         }
+        job.clearDirty();
+    }
+
+    protected WebArchiveUpdateJobSummary mapWebArchiveJobSummary(final Node jobNode) throws RepositoryException {
+        WebArchiveUpdateJobSummary summary = new WebArchiveUpdateJobSummary();
+        summary.setId(jobNode.getName());
+        summary.setCreated(JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_CREATED, null));
+        summary.setLastModified(JcrUtils.getDateProperty(jobNode, WebArchivingConstants.PROP_LAST_MODIFIED, null));
+        summary.setStatus(mapStatus(jobNode, WebArchivingConstants.PROP_STATUS));
+        summary.setAttempt(JcrUtils.getLongProperty(jobNode, WebArchivingConstants.PROP_ATTEMPT, 1L));
+
+        if (jobNode.hasProperty(WebArchivingConstants.PROP_URL_COUNT)) {
+            summary.setType(mapType(jobNode, WebArchivingConstants.PROP_TYPE));
+            summary.setUrlCount(jobNode.getProperty(WebArchivingConstants.PROP_URL_COUNT).getLong());
+        } else if (jobNode.hasNode(WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "update")) {
+            final Node updateNode = jobNode.getNode(WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + "update");
+            summary.setType(mapType(updateNode, WebArchivingConstants.PROP_TYPE));
+            summary.setUrlCount(updateNode.hasProperty(WebArchivingConstants.PROP_URLS)
+                    ? updateNode.getProperty(WebArchivingConstants.PROP_URLS).getLengths().length : 0);
+        }
+        return summary;
     }
 
     protected Query createSearchQuery(final SearchService searchService, final String webArchiveUpdateJobNodeType, final List<WebArchiveUpdateJobStatus> statuses,
@@ -385,10 +1403,7 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
             AndConstraint and = null;
             for (String attrName : searchFilters.keySet()) {
 
-                String propName = WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + attrName.toLowerCase();
-                if (!WebArchivingConstants.BUILTIN_JOB_PROP_NAMES.contains(propName)) {
-                    propName = WebArchivingConstants.NS_WEB_ARCHIVING_ADDON + attrName;
-                }
+                String propName = JcrJobsQueryBuilder.getPropertyName(attrName);
 
                 final String value = searchFilters.get(attrName);
                 Constraint constraint = QueryUtils.text(propName).isEqualTo(value);
@@ -431,28 +1446,541 @@ public class JcrWebArchiveUpdateJobsManager implements WebArchiveUpdateJobsManag
         }
     }
 
+    /**
+     * Get a system session, borrowed from the session pool if pooling is enabled. Sessions must be released with
+     * {@link #releaseSession(Session)} by the thread that got them.
+     */
     protected Session getSession() throws RepositoryException {
+        final JcrSessionPool pool = sessionPool;
+        if (pool != null) {
+            return pool.borrowSession();
+        }
+        return createSession();
+    }
+
+    protected void releaseSession(final Session session) {
+        if (session == null) {
+            return;
+        }
+        final JcrSessionPool pool = sessionPool;
+        if (pool != null) {
+            pool.returnSession(session);
+        } else {
+            session.logout();
+        }
+    }
+
+    protected Session createSession() throws RepositoryException {
         if (moduleSession != null) {
             return moduleSession.impersonate(getSystemCredentials());
         }
         throw new RepositoryException("ModuleSession is null");
     }
 
+    /**
+     * Return the counters maintained from the changes saved by this cluster node, which are reconciled with a count
+     * of the stored jobs every {@code countReconcileInterval} seconds. The first call counts the stored jobs of the
+     * statuses of which the count is not known yet.
+     */
+    @Override
+    public Map<WebArchiveUpdateJobStatus, Long> countByStatus() throws WebArchiveUpdateException {
+        if (!statusCounters.isReconciled()) {
+            reconcileStatusCounters(false);
+        }
+        return statusCounters.snapshot();
+    }
+
+    /**
+     * Reset the status counters from a count of the stored jobs per status, including the jobs changed by other cluster
+     * nodes. This is done by the scheduled reconciliation every {@code countReconcileInterval} seconds, which iterates
+     * over the jobs of a status if the query does not return its size.
+     *
+     * @throws WebArchiveUpdateException if a web archive update exception occurs
+     */
+    public void reconcileStatusCounters() throws WebArchiveUpdateException {
+        reconcileStatusCounters(true);
+    }
+
+    /**
+     * @param authoritative whether to count the jobs of every status; otherwise the jobs of a status of which the
+     *                      query does not return the size are only iterated over if the count of the status is not
+     *                      known yet, and the count maintained from the changes is kept until the next reconciliation
+     */
+    protected void reconcileStatusCounters(final boolean authoritative) throws WebArchiveUpdateException {
+        final Map<WebArchiveUpdateJobStatus, Long> storedCounts = new EnumMap<>(WebArchiveUpdateJobStatus.class);
+        final long start = System.currentTimeMillis();
+        Session session = null;
+        try {
+            session = getSession();
+            for (WebArchiveUpdateJobStatus status : WebArchiveUpdateJobStatus.values()) {
+                final long count = countJobNodes(session, status, authoritative || !statusCounters.isKnown(status));
+                if (count >= 0) {
+                    storedCounts.put(status, count);
+                }
+            }
+        } catch (RepositoryException e) {
+            throw new WebArchiveUpdateException(e, "Error while counting jobs per status");
+        } finally {
+            releaseSession(session);
+        }
+
+        if (log.isDebugEnabled() && statusCounters.isReconciled()) {
+            log.debug("Reconciling job counters {} with stored counts {}", statusCounters.snapshot(), storedCounts);
+        }
+        statusCounters.reconcile(storedCounts);
+        log.debug("Counted jobs per status in {} ms: {}", System.currentTimeMillis() - start, storedCounts);
+    }
+
+    /**
+     * @param iterate whether to iterate over the jobs if the query does not return the size
+     * @return the number of stored jobs with the status, or -1 if unknown and {@code iterate} is false
+     */
+    protected long countJobNodes(final Session session, final WebArchiveUpdateJobStatus status, final boolean iterate) throws RepositoryException {
+        final String statement = new JcrJobsQueryBuilder("/" + DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                .statuses(Collections.singletonList(status))
+                .build();
+        final NodeIterator nodes = session.getWorkspace().getQueryManager()
+                .createQuery(statement, javax.jcr.query.Query.XPATH)
+                .execute()
+                .getNodes();
+        long count = nodes.getSize();
+        if (count < 0 && iterate) {
+            count = 0;
+            while (nodes.hasNext()) {
+                nodes.nextNode();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the session pool, or null if session pooling is disabled
+     */
+    public JcrSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
     protected Credentials getSystemCredentials() {
         return new SimpleCredentials("system", new char[]{});
     }
 
+    /**
+     * Get the updates store node by its identifier, which is resolved once by {@link #initialize(Map)}, so that no
+     * lock is taken. If the node has been removed, it is re-created on a slow path.
+     */
     protected Node getJobsStoreNode(final Session session) throws RepositoryException {
-        Node rootNode = session.getRootNode();
-        Node updatesStoreNode;
-        synchronized (mutex) {
-            if (!rootNode.hasNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)) {
-                updatesStoreNode = rootNode.addNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_CONTAINER);
+        final String identifier = jobsStoreIdentifier;
+        if (identifier != null) {
+            try {
+                return session.getNodeByIdentifier(identifier);
+            } catch (ItemNotFoundException e) {
+                log.warn("Updates store node {} does not exist anymore, it will be re-created", identifier);
+            }
+        }
+        synchronized (jobsStoreMutex) {
+            if (jobsStoreIdentifier == null || jobsStoreIdentifier.equals(identifier)) {
+                jobsStoreIdentifier = ensureJobsStoreNode();
+            }
+            return session.getNodeByIdentifier(jobsStoreIdentifier);
+        }
+    }
+
+    /**
+     * Get or create the updates store node and make it referenceable, in a session of its own so that no pending
+     * changes of a caller are saved with it.
+     *
+     * @return the identifier of the updates store node
+     */
+    protected String ensureJobsStoreNode() throws RepositoryException {
+        final Session session = createSession();
+        try {
+            final Node rootNode = session.getRootNode();
+            Node storeNode = rootNode.hasNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                    ? rootNode.getNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION)
+                    : rootNode.addNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_CONTAINER);
+            if (!storeNode.isNodeType(MIX_REFERENCEABLE)) {
+                storeNode.addMixin(MIX_REFERENCEABLE);
+            }
+            if (session.hasPendingChanges()) {
+                try {
+                    session.save();
+                    log.info("Created or updated updates store node {}", storeNode.getPath());
+                } catch (InvalidItemStateException | ItemExistsException e) {
+                    // created or made referenceable concurrently by another cluster node
+                    log.debug("Updates store node has been changed concurrently: {}", e.toString());
+                    session.refresh(false);
+                    storeNode = rootNode.getNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION);
+                }
+            }
+            return storeNode.getIdentifier();
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Get the node of the job with the given identifier, looking it up in the locations dictated by the store layout
+     * and status partitioning first, and falling back on the locations of the other layouts for jobs that have not
+     * been migrated (yet).
+     */
+    protected Node getJobNode(final Session session, final String jobId) throws RepositoryException {
+        final Node storeNode = getJobsStoreNode(session);
+        for (String containerPath : getCandidateContainerPaths(jobId)) {
+            final String jobPath = containerPath.isEmpty() ? jobId : containerPath + "/" + jobId;
+            if (storeNode.hasNode(jobPath)) {
+                return storeNode.getNode(jobPath);
+            }
+        }
+        throw new PathNotFoundException("Job " + jobId + " not found below " + storeNode.getPath());
+    }
+
+    /**
+     * @return the relative paths of the folders the job with the given identifier may be stored in, most likely first
+     */
+    protected Collection<String> getCandidateContainerPaths(final String jobId) {
+        final String bucketPath = getBucketPath(jobId);
+        final List<String> unpartitionedPaths;
+        if (bucketPath == null) {
+            unpartitionedPaths = Collections.singletonList("");
+        } else {
+            unpartitionedPaths = storeLayout == StoreLayout.DATED ? Arrays.asList(bucketPath, "") : Arrays.asList("", bucketPath);
+        }
+        final List<String> partitionPaths = new ArrayList<>();
+        for (Partition partition : Partition.values()) {
+            for (String path : unpartitionedPaths) {
+                partitionPaths.add(path.isEmpty() ? partition.getFolderName() : partition.getFolderName() + "/" + path);
+            }
+        }
+
+        final Set<String> paths = new LinkedHashSet<>();
+        paths.addAll(statusPartitioning ? partitionPaths : unpartitionedPaths);
+        paths.addAll(statusPartitioning ? unpartitionedPaths : partitionPaths);
+        return paths;
+    }
+
+    /**
+     * Get the node to add a job to or move it to, which is either the store node itself or a folder below it,
+     * depending on the store layout and status partitioning.
+     */
+    protected Node getJobContainerNode(final Session session, final String jobName, final WebArchiveUpdateJobStatus status) throws RepositoryException {
+        final String containerPath = getContainerPath(jobName, status);
+        if (containerPath.isEmpty()) {
+            return getJobsStoreNode(session);
+        }
+        return getOrCreateFolderNode(session, containerPath);
+    }
+
+    /**
+     * Get the relative path of the folder a job belongs in: [partition/][yyyy/MM/dd/HH], or the empty string for the
+     * store node itself.
+     */
+    protected String getContainerPath(final String jobName, final WebArchiveUpdateJobStatus status) {
+        final String bucketPath = storeLayout == StoreLayout.DATED ? getBucketPath(jobName) : null;
+        if (!statusPartitioning) {
+            return StringUtils.defaultString(bucketPath);
+        }
+        final String partitionPath = Partition.of(status).getFolderName();
+        return bucketPath != null ? partitionPath + "/" + bucketPath : partitionPath;
+    }
+
+    /**
+     * @return whether a folder at {@code folderPath} is part of the current store layout and status partitioning
+     */
+    protected boolean isExpectedFolder(final String folderPath) {
+        final String[] segments = folderPath.split("/");
+        int bucketStart = 0;
+        if (statusPartitioning) {
+            if (!Partition.isFolderName(segments[0])) {
+                return false;
+            }
+            bucketStart = 1;
+        }
+        if (segments.length == bucketStart) {
+            return true;
+        }
+        return storeLayout == StoreLayout.DATED
+                && getBucketRange(String.join("/", Arrays.copyOfRange(segments, bucketStart, segments.length))) != null;
+    }
+
+    /**
+     * @return the folder of a status partition, or null if it does not exist (yet)
+     */
+    protected Node getPartitionNode(final Session session, final Partition partition) throws RepositoryException {
+        final Node storeNode = getJobsStoreNode(session);
+        return storeNode.hasNode(partition.getFolderName()) ? storeNode.getNode(partition.getFolderName()) : null;
+    }
+
+    /**
+     * Move a job node into the folder of {@code status} if status partitioning is enabled and it is not there yet,
+     * removing the bucket it leaves if that is empty afterwards. The move is saved along with the other changes of the
+     * session.
+     *
+     * @return the job node at its new location
+     */
+    protected Node moveToPartition(final Node jobNode, final WebArchiveUpdateJobStatus status) throws RepositoryException {
+        if (!statusPartitioning) {
+            return jobNode;
+        }
+        final Session session = jobNode.getSession();
+        final Node containerNode = getJobContainerNode(session, jobNode.getName(), status);
+        if (containerNode.isSame(jobNode.getParent())) {
+            return jobNode;
+        }
+        final Node sourceFolder = jobNode.getParent();
+        final String destPath = containerNode.getPath() + "/" + jobNode.getName();
+        session.move(jobNode.getPath(), destPath);
+        pruneEmptyBuckets(sourceFolder);
+        return session.getNode(destPath);
+    }
+
+    /**
+     * Collect up to {@code max} job nodes below {@code folder} that are accepted by {@code filter}. Jobs are taken in
+     * child order and bucket folders in order of their name, so the oldest jobs come first.
+     */
+    protected void collectJobNodes(final Node folder, final int max, final JobNodeFilter filter, final List<Node> jobNodes) throws RepositoryException {
+        final Map<String, Node> subFolders = new TreeMap<>();
+        for (NodeIterator children = folder.getNodes(); children.hasNext() && jobNodes.size() < max; ) {
+            final Node child = children.nextNode();
+            if (child.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB)) {
+                if (filter.accept(child)) {
+                    jobNodes.add(child);
+                }
+            } else if (child.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER)) {
+                subFolders.put(child.getName(), child);
+            }
+        }
+        for (Node subFolder : subFolders.values()) {
+            if (jobNodes.size() >= max) {
+                break;
+            }
+            collectJobNodes(subFolder, max, filter, jobNodes);
+        }
+    }
+
+    /**
+     * Get the relative bucket path (yyyy/MM/dd/HH) of the job with the given identifier, or null if the creation time
+     * cannot be derived from the identifier. Both generated identifiers and the 'job_&lt;millis&gt;' identifiers of older
+     * versions are supported.
+     */
+    protected String getBucketPath(final String jobId) {
+        if (jobId == null || !jobId.startsWith(JOB_NODE_NAME_PREFIX)) {
+            return null;
+        }
+        final String suffix = jobId.substring(JOB_NODE_NAME_PREFIX.length());
+        if (WebArchiveUpdateJobIdGenerator.isValid(suffix)) {
+            return getBucketPath(WebArchiveUpdateJobIdGenerator.getTimestamp(suffix));
+        }
+        final String timestamp = StringUtils.substringBefore(suffix, "_");
+        try {
+            return getBucketPath(Long.parseLong(timestamp));
+        } catch (NumberFormatException e) {
+            log.debug("Cannot derive creation time from job identifier {}", jobId);
+            return null;
+        }
+    }
+
+    protected String getBucketPath(final long creationTime) {
+        final Calendar calendar = Calendar.getInstance(BUCKET_TIME_ZONE);
+        calendar.setTimeInMillis(creationTime);
+        return String.format("%04d/%02d/%02d/%02d",
+                calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR_OF_DAY));
+    }
+
+    /**
+     * Get the folder at the relative path {@code bucketPath}, e.g. a bucket or status partition, adding the missing
+     * folders to {@code session}. They are saved along with the jobs added to or moved into them, see
+     * {@link #applyAndSave(Session, JcrJobStatusCounters.Changes, SessionChanges)} for concurrent creation of a folder.
+     */
+    protected Node getOrCreateFolderNode(final Session session, final String bucketPath) throws RepositoryException {
+        Node folder = getJobsStoreNode(session);
+        for (String segment : bucketPath.split("/")) {
+            if (folder.hasNode(segment)) {
+                folder = folder.getNode(segment);
             } else {
-                updatesStoreNode = rootNode.getNode(DEFAULT_WEB_ARCHIVE_UPDATE_JOBSTORE_LOCATION);
+                folder = folder.addNode(segment, WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER);
             }
         }
-        return updatesStoreNode;
+        return folder;
+    }
+
+    /**
+     * Remove {@code folder} and its ancestors as long as they are empty bucket folders (yyyy/MM/dd/HH) after their last
+     * job has been moved or removed. The bucket of the current hour and its ancestors are kept, as new jobs are added to
+     * them. The removal is saved along with the other changes of the session.
+     */
+    protected void pruneEmptyBuckets(final Node folder) throws RepositoryException {
+        final String currentBucketPath = getBucketPath(System.currentTimeMillis()) + "/";
+        Node bucket = folder;
+        while (isBucketFolder(bucket) && !bucket.hasNodes() && !currentBucketPath.startsWith(getBucketFolderPath(bucket) + "/")) {
+            final Node parent = bucket.getParent();
+            log.debug("Removing empty bucket {}", bucket.getPath());
+            bucket.remove();
+            bucket = parent;
+        }
+    }
+
+    private static boolean isBucketFolder(final Node node) throws RepositoryException {
+        return node.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER) && StringUtils.isNumeric(node.getName());
+    }
+
+    /**
+     * @return the relative bucket path of a bucket folder, e.g. 'yyyy/MM' for a month folder
+     */
+    private static String getBucketFolderPath(final Node bucket) throws RepositoryException {
+        final Deque<String> segments = new ArrayDeque<>();
+        for (Node node = bucket; isBucketFolder(node); node = node.getParent()) {
+            segments.addFirst(node.getName());
+        }
+        return String.join("/", segments);
+    }
+
+    protected synchronized void startMigration() {
+        if (migrationExecutor == null && moduleSession != null) {
+            migrationStopped = false;
+            migrationExecutor = Executors.newSingleThreadExecutor();
+            migrationExecutor.submit(this::migrateJobs);
+        }
+    }
+
+    protected synchronized void stopMigration() {
+        migrationStopped = true;
+        if (migrationExecutor != null) {
+            migrationExecutor.shutdownNow();
+            migrationExecutor = null;
+        }
+    }
+
+    protected synchronized void startCountReconciliation() {
+        stopCountReconciliation();
+        if (countReconcileInterval > 0 && moduleSession != null) {
+            countReconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+            countReconcileExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcileStatusCounters();
+                } catch (WebArchiveUpdateException | RuntimeException e) {
+                    log.warn("Error while reconciling job counters: {}", e.toString());
+                }
+            }, countReconcileInterval, countReconcileInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    protected synchronized void stopCountReconciliation() {
+        if (countReconcileExecutor != null) {
+            countReconcileExecutor.shutdownNow();
+            countReconcileExecutor = null;
+        }
+    }
+
+    /**
+     * Move the jobs that are not stored in the folder dictated by the store layout and status partitioning, e.g. after
+     * either has been changed, in batches of {@code batchSize}. Folders of a previous layout are removed once empty.
+     * Runs while the store is in use; a batch that conflicts with a concurrent change is retried in the next round.
+     */
+    protected void migrateJobs() {
+        int totalMoved = 0;
+        int failedRounds = 0;
+        Session session = null;
+        try {
+            session = createSession();
+            final Node storeNode = getJobsStoreNode(session);
+            if (storeLayout == StoreLayout.FLAT && !statusPartitioning && !hasPartitionNodes(storeNode)) {
+                // nothing to migrate, and avoid iterating over all jobs of a flat store
+                return;
+            }
+            while (!migrationStopped) {
+                final List<Node> jobNodes = new ArrayList<>();
+                final List<Node> emptyFolders = new ArrayList<>();
+                collectMisplacedJobNodes(storeNode, "", false, jobNodes, emptyFolders);
+                if (jobNodes.isEmpty() && emptyFolders.isEmpty()) {
+                    break;
+                }
+
+                for (Node jobNode : jobNodes) {
+                    final Node containerNode = getJobContainerNode(session, jobNode.getName(), mapStatus(jobNode, WebArchivingConstants.PROP_STATUS));
+                    session.move(jobNode.getPath(), containerNode.getPath() + "/" + jobNode.getName());
+                }
+                for (Node folder : emptyFolders) {
+                    folder.remove();
+                }
+                try {
+                    session.save();
+                    totalMoved += jobNodes.size();
+                    failedRounds = 0;
+                    log.debug("Moved a batch of {} jobs after a total of {}", jobNodes.size(), totalMoved);
+                } catch (InvalidItemStateException | ItemExistsException e) {
+                    refreshSession(session);
+                    if (++failedRounds >= MAX_CONFLICT_RETRIES) {
+                        log.warn("Giving up migrating jobs after {} conflicting attempts: {}", failedRounds, e.toString());
+                        break;
+                    }
+                    log.info("Concurrent modification while migrating jobs, retrying: {}", e.toString());
+                }
+            }
+            if (totalMoved > 0) {
+                log.info("Migrated {} web archive update jobs into the {} store layout{}", totalMoved, storeLayout.name().toLowerCase(),
+                        statusPartitioning ? " with status partitioning" : "");
+            }
+        } catch (RepositoryException e) {
+            refreshSession(session);
+            log.error("Error while migrating web archive update jobs into the {} store layout", storeLayout.name().toLowerCase(), e);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    private static boolean hasPartitionNodes(final Node storeNode) throws RepositoryException {
+        for (Partition partition : Partition.values()) {
+            if (storeNode.hasNode(partition.getFolderName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect up to {@code batchSize} jobs below {@code folder} that are not stored in the folder they belong in.
+     * Folders of the current layout are not descended into, except for status partitions, while all jobs of the
+     * folders of a previous layout are collected.
+     *
+     * @param folderPath   relative path of {@code folder}
+     * @param legacy       whether {@code folder} belongs to a previous layout
+     * @param jobNodes     the collected jobs
+     * @param emptyFolders the collected empty folders of a previous layout
+     */
+    protected void collectMisplacedJobNodes(final Node folder, final String folderPath, final boolean legacy, final List<Node> jobNodes,
+                                            final List<Node> emptyFolders) throws RepositoryException {
+        for (NodeIterator children = folder.getNodes(); children.hasNext() && jobNodes.size() < batchSize; ) {
+            final Node child = children.nextNode();
+            if (child.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOB)) {
+                if (!folderPath.equals(getContainerPath(child.getName(), mapStatus(child, WebArchivingConstants.PROP_STATUS)))) {
+                    jobNodes.add(child);
+                }
+            } else if (child.isNodeType(WebArchivingConstants.NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER)) {
+                final String childPath = folderPath.isEmpty() ? child.getName() : folderPath + "/" + child.getName();
+                if (legacy || !isExpectedFolder(childPath)) {
+                    if (child.hasNodes()) {
+                        collectMisplacedJobNodes(child, childPath, true, jobNodes, emptyFolders);
+                    } else {
+                        emptyFolders.add(child);
+                    }
+                } else if (folderPath.isEmpty() && statusPartitioning) {
+                    collectMisplacedJobNodes(child, childPath, false, jobNodes, emptyFolders);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the status as stored by {@link #bindWebArchiveUpdateJobNode(Node, WebArchiveUpdateJob)}
+     */
+    private static WebArchiveUpdateJobStatus getStoredStatus(final WebArchiveUpdateJob job) {
+        return job.getStatus() != null ? job.getStatus() : WebArchiveUpdateJobStatus.UNDEFINED;
     }
 
     protected WebArchiveUpdateJobStatus mapStatus(final Node node, final String statusProperty) throws RepositoryException {
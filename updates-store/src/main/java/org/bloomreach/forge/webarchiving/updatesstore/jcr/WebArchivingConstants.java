@@ -31,6 +31,7 @@ public final class WebArchivingConstants {
     static final String NS_WEB_ARCHIVING_ADDON = "webarchivingaddon:";
 
     static final String NT_WEB_ARCHIVE_UPDATE_JOBS_CONTAINER = NS_WEB_ARCHIVING_ADDON + "updatejobsstore";
+    static final String NT_WEB_ARCHIVE_UPDATE_JOBS_FOLDER = NS_WEB_ARCHIVING_ADDON + "updatejobsfolder";
     static final String NT_WEB_ARCHIVE_UPDATE_JOB = NS_WEB_ARCHIVING_ADDON + "updatejob";
     static final String NT_WEB_ARCHIVE_UPDATE = NS_WEB_ARCHIVING_ADDON + "update";
 
@@ -42,6 +43,14 @@ public final class WebArchivingConstants {
     static final String PROP_STATUS = NS_WEB_ARCHIVING_ADDON + "status";
     static final String PROP_TYPE = NS_WEB_ARCHIVING_ADDON + "type";
     static final String PROP_URLS = NS_WEB_ARCHIVING_ADDON + "urls";
+    static final String PROP_URLS_ENCODED = NS_WEB_ARCHIVING_ADDON + "urlsencoded";
+    static final String PROP_URLS_DATA = NS_WEB_ARCHIVING_ADDON + "urlsdata";
+    static final String PROP_URL_COUNT = NS_WEB_ARCHIVING_ADDON + "urlcount";
+    static final String PROP_OWNER = NS_WEB_ARCHIVING_ADDON + "owner";
+    static final String PROP_LEASE_EXPIRATION = NS_WEB_ARCHIVING_ADDON + "leaseexpiration";
+    static final String PROP_NEXT_ATTEMPT = NS_WEB_ARCHIVING_ADDON + "nextattempt";
+    static final String PROP_VERSION = NS_WEB_ARCHIVING_ADDON + "version";
+    static final String PROP_UPDATE_ID = NS_WEB_ARCHIVING_ADDON + "updateid";
 
     static final Set<String> BUILTIN_JOB_PROP_NAMES =
         new HashSet<>(Arrays.asList(PROP_STATUS, PROP_CREATED, PROP_LAST_MODIFIED, PROP_CREATOR, PROP_ATTEMPT));